@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.documentsui.base;
+
+import static junit.framework.Assert.assertEquals;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Compares {@link StringIntIndex} with the HashMap the model used to index model IDs. Reports
+ * the median rebuild time and the heap retained by one index to APCT.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class StringIntIndexPerfTest {
+
+    private static final String AUTHORITY = "com.android.providers.media.documents";
+
+    private static final int WARM_UP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 10;
+
+    @Test
+    public void testIndex_10k() {
+        measure("index", 10000, StringIntIndex::of);
+    }
+
+    @Test
+    public void testIndex_100k() {
+        measure("index", 100000, StringIntIndex::of);
+    }
+
+    @Test
+    public void testHashMap_10k() {
+        measure("hashmap", 10000, StringIntIndexPerfTest::buildHashMap);
+    }
+
+    @Test
+    public void testHashMap_100k() {
+        measure("hashmap", 100000, StringIntIndexPerfTest::buildHashMap);
+    }
+
+    private void measure(String name, int count, Function<String[], Object> builder) {
+        final String[] ids = createModelIds(count);
+
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            builder.apply(ids);
+        }
+
+        final long[] measurements = new long[MEASURED_ITERATIONS];
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            final long start = SystemClock.elapsedRealtimeNanos();
+            builder.apply(ids);
+            measurements[i] = SystemClock.elapsedRealtimeNanos() - start;
+        }
+
+        // The IDs are allocated up front, so only the index itself is counted.
+        final long before = usedMemory();
+        final Object index = builder.apply(ids);
+        final long retained = usedMemory() - before;
+        assertEquals(count, size(index));
+
+        Arrays.sort(measurements);
+        final Bundle status = new Bundle();
+        status.putDouble(name + "-rebuild-" + count + "-median-ms",
+                measurements[MEASURED_ITERATIONS / 2] / 1e6);
+        status.putLong(name + "-retained-" + count + "-bytes", retained);
+        InstrumentationRegistry.getInstrumentation().sendStatus(Activity.RESULT_OK, status);
+    }
+
+    private static Object buildHashMap(String[] ids) {
+        final Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            positions.put(ids[i], i);
+        }
+        return positions;
+    }
+
+    private static int size(Object index) {
+        return index instanceof StringIntIndex
+                ? ((StringIntIndex) index).size()
+                : ((Map<?, ?>) index).size();
+    }
+
+    private static long usedMemory() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            runtime.gc();
+            runtime.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static String[] createModelIds(int count) {
+        final String[] ids = new String[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = AUTHORITY + "|image:" + (1000000 + i);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.documentsui.services;
+
+import static junit.framework.Assert.assertEquals;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.FileUtils;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.system.Int64Ref;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares copying a file with {@link CopyJob#transferFile} to copying it with
+ * {@link FileUtils#copy} and a progress listener per chunk, the way CopyJob copied files
+ * before. Reports the median copy time and the number of progress updates to APCT.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class CopyPerfTest {
+
+    private static final long MB = 1024 * 1024;
+
+    private File mDir;
+    private File mSrc;
+    private File mDst;
+
+    @Before
+    public void setUp() {
+        mDir = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "copy_perf");
+        mDir.mkdirs();
+        mSrc = new File(mDir, "src");
+        mDst = new File(mDir, "dst");
+    }
+
+    @After
+    public void tearDown() {
+        mSrc.delete();
+        mDst.delete();
+        mDir.delete();
+    }
+
+    @Test
+    public void testTransfer_1MB() throws IOException {
+        measure("transfer", 1 * MB, 10);
+    }
+
+    @Test
+    public void testTransfer_100MB() throws IOException {
+        measure("transfer", 100 * MB, 5);
+    }
+
+    @Test
+    public void testTransfer_4GB() throws IOException {
+        measure("transfer", 4096 * MB, 1);
+    }
+
+    @Test
+    public void testStreams_1MB() throws IOException {
+        measure("streams", 1 * MB, 10);
+    }
+
+    @Test
+    public void testStreams_100MB() throws IOException {
+        measure("streams", 100 * MB, 5);
+    }
+
+    @Test
+    public void testStreams_4GB() throws IOException {
+        measure("streams", 4096 * MB, 1);
+    }
+
+    private void measure(String name, long size, int iterations) throws IOException {
+        // Room for the source and the copy.
+        Assume.assumeTrue(mDir.getUsableSpace() > size * 2 + 100 * MB);
+        createSource(size);
+
+        final long[] measurements = new long[iterations];
+        final AtomicLong updates = new AtomicLong();
+        for (int i = 0; i < iterations; i++) {
+            updates.set(0);
+            final long start = SystemClock.elapsedRealtimeNanos();
+            final long copied = "transfer".equals(name) ? transfer(updates) : stream(updates);
+            measurements[i] = SystemClock.elapsedRealtimeNanos() - start;
+            assertEquals(size, copied);
+            assertEquals(size, mDst.length());
+        }
+
+        Arrays.sort(measurements);
+        final double medianMillis = measurements[iterations / 2] / 1e6;
+        final String label = name + "-" + (size / MB) + "mb";
+        final Bundle status = new Bundle();
+        status.putDouble(label + "-median-ms", medianMillis);
+        status.putDouble(label + "-mb-per-s", (size / (double) MB) / (medianMillis / 1000));
+        status.putLong(label + "-progress-updates", updates.get());
+        InstrumentationRegistry.getInstrumentation().sendStatus(Activity.RESULT_OK, status);
+    }
+
+    private long transfer(AtomicLong updates) throws IOException {
+        final AtomicLong copied = new AtomicLong();
+        try (ParcelFileDescriptor.AutoCloseInputStream in = openSource();
+                ParcelFileDescriptor.AutoCloseOutputStream out = openDestination()) {
+            CopyJob.transferFile(in.getChannel(), out.getChannel(), new CancellationSignal(),
+                    (long delta) -> {
+                        updates.incrementAndGet();
+                        copied.addAndGet(delta);
+                    });
+            out.getFD().sync();
+        }
+        return copied.get();
+    }
+
+    private long stream(AtomicLong updates) throws IOException {
+        final AtomicLong copied = new AtomicLong();
+        try (ParcelFileDescriptor.AutoCloseInputStream in = openSource();
+                ParcelFileDescriptor.AutoCloseOutputStream out = openDestination()) {
+            final Int64Ref last = new Int64Ref(0);
+            FileUtils.copy(in, out, new CancellationSignal(), Runnable::run, (long progress) -> {
+                updates.incrementAndGet();
+                copied.addAndGet(progress - last.value);
+                last.value = progress;
+            });
+            out.getFD().sync();
+        }
+        return copied.get();
+    }
+
+    private ParcelFileDescriptor.AutoCloseInputStream openSource() throws IOException {
+        return new ParcelFileDescriptor.AutoCloseInputStream(
+                ParcelFileDescriptor.open(mSrc, ParcelFileDescriptor.MODE_READ_ONLY));
+    }
+
+    private ParcelFileDescriptor.AutoCloseOutputStream openDestination() throws IOException {
+        return new ParcelFileDescriptor.AutoCloseOutputStream(ParcelFileDescriptor.open(mDst,
+                ParcelFileDescriptor.MODE_WRITE_ONLY | ParcelFileDescriptor.MODE_CREATE
+                        | ParcelFileDescriptor.MODE_TRUNCATE));
+    }
+
+    private void createSource(long size) throws IOException {
+        // Random bytes, so that no layer below can get away with copying less.
+        final byte[] buffer = new byte[(int) MB];
+        new Random(0).nextBytes(buffer);
+        try (FileOutputStream out = new FileOutputStream(mSrc)) {
+            for (long written = 0; written < size; written += buffer.length) {
+                out.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+            }
+            out.getFD().sync();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.documentsui.sorting;
+
+import static junit.framework.Assert.assertEquals;
+
+import android.app.Activity;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.provider.DocumentsContract.Document;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.documentsui.roots.RootCursorWrapper;
+import com.android.documentsui.testing.SortModels;
+import com.android.documentsui.testing.TestFileTypeLookup;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Microbenchmark for sorting directory cursors. Each case runs a few warm up iterations, then
+ * reports the median of the measured iterations to APCT.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class SortingCursorWrapperPerfTest {
+
+    private static final String AUTHORITY = "test_authority";
+
+    private static final String[] COLUMNS = new String[] {
+            RootCursorWrapper.COLUMN_AUTHORITY,
+            Document.COLUMN_DOCUMENT_ID,
+            Document.COLUMN_DISPLAY_NAME,
+            Document.COLUMN_SIZE,
+            Document.COLUMN_LAST_MODIFIED,
+            Document.COLUMN_MIME_TYPE
+    };
+
+    private static final String[] MIMES = new String[] {
+            Document.MIME_TYPE_DIR,
+            "image/jpeg",
+            "image/png",
+            "text/plain",
+            "application/pdf",
+            "video/mp4",
+            "audio/mp3"
+    };
+
+    private static final long REFERENCE_TIMESTAMP = 1459159369359L;
+
+    private static final int WARM_UP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 10;
+
+    @Test
+    public void testSortByName_1k() {
+        measure(SortModel.SORT_DIMENSION_ID_TITLE, 1000, false);
+    }
+
+    @Test
+    public void testSortByName_10k() {
+        measure(SortModel.SORT_DIMENSION_ID_TITLE, 10000, false);
+    }
+
+    @Test
+    public void testSortByName_100k() {
+        measure(SortModel.SORT_DIMENSION_ID_TITLE, 100000, false);
+    }
+
+    @Test
+    public void testSortByName_100k_parallel() {
+        measure(SortModel.SORT_DIMENSION_ID_TITLE, 100000, true);
+    }
+
+    @Test
+    public void testSortByType_10k() {
+        measure(SortModel.SORT_DIMENSION_ID_FILE_TYPE, 10000, false);
+    }
+
+    @Test
+    public void testSortByDate_1k() {
+        measure(SortModel.SORT_DIMENSION_ID_DATE, 1000, false);
+    }
+
+    @Test
+    public void testSortByDate_10k() {
+        measure(SortModel.SORT_DIMENSION_ID_DATE, 10000, false);
+    }
+
+    @Test
+    public void testSortByDate_100k() {
+        measure(SortModel.SORT_DIMENSION_ID_DATE, 100000, false);
+    }
+
+    @Test
+    public void testSortByDate_100k_parallel() {
+        measure(SortModel.SORT_DIMENSION_ID_DATE, 100000, true);
+    }
+
+    @Test
+    public void testSortBySize_10k() {
+        measure(SortModel.SORT_DIMENSION_ID_SIZE, 10000, false);
+    }
+
+    private void measure(
+            @SortModel.SortDimensionId int dimensionId, int rows, boolean parallel) {
+        final SortModel sortModel = SortModels.createTestSortModel();
+        final SortDimension dimension = sortModel.getDimensionById(dimensionId);
+        sortModel.sortByUser(dimensionId, dimension.getDefaultSortDirection());
+        final TestFileTypeLookup fileTypeLookup = new TestFileTypeLookup();
+        final Cursor cursor = createCursor(rows);
+
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            new SortingCursorWrapper(cursor, dimension, fileTypeLookup, parallel);
+        }
+
+        final long[] measurements = new long[MEASURED_ITERATIONS];
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            final long start = SystemClock.elapsedRealtimeNanos();
+            final Cursor sorted =
+                    new SortingCursorWrapper(cursor, dimension, fileTypeLookup, parallel);
+            measurements[i] = SystemClock.elapsedRealtimeNanos() - start;
+            assertEquals(rows, sorted.getCount());
+        }
+        cursor.close();
+
+        Arrays.sort(measurements);
+        final Bundle status = new Bundle();
+        status.putDouble(
+                "sort-" + getDimensionName(dimensionId) + "-" + rows
+                        + (parallel ? "-parallel" : "") + "-median-ms",
+                measurements[MEASURED_ITERATIONS / 2] / 1e6);
+        InstrumentationRegistry.getInstrumentation().sendStatus(Activity.RESULT_OK, status);
+    }
+
+    private static Cursor createCursor(int rows) {
+        // Fixed seed so every run sorts the same data.
+        final Random rand = new Random(rows);
+        final MatrixCursor c = new MatrixCursor(COLUMNS, rows);
+        for (int i = 0; i < rows; i++) {
+            final MatrixCursor.RowBuilder row = c.newRow();
+            row.add(RootCursorWrapper.COLUMN_AUTHORITY, AUTHORITY);
+            row.add(Document.COLUMN_DOCUMENT_ID, Integer.toString(i));
+            row.add(Document.COLUMN_DISPLAY_NAME, "file_" + rand.nextInt(rows) + ".jpg");
+            row.add(Document.COLUMN_SIZE, rand.nextInt(1 << 24));
+            row.add(Document.COLUMN_LAST_MODIFIED, REFERENCE_TIMESTAMP - rand.nextInt());
+            row.add(Document.COLUMN_MIME_TYPE, MIMES[rand.nextInt(MIMES.length)]);
+        }
+        return c;
+    }
+
+    private static String getDimensionName(@SortModel.SortDimensionId int dimensionId) {
+        switch (dimensionId) {
+            case SortModel.SORT_DIMENSION_ID_TITLE:
+                return "name";
+            case SortModel.SORT_DIMENSION_ID_FILE_TYPE:
+                return "type";
+            case SortModel.SORT_DIMENSION_ID_DATE:
+                return "date";
+            case SortModel.SORT_DIMENSION_ID_SIZE:
+                return "size";
+            default:
+                throw new IllegalArgumentException("Unexpected dimension id: " + dimensionId);
+        }
+    }
+}
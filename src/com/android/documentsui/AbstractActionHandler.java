@@ -522,6 +522,15 @@ public abstract class AbstractActionHandler<T extends FragmentActivity & CommonA
         mActivity.getSupportLoaderManager().restartLoader(LOADER_ID, null, mBindings);
     }
 
+    @Override
+    public void loadNextPage() {
+        final Loader<DirectoryResult> loader =
+                mActivity.getSupportLoaderManager().getLoader(LOADER_ID);
+        if (loader instanceof DirectoryLoader) {
+            ((DirectoryLoader) loader).loadNextPage();
+        }
+    }
+
     protected final boolean launchToDocument(Uri uri) {
         // We don't support launching to a document in an archive.
         if (!Providers.isArchiveUri(uri)) {
@@ -598,6 +607,7 @@ public abstract class AbstractActionHandler<T extends FragmentActivity & CommonA
                             context,
                             mProviders,
                             mState,
+                            mInjector.features,
                             mExecutors,
                             mInjector.fileTypeLookup,
                             mSearchMgr.buildQueryArgs());
@@ -609,6 +619,7 @@ public abstract class AbstractActionHandler<T extends FragmentActivity & CommonA
                             context,
                             mProviders,
                             mState,
+                            mInjector.features,
                             mExecutors,
                             mInjector.fileTypeLookup);
                 }
@@ -155,6 +155,11 @@ public interface ActionHandler {
 
     void loadDocumentsForCurrentStack();
 
+    /**
+     * Loads more documents of the current directory, if they are loaded a page at a time.
+     */
+    void loadNextPage();
+
     void viewInOwner();
 
     void setDebugMode(boolean enabled);
@@ -35,13 +35,16 @@ import android.os.RemoteException;
 import android.provider.DocumentsContract.Document;
 import android.util.Log;
 
+import androidx.annotation.Nullable;
 import androidx.loader.content.AsyncTaskLoader;
 
 import com.android.documentsui.archives.ArchivesProvider;
+import com.android.documentsui.base.ColumnarDocumentsCursor;
 import com.android.documentsui.base.DebugFlags;
 import com.android.documentsui.base.DocumentInfo;
 import com.android.documentsui.base.Features;
 import com.android.documentsui.base.FilteringCursorWrapper;
+import com.android.documentsui.base.LimitingCursorWrapper;
 import com.android.documentsui.base.Lookup;
 import com.android.documentsui.base.MimeTypes;
 import com.android.documentsui.base.RootInfo;
@@ -49,6 +52,7 @@ import com.android.documentsui.base.State;
 import com.android.documentsui.roots.RootCursorWrapper;
 import com.android.documentsui.sorting.SortModel;
 
+import java.util.Arrays;
 import java.util.concurrent.Executor;
 
 public class DirectoryLoader extends AsyncTaskLoader<DirectoryResult> {
@@ -67,10 +71,19 @@ public class DirectoryLoader extends AsyncTaskLoader<DirectoryResult> {
     private final boolean mSearchMode;
     private final Bundle mQueryArgs;
     private final boolean mPhotoPicking;
+    private final int mParallelSortThreshold;
+    private final int mPageSize;
 
     private DocumentInfo mDoc;
     private CancellationSignal mSignal;
     private DirectoryResult mResult;
+    // Snapshot of the last delivered result, which new results are diffed against.
+    private volatile ModelSnapshot mLastSnapshot;
+    // Paging of the last delivered result, which the next page is loaded after.
+    private volatile Page mLastPage;
+    // Guarded by this. Number of documents to load, which grows a page at a time.
+    private int mRequestedCount;
+    private boolean mAppendRequested;
 
     private Features mFeatures;
 
@@ -94,6 +107,11 @@ public class DirectoryLoader extends AsyncTaskLoader<DirectoryResult> {
         mQueryArgs = queryArgs;
         mObserver = new LockingContentObserver(lock, this::onContentChanged);
         mPhotoPicking = state.isPhotoPicking();
+        mParallelSortThreshold = features.isParallelSortEnabled()
+                ? context.getResources().getInteger(R.integer.config_parallel_sort_threshold)
+                : SortModel.NO_PARALLEL_SORT;
+        mPageSize = context.getResources().getInteger(R.integer.config_directory_page_size);
+        mRequestedCount = mPageSize;
     }
 
 //    @Override
@@ -103,22 +121,33 @@ public class DirectoryLoader extends AsyncTaskLoader<DirectoryResult> {
 
     @Override
     public final DirectoryResult loadInBackground() {
+        final boolean appendRequested;
+        final int requestedCount;
         synchronized (this) {
             if (isLoadInBackgroundCanceled()) {
                 throw new OperationCanceledException();
             }
             mSignal = new CancellationSignal();
+            appendRequested = mAppendRequested;
+            requestedCount = mRequestedCount;
         }
 
         final ContentResolver resolver = getContext().getContentResolver();
         final String authority = mUri.getAuthority();
+        final Page lastPage = appendRequested ? mLastPage : null;
 
-        final DirectoryResult result = new DirectoryResult();
+        DirectoryResult result = new DirectoryResult();
         result.doc = mDoc;
 
         ContentProviderClient client = null;
         Cursor cursor;
         try {
+            // Documents of providers that ignore paging arguments are all loaded already.
+            if (lastPage != null && lastPage.unpaged != null && lastPage.unpaged.acquire()) {
+                result = window(lastPage.unpaged, requestedCount);
+                return result;
+            }
+
             client = DocumentsApplication.acquireUnstableProviderOrThrow(resolver, authority);
             if (mDoc.isInArchive()) {
                 ArchivesProvider.acquireArchive(client, mUri);
@@ -127,15 +156,24 @@ public class DirectoryLoader extends AsyncTaskLoader<DirectoryResult> {
 
             final Bundle queryArgs = new Bundle();
             mModel.addQuerySortArgs(queryArgs);
+            final int sortDimensionId = mModel.getSortedDimensionId();
+            final int sortDirection = mModel.getCurrentSortDirection();
 
             if (mSearchMode) {
                 queryArgs.putAll(mQueryArgs);
             }
 
-            if (mFeatures.isContentPagingEnabled()) {
-                // TODO: At some point we don't want forced flags to override real paging...
-                // and that point is when we have real paging.
-                DebugFlags.addForcedPagingArgs(queryArgs);
+            // Forced paging arguments, set to debug providers, override real paging.
+            final boolean paged = mFeatures.isContentPagingEnabled()
+                    && !DebugFlags.addForcedPagingArgs(queryArgs)
+                    && mPageSize > 0;
+            ColumnarDocumentsCursor previousRows =
+                    (paged && lastPage != null) ? lastPage.rows : null;
+            final int offset = (previousRows != null) ? lastPage.providerOffset : 0;
+            final int limit = (previousRows != null) ? mPageSize : requestedCount;
+            if (paged) {
+                queryArgs.putInt(ContentResolver.QUERY_ARG_OFFSET, offset);
+                queryArgs.putInt(ContentResolver.QUERY_ARG_LIMIT, limit);
             }
 
             cursor = client.query(mUri, null, queryArgs, mSignal);
@@ -146,6 +184,14 @@ public class DirectoryLoader extends AsyncTaskLoader<DirectoryResult> {
 
             cursor.registerContentObserver(mObserver);
 
+            final Bundle extras = cursor.getExtras();
+            final int providerCount = cursor.getCount();
+            final boolean pagingHonored = paged && isPagingHonored(extras);
+            if (!pagingHonored) {
+                // The provider returned all of its documents, whatever was loaded before.
+                previousRows = null;
+            }
+
             cursor = new RootCursorWrapper(mUri.getAuthority(), mRoot.rootId, cursor, -1);
 
             if (mSearchMode && !mFeatures.isFoldersInSearchResultsEnabled()) {
@@ -157,15 +203,41 @@ public class DirectoryLoader extends AsyncTaskLoader<DirectoryResult> {
                 cursor = new FilteringCursorWrapper(cursor, PHOTO_PICKING_ACCEPT_MIMES, null);
             }
 
+            // Copy the provider cursor and the wrappers above in a single pass, so that binding
+            // and sorting only do array reads from here on. A new page is copied after the
+            // documents of the pages before it. The copy stays in provider order, and the sort
+            // is a position array over it, so that pages can be appended and sorts changed in
+            // place without copying the rows again.
+            final ColumnarDocumentsCursor rows = (previousRows != null)
+                    ? previousRows.append(cursor)
+                    : new ColumnarDocumentsCursor(cursor);
+            cursor = rows;
+
             // TODO: When API tweaks have landed, use ContentResolver.EXTRA_HONORED_ARGS
             // instead of checking directly for ContentResolver.QUERY_ARG_SORT_COLUMNS (won't work)
             if (mFeatures.isContentPagingEnabled()
                     && cursor.getExtras().containsKey(ContentResolver.QUERY_ARG_SORT_COLUMNS)) {
                 if (VERBOSE) Log.d(TAG, "Skipping sort of pre-sorted cursor. Booya!");
             } else {
-                cursor = mModel.sortCursor(cursor, mFileTypeLookup);
+                cursor = mModel.sortCursor(cursor, mFileTypeLookup, mParallelSortThreshold);
             }
             result.cursor = cursor;
+
+            // Build model IDs here rather than on the main thread.
+            result.snapshot = ModelSnapshot.of(cursor, sortDimensionId, sortDirection);
+
+            if (paged && !pagingHonored && result.snapshot.getCount() > requestedCount) {
+                // Show all the documents a page at a time anyway, so that the first page binds
+                // as quickly as it would for a provider that does page.
+                result = window(new SharedResult(result), requestedCount);
+            } else {
+                if (pagingHonored) {
+                    final int providerOffset = offset + providerCount;
+                    result.page = new Page(rows, providerOffset, null,
+                            hasMore(extras, providerOffset, providerCount, limit));
+                }
+                diff(result);
+            }
         } catch (Exception e) {
             Log.w(TAG, "Failed to query", e);
             result.exception = e;
@@ -180,6 +252,73 @@ public class DirectoryLoader extends AsyncTaskLoader<DirectoryResult> {
         return result;
     }
 
+    /**
+     * Returns a result that shows the first documents of a result loaded in full. The result
+     * has to be acquired already, and is released when the returned one is closed.
+     */
+    private DirectoryResult window(SharedResult unpaged, int count) {
+        final ModelSnapshot snapshot = unpaged.result.snapshot.prefix(count);
+        final DirectoryResult result = new DirectoryResult();
+        result.doc = unpaged.result.doc;
+        result.cursor = new LimitingCursorWrapper(unpaged.result.cursor, snapshot.getCount());
+        result.snapshot = snapshot;
+        result.page = new Page(null, 0, unpaged,
+                snapshot.getCount() < unpaged.result.snapshot.getCount());
+        diff(result);
+        return result;
+    }
+
+    /**
+     * Works out what changed since the last result, so that the UI doesn't have to rebind every
+     * item.
+     */
+    private void diff(DirectoryResult result) {
+        final ModelSnapshot lastSnapshot = mLastSnapshot;
+        if (mFeatures.isIncrementalUpdatesEnabled() && lastSnapshot != null) {
+            result.diff = result.snapshot.diffFrom(lastSnapshot);
+        }
+    }
+
+    private static boolean isPagingHonored(@Nullable Bundle extras) {
+        final String[] honoredArgs = (extras != null)
+                ? extras.getStringArray(ContentResolver.EXTRA_HONORED_ARGS)
+                : null;
+        return honoredArgs != null
+                && Arrays.asList(honoredArgs).contains(ContentResolver.QUERY_ARG_LIMIT);
+    }
+
+    private static boolean hasMore(
+            @Nullable Bundle extras, int providerOffset, int providerCount, int limit) {
+        if (extras != null && extras.containsKey(ContentResolver.EXTRA_TOTAL_COUNT)) {
+            return providerOffset < extras.getInt(ContentResolver.EXTRA_TOTAL_COUNT);
+        }
+        // A full page may well be followed by an empty one, which costs a query but no more.
+        return providerCount >= limit;
+    }
+
+    /**
+     * Loads the next page of documents, if the last result has more and the next page isn't
+     * being loaded already. Pages are added to the documents loaded before, so a new result
+     * with all of them is delivered.
+     */
+    public void loadNextPage() {
+        final Page page = mLastPage;
+        if (page == null || !page.hasMore) {
+            return;
+        }
+        synchronized (this) {
+            if (mAppendRequested) {
+                return;
+            }
+            mAppendRequested = true;
+            mRequestedCount += mPageSize;
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Loading next page.");
+        }
+        forceLoad();
+    }
+
     @Override
     public void cancelLoadInBackground() {
         super.cancelLoadInBackground();
@@ -199,6 +338,11 @@ public class DirectoryLoader extends AsyncTaskLoader<DirectoryResult> {
         }
         DirectoryResult oldResult = mResult;
         mResult = result;
+        mLastSnapshot = result.snapshot;
+        mLastPage = result.page;
+        synchronized (this) {
+            mAppendRequested = false;
+        }
 
         if (isStarted()) {
             super.deliverResult(result);
@@ -226,9 +370,21 @@ public class DirectoryLoader extends AsyncTaskLoader<DirectoryResult> {
 
     @Override
     public void onCanceled(DirectoryResult result) {
+        synchronized (this) {
+            mAppendRequested = false;
+        }
         FileUtils.closeQuietly(result);
     }
 
+    @Override
+    public void onContentChanged() {
+        // Changes are reloaded from the start, up to as many documents as were shown.
+        synchronized (this) {
+            mAppendRequested = false;
+        }
+        super.onContentChanged();
+    }
+
     @Override
     protected void onReset() {
         super.onReset();
@@ -238,10 +394,66 @@ public class DirectoryLoader extends AsyncTaskLoader<DirectoryResult> {
 
         FileUtils.closeQuietly(mResult);
         mResult = null;
+        mLastPage = null;
 
         getContext().getContentResolver().unregisterContentObserver(mObserver);
     }
 
+    /**
+     * How the documents of a result were paged.
+     */
+    static final class Page {
+        // Documents read from a provider that pages, before sorting. The next page is added to
+        // a copy of them.
+        final @Nullable ColumnarDocumentsCursor rows;
+        // Number of documents the provider returned so far, which is where the next page starts.
+        final int providerOffset;
+        // Documents of a provider that ignores paging arguments, all loaded at once.
+        final @Nullable SharedResult unpaged;
+        final boolean hasMore;
+
+        Page(@Nullable ColumnarDocumentsCursor rows, int providerOffset,
+                @Nullable SharedResult unpaged, boolean hasMore) {
+            this.rows = rows;
+            this.providerOffset = providerOffset;
+            this.unpaged = unpaged;
+            this.hasMore = hasMore;
+        }
+    }
+
+    /**
+     * Result shared by the results that show part of it. It is closed with the last of them.
+     */
+    static final class SharedResult {
+        final DirectoryResult result;
+        private int mRefs = 1;
+
+        SharedResult(DirectoryResult result) {
+            this.result = result;
+        }
+
+        /**
+         * @return false if the result is closed already.
+         */
+        synchronized boolean acquire() {
+            if (mRefs == 0) {
+                return false;
+            }
+            mRefs++;
+            return true;
+        }
+
+        void release() {
+            final boolean close;
+            synchronized (this) {
+                close = --mRefs == 0;
+            }
+            if (close) {
+                FileUtils.closeQuietly(result);
+            }
+        }
+    }
+
     private static final class LockingContentObserver extends ContentObserver {
         private final ContentLock mLock;
         private final Runnable mContentChangedCallback;
@@ -31,15 +31,27 @@ public class DirectoryResult implements AutoCloseable {
     public Exception exception;
     public DocumentInfo doc;
     ContentProviderClient client;
+    // Model data for the cursor, and changes from the previous result of the same loader. Both
+    // are optional, and computed by loaders off the main thread.
+    ModelSnapshot snapshot;
+    ModelSnapshot.Diff diff;
+    // How the documents were paged, if they were. Set by DirectoryLoader.
+    DirectoryLoader.Page page;
 
     @Override
     public void close() {
         FileUtils.closeQuietly(cursor);
+        if (page != null && page.unpaged != null) {
+            page.unpaged.release();
+        }
         if (client != null && doc.isInArchive()) {
             ArchivesProvider.releaseArchive(client, doc.derivedUri);
         }
         cursor = null;
         client = null;
         doc = null;
+        snapshot = null;
+        diff = null;
+        page = null;
     }
 }
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.documentsui;
+
+import static com.android.documentsui.base.SharedMinimal.DEBUG;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Point;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size-bounded LRU cache of compressed thumbnails on disk, kept under {@link ThumbnailCache}.
+ * Unlike the memory cache it survives trimming and process death, so folders opened before don't
+ * need every thumbnail fetched from providers again.
+ *
+ * <p>Thumbnails are keyed by uri, size and last modified time, so a document that changed never
+ * hits a thumbnail of the old version. Reads block, and must be made off the main thread; writes
+ * are made on the executor the cache is created with.
+ */
+public class DiskThumbnailCache {
+
+    private static final String TAG = "DiskThumbnailCache";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int COMPRESS_QUALITY = 80;
+
+    private final File mDir;
+    private final long mMaxSizeBytes;
+    private final Executor mWriteExecutor;
+
+    // Files by name, from least to most recently used. Reads don't touch the files on disk.
+    @GuardedBy("mFiles")
+    private final LinkedHashMap<String, Long> mFiles = new LinkedHashMap<>(0, 0.75f, true);
+    @GuardedBy("mFiles")
+    private long mSizeBytes;
+    @GuardedBy("mFiles")
+    private boolean mIndexed;
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    /**
+     * @param dir the directory to keep thumbnails in, which the cache owns.
+     * @param maxSizeBytes the maximum size of files the cache keeps.
+     * @param writeExecutor the executor thumbnails are compressed and written on.
+     */
+    public DiskThumbnailCache(File dir, long maxSizeBytes, Executor writeExecutor) {
+        mDir = dir;
+        mMaxSizeBytes = maxSizeBytes;
+        mWriteExecutor = writeExecutor;
+    }
+
+    /**
+     * Reads the thumbnail of the given uri, size and last modified time.
+     *
+     * @return the thumbnail, or null if there is none.
+     */
+    public @Nullable Bitmap getThumbnail(Uri uri, Point size, long lastModified) {
+        final String name = getFileName(uri, size, lastModified);
+        synchronized (mFiles) {
+            ensureIndexedLocked();
+            if (mFiles.get(name) == null) {
+                mMissCount.incrementAndGet();
+                return null;
+            }
+        }
+
+        final File file = new File(mDir, name);
+        final Bitmap thumbnail = BitmapFactory.decodeFile(file.getPath());
+        if (thumbnail == null) {
+            // Removed or damaged since it was indexed.
+            synchronized (mFiles) {
+                removeLocked(name);
+            }
+            mMissCount.incrementAndGet();
+            return null;
+        }
+
+        mHitCount.incrementAndGet();
+        return thumbnail;
+    }
+
+    /**
+     * Compresses and writes a thumbnail on the write executor. The bitmap must not be recycled.
+     */
+    public void putThumbnail(Uri uri, Point size, Bitmap thumbnail, long lastModified) {
+        final String name = getFileName(uri, size, lastModified);
+        mWriteExecutor.execute(() -> write(name, thumbnail));
+    }
+
+    private void write(String name, Bitmap thumbnail) {
+        synchronized (mFiles) {
+            ensureIndexedLocked();
+            if (mFiles.containsKey(name)) {
+                return;
+            }
+        }
+
+        // Write to a temporary file first, so that a thumbnail is either complete or missing.
+        final File temp = new File(mDir, name + TEMP_SUFFIX);
+        final File file = new File(mDir, name);
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            if (!thumbnail.compress(getFormat(thumbnail), COMPRESS_QUALITY, out)) {
+                throw new IOException("Failed to compress thumbnail.");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write thumbnail " + name, e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            Log.w(TAG, "Failed to rename thumbnail " + name);
+            temp.delete();
+            return;
+        }
+
+        synchronized (mFiles) {
+            mFiles.put(name, file.length());
+            mSizeBytes += file.length();
+            trimToSizeLocked(mMaxSizeBytes);
+        }
+    }
+
+    /**
+     * Removes all thumbnails.
+     */
+    public void clear() {
+        synchronized (mFiles) {
+            ensureIndexedLocked();
+            trimToSizeLocked(0);
+        }
+    }
+
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    public long getSizeBytes() {
+        synchronized (mFiles) {
+            return mSizeBytes;
+        }
+    }
+
+    @GuardedBy("mFiles")
+    private void ensureIndexedLocked() {
+        if (mIndexed) {
+            return;
+        }
+        mIndexed = true;
+
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            Log.w(TAG, "Failed to create " + mDir);
+            return;
+        }
+
+        final File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        // Reads are only ordered in memory, so a new process starts from the order files were
+        // written in.
+        Arrays.sort(files, (f0, f1) -> Long.compare(f0.lastModified(), f1.lastModified()));
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                // Left by a write that didn't finish.
+                file.delete();
+                continue;
+            }
+            mFiles.put(file.getName(), file.length());
+            mSizeBytes += file.length();
+        }
+        trimToSizeLocked(mMaxSizeBytes);
+
+        if (DEBUG) {
+            Log.d(TAG, "Indexed " + mFiles.size() + " thumbnails of " + mSizeBytes + " bytes.");
+        }
+    }
+
+    @GuardedBy("mFiles")
+    private void trimToSizeLocked(long maxSizeBytes) {
+        final Iterator<Map.Entry<String, Long>> it = mFiles.entrySet().iterator();
+        while (mSizeBytes > maxSizeBytes && it.hasNext()) {
+            final Map.Entry<String, Long> entry = it.next();
+            new File(mDir, entry.getKey()).delete();
+            mSizeBytes -= entry.getValue();
+            it.remove();
+        }
+    }
+
+    @GuardedBy("mFiles")
+    private void removeLocked(String name) {
+        final Long length = mFiles.remove(name);
+        if (length != null) {
+            new File(mDir, name).delete();
+            mSizeBytes -= length;
+        }
+    }
+
+    private static Bitmap.CompressFormat getFormat(Bitmap thumbnail) {
+        return thumbnail.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
+    }
+
+    private static String getFileName(Uri uri, Point size, long lastModified) {
+        final String key = uri + "|" + size.x + "x" + size.y + "|" + lastModified;
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(key.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16));
+                name.append(Character.forDigit(b & 0xf, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every platform has SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+}
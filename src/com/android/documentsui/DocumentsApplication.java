@@ -30,6 +30,9 @@ import android.os.RemoteException;
 import android.text.format.DateUtils;
 import android.util.Log;
 
+import androidx.annotation.Nullable;
+
+import com.android.documentsui.base.Features;
 import com.android.documentsui.base.Lookup;
 import com.android.documentsui.clipping.ClipStorage;
 import com.android.documentsui.clipping.ClipStore;
@@ -40,12 +43,17 @@ import com.android.documentsui.queries.SearchHistoryManager;
 import com.android.documentsui.roots.ProvidersCache;
 import com.android.documentsui.theme.ThemeOverlayManager;
 
+import java.io.File;
+import java.util.concurrent.Executors;
+
 public class DocumentsApplication extends Application {
     private static final String TAG = "DocumentsApplication";
     private static final long PROVIDER_ANR_TIMEOUT = 20 * DateUtils.SECOND_IN_MILLIS;
+    private static final String THUMBNAILS_DIR = "thumbnails";
 
     private ProvidersCache mProviders;
     private ThumbnailCache mThumbnailCache;
+    private @Nullable DiskThumbnailCache mDiskThumbnailCache;
     private ClipStorage mClipStore;
     private DocumentClipper mClipper;
     private DragAndDropManager mDragAndDropManager;
@@ -60,6 +68,14 @@ public class DocumentsApplication extends Application {
         return app.mThumbnailCache;
     }
 
+    /**
+     * @return the disk tier of the thumbnail cache, or null if it is disabled.
+     */
+    public static @Nullable DiskThumbnailCache getDiskThumbnailCache(Context context) {
+        final DocumentsApplication app = (DocumentsApplication) context.getApplicationContext();
+        return app.mDiskThumbnailCache;
+    }
+
     public static ContentProviderClient acquireUnstableProviderOrThrow(
             ContentResolver resolver, String authority) throws RemoteException {
         final ContentProviderClient client = resolver.acquireUnstableContentProviderClient(
@@ -106,10 +122,20 @@ public class DocumentsApplication extends Application {
             Log.w(TAG, "Can't obtain OverlayManager from System Service!");
         }
 
+        ProviderExecutor.configure(
+                getResources().getInteger(R.integer.config_provider_executor_pool_size),
+                getResources().getInteger(R.integer.config_provider_executor_concurrency));
+
         mProviders = new ProvidersCache(this);
         mProviders.updateAsync(false);
 
         mThumbnailCache = new ThumbnailCache(memoryClassBytes / 4);
+        if (Features.create(this).isDiskThumbnailCacheEnabled()) {
+            mDiskThumbnailCache = new DiskThumbnailCache(
+                    new File(getCacheDir(), THUMBNAILS_DIR),
+                    getResources().getInteger(R.integer.config_disk_thumbnail_cache_size),
+                    Executors.newSingleThreadExecutor());
+        }
 
         mClipStore = new ClipStorage(
                 ClipStorage.prepareStorage(getCacheDir()),
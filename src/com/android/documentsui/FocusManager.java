@@ -181,8 +181,8 @@ public final class FocusManager extends FocusDelegate<String> implements FocusHa
             return;
         }
 
-        int pos = mScope.adapter.getStableIds().indexOf(mScope.pendingFocusId);
-        if (pos != -1) {
+        int pos = mScope.adapter.getPosition(mScope.pendingFocusId);
+        if (pos != RecyclerView.NO_POSITION) {
             focusItem(pos);
         }
         mScope.pendingFocusId = null;
@@ -24,6 +24,7 @@ import android.provider.DocumentsContract;
 
 import androidx.annotation.NonNull;
 
+import com.android.documentsui.base.Features;
 import com.android.documentsui.base.Lookup;
 import com.android.documentsui.base.RootInfo;
 import com.android.documentsui.base.State;
@@ -56,9 +57,9 @@ public class GlobalSearchLoader extends MultiRootDocumentsLoader {
      * @param queryArgs the bundle of query arguments
      */
     GlobalSearchLoader(Context context, ProvidersAccess providers, State state,
-            Lookup<String, Executor> executors, Lookup<String, String> fileTypeMap,
-            @NonNull Bundle queryArgs) {
-        super(context, providers, state, executors, fileTypeMap);
+            Features features, Lookup<String, Executor> executors,
+            Lookup<String, String> fileTypeMap, @NonNull Bundle queryArgs) {
+        super(context, providers, state, features, executors, fileTypeMap);
         mQueryArgs = queryArgs;
     }
 
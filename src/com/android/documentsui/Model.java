@@ -16,7 +16,6 @@
 
 package com.android.documentsui;
 
-import static com.android.documentsui.base.DocumentInfo.getCursorString;
 import static com.android.documentsui.base.SharedMinimal.DEBUG;
 import static com.android.documentsui.base.SharedMinimal.VERBOSE;
 
@@ -26,26 +25,26 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.provider.DocumentsContract;
-import android.provider.DocumentsContract.Document;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import androidx.recyclerview.selection.Selection;
+import androidx.recyclerview.widget.DiffUtil;
 
 import com.android.documentsui.base.DocumentFilters;
 import com.android.documentsui.base.DocumentInfo;
 import com.android.documentsui.base.EventListener;
 import com.android.documentsui.base.Features;
+import com.android.documentsui.base.StringIntIndex;
+import com.android.documentsui.sorting.SortDimension;
+import com.android.documentsui.sorting.SortDimension.SortDirection;
+import com.android.documentsui.sorting.SortModel;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 import java.util.function.Predicate;
 
 /**
@@ -62,15 +61,14 @@ public class Model {
 
     private final Features mFeatures;
 
-    /** Maps Model ID to cursor positions, for looking up items by Model ID. */
-    private final Map<String, Integer> mPositions = new HashMap<>();
-    private final Set<String> mFileNames = new HashSet<>();
+    /** Model IDs in cursor order, and indexes for looking up items by Model ID. */
+    private ModelSnapshot mSnapshot = ModelSnapshot.EMPTY;
 
     private boolean mIsLoading;
     private List<EventListener<Update>> mUpdateListeners = new ArrayList<>();
+    private @Nullable DirectoryResult mResult;
     private @Nullable Cursor mCursor;
     private int mCursorCount;
-    private String mIds[] = new String[0];
 
     public Model(Features features) {
         mFeatures = features;
@@ -85,8 +83,12 @@ public class Model {
     }
 
     private void notifyUpdateListeners() {
+        notifyUpdateListeners(Update.UPDATE);
+    }
+
+    private void notifyUpdateListeners(Update update) {
         for (EventListener<Update> handler: mUpdateListeners) {
-            handler.accept(Update.UPDATE);
+            handler.accept(update);
         }
     }
 
@@ -98,15 +100,14 @@ public class Model {
     }
 
     public void reset() {
+        mResult = null;
         mCursor = null;
         mCursorCount = 0;
-        mIds = new String[0];
-        mPositions.clear();
+        mSnapshot = ModelSnapshot.EMPTY;
         info = null;
         error = null;
         doc = null;
         mIsLoading = false;
-        mFileNames.clear();
         notifyUpdateListeners();
     }
 
@@ -124,11 +125,18 @@ public class Model {
             return;
         }
 
+        mResult = result;
         mCursor = result.cursor;
         mCursorCount = mCursor.getCount();
         doc = result.doc;
 
-        updateModelData();
+        final ModelSnapshot snapshot = getSnapshot(result.snapshot);
+        // The diff only applies if it was computed against what the model holds right now, and
+        // for the order the documents are in.
+        final @Nullable DiffUtil.DiffResult diff =
+                (result.diff != null && result.diff.from == mSnapshot
+                        && snapshot == result.snapshot) ? result.diff.result : null;
+        mSnapshot = snapshot;
 
         final Bundle extras = mCursor.getExtras();
         if (extras != null) {
@@ -137,7 +145,7 @@ public class Model {
             mIsLoading = extras.getBoolean(DocumentsContract.EXTRA_LOADING, false);
         }
 
-        notifyUpdateListeners();
+        notifyUpdateListeners(diff != null ? new Update(diff) : Update.UPDATE);
     }
 
     @VisibleForTesting
@@ -146,39 +154,72 @@ public class Model {
     }
 
     /**
-     * Scan over the incoming cursor data, generate Model IDs for each row, and sort the IDs
-     * according to the current sort order.
+     * Returns the Model IDs of the incoming cursor, sorted according to the current sort order.
+     * Loaders can generate them ahead of time, off the main thread; otherwise the cursor is
+     * scanned here. A cursor re-sorted in place since, like one delivered again after
+     * {@link #resort}, has its snapshot reordered to match.
      */
-    private void updateModelData() {
-        mIds = new String[mCursorCount];
-        mFileNames.clear();
-        mCursor.moveToPosition(-1);
-        for (int pos = 0; pos < mCursorCount; ++pos) {
-            if (!mCursor.moveToNext()) {
-                Log.e(TAG, "Fail to move cursor to next pos: " + pos);
-                return;
-            }
-            // Generates a Model ID for a cursor entry that refers to a document. The Model ID is a
-            // unique string that can be used to identify the document referred to by the cursor.
-            // Prefix the ids with the authority to avoid collisions.
-            mIds[pos] = ModelId.build(mCursor);
-            mFileNames.add(getCursorString(mCursor, Document.COLUMN_DISPLAY_NAME));
+    private ModelSnapshot getSnapshot(@Nullable ModelSnapshot snapshot) {
+        if (snapshot == null) {
+            return ModelSnapshot.of(mCursor);
+        }
+        final int[] moves = SortModel.getMovesFrom(
+                mCursor, snapshot.getSortDimensionId(), snapshot.getSortDirection());
+        if (moves == null) {
+            return snapshot;
+        }
+        return moves.length == snapshot.getCount()
+                ? snapshot.reorder(moves, SortModel.SORT_DIMENSION_ID_UNKNOWN,
+                        SortDimension.SORT_DIRECTION_NONE)
+                : ModelSnapshot.of(mCursor);
+    }
+
+    /**
+     * Re-sorts the loaded documents by the current sort order of the given model, without
+     * reloading them from the provider.
+     *
+     * @return true if the model was re-sorted, false if the directory needs to be reloaded.
+     */
+    public boolean resort(SortModel sortModel) {
+        if (mCursor == null || mCursor.isClosed()) {
+            return false;
+        }
+        // Documents that aren't loaded yet may well sort before the ones that are.
+        if (mResult.page != null && mResult.page.hasMore) {
+            return false;
+        }
+        if (!sortModel.resortCursor(mCursor)) {
+            return false;
         }
 
-        // Populate the positions.
-        mPositions.clear();
-        for (int i = 0; i < mCursorCount; ++i) {
-            mPositions.put(mIds[i], i);
+        if (DEBUG) {
+            Log.d(TAG, "Re-sorted model without reloading.");
+        }
+        // Reorder the documents read already rather than scan the cursor again. The loader's
+        // result is left as is; a cursor delivered again is matched up in update().
+        final int sortDimensionId = sortModel.getSortedDimensionId();
+        final @SortDirection int sortDirection = sortModel.getCurrentSortDirection();
+        final int[] moves = SortModel.getMovesFrom(
+                mCursor, mSnapshot.getSortDimensionId(), mSnapshot.getSortDirection());
+        if (moves != null && moves.length == mSnapshot.getCount()) {
+            mSnapshot = mSnapshot.reorder(moves, sortDimensionId, sortDirection);
+        } else if (moves != null || mSnapshot.getSortDimensionId() != sortDimensionId
+                || mSnapshot.getSortDirection() != sortDirection) {
+            // Either the snapshot's order isn't known, like for documents merged from several
+            // roots, or it doesn't cover the cursor.
+            mSnapshot = ModelSnapshot.of(mCursor);
         }
+        notifyUpdateListeners();
+        return true;
     }
 
     public boolean hasFileWithName(String name) {
-        return mFileNames.contains(name);
+        return mSnapshot.fileNames.contains(name);
     }
 
     public @Nullable Cursor getItem(String modelId) {
-        Integer pos = mPositions.get(modelId);
-        if (pos == null) {
+        final int pos = mSnapshot.positions.get(modelId);
+        if (pos == StringIntIndex.NOT_FOUND) {
             if (DEBUG) {
                 Log.d(TAG, "Unabled to find cursor position for modelId: " + modelId);
             }
@@ -263,13 +304,27 @@ public class Model {
      *         according to the current sort order, which was set by the last model update.
      */
     public String[] getModelIds() {
-        return mIds;
+        return mSnapshot.ids;
+    }
+
+    /**
+     * @return An index from model IDs to their positions in {@link #getModelIds()}. Like the IDs,
+     *         it is replaced rather than modified by every model update.
+     */
+    public StringIntIndex getModelIdIndex() {
+        return mSnapshot.positions;
     }
 
     public static class Update {
 
         public static final Update UPDATE = new Update();
 
+        /**
+         * Payload of item change notifications for documents whose contents changed in place.
+         * Lets RecyclerView rebind the existing holder instead of cross fading a new one in.
+         */
+        public static final String CONTENT_CHANGED_MARKER = "Content-Changed";
+
         @IntDef(value = {
                 TYPE_UPDATE,
                 TYPE_UPDATE_EXCEPTION
@@ -282,11 +337,21 @@ public class Model {
         private final @UpdateType int mUpdateType;
         private final @Nullable Exception mException;
         private final boolean mRemoteActionEnabled;
+        private final @Nullable DiffUtil.DiffResult mDiff;
 
         private Update() {
+            this((DiffUtil.DiffResult) null);
+        }
+
+        /**
+         * @param diff changes from the previously loaded documents, including the break after
+         *     leading directories, or null if they weren't computed.
+         */
+        Update(@Nullable DiffUtil.DiffResult diff) {
             mUpdateType = TYPE_UPDATE;
             mException = null;
             mRemoteActionEnabled = false;
+            mDiff = diff;
         }
 
         public Update(Exception exception, boolean remoteActionsEnabled) {
@@ -294,6 +359,7 @@ public class Model {
             mUpdateType = TYPE_UPDATE_EXCEPTION;
             mException = exception;
             mRemoteActionEnabled = remoteActionsEnabled;
+            mDiff = null;
         }
 
         public boolean isUpdate() {
@@ -313,5 +379,13 @@ public class Model {
         public @Nullable Exception getException() {
             return mException;
         }
+
+        /**
+         * @return changes from the previously loaded documents, or null if the whole list has
+         *     to be refreshed.
+         */
+        public @Nullable DiffUtil.DiffResult getDiff() {
+            return mDiff;
+        }
     }
 }
@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.documentsui;
+
+import static com.android.documentsui.base.DocumentInfo.getCursorInt;
+import static com.android.documentsui.base.DocumentInfo.getCursorLong;
+import static com.android.documentsui.base.DocumentInfo.getCursorString;
+import static com.android.documentsui.base.SharedMinimal.DEBUG;
+
+import android.database.Cursor;
+import android.provider.DocumentsContract.Document;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
+
+import com.android.documentsui.base.StringIntIndex;
+import com.android.documentsui.sorting.SortDimension;
+import com.android.documentsui.sorting.SortDimension.SortDirection;
+import com.android.documentsui.sorting.SortModel;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Model IDs of a directory cursor in display order, together with what the model looks them up
+ * by and what tells two versions of a document apart. Snapshots are immutable, so they can be
+ * taken and diffed on a loader thread while the previous one is still on screen.
+ */
+final class ModelSnapshot {
+
+    private static final String TAG = "ModelSnapshot";
+
+    static final ModelSnapshot EMPTY = of(null);
+
+    /**
+     * Diffing costs O(N * D) for D edits, so large changes (like a different directory behind
+     * the same loader) are left to a full refresh.
+     */
+    private static final int MAX_DIFF_EDITS = 1000;
+
+    /** Diff row of the break between directories and other documents. */
+    private static final int SECTION_BREAK_ROW = -1;
+
+    /** Ordered Model IDs. */
+    final String[] ids;
+    /** Maps Model IDs to their positions in {@link #ids}. */
+    final StringIntIndex positions;
+    final StringIntIndex fileNames;
+
+    private final String[] mDisplayNames;
+    private final long[] mLastModified;
+    private final long[] mSizes;
+    private final int[] mFlags;
+
+    /** Position of the first document after the leading directories, or -1 if there is none. */
+    private final int mSectionBreak;
+
+    private final int mSortDimensionId;
+    private final @SortDirection int mSortDirection;
+
+    private ModelSnapshot(
+            String[] ids,
+            String[] displayNames,
+            long[] lastModified,
+            long[] sizes,
+            int[] flags,
+            int sectionBreak,
+            int sortDimensionId,
+            @SortDirection int sortDirection) {
+        this.ids = ids;
+        positions = StringIntIndex.of(ids);
+        fileNames = StringIntIndex.of(displayNames);
+        mDisplayNames = displayNames;
+        mLastModified = lastModified;
+        mSizes = sizes;
+        mFlags = flags;
+        mSectionBreak = sectionBreak;
+        mSortDimensionId = sortDimensionId;
+        mSortDirection = sortDirection;
+    }
+
+    /**
+     * Reads a snapshot of a cursor in its current order. Snapshots taken this way are never
+     * diffed, since the sort order they are in isn't known.
+     */
+    static ModelSnapshot of(@Nullable Cursor cursor) {
+        return of(cursor, SortModel.SORT_DIMENSION_ID_UNKNOWN, SortDimension.SORT_DIRECTION_NONE);
+    }
+
+    /**
+     * Reads a snapshot of a cursor sorted by the given dimension and direction.
+     */
+    static ModelSnapshot of(
+            @Nullable Cursor cursor, int sortDimensionId, @SortDirection int sortDirection) {
+        final int cursorCount = (cursor != null) ? cursor.getCount() : 0;
+        final String[] ids = new String[cursorCount];
+        final String[] displayNames = new String[cursorCount];
+        final long[] lastModified = new long[cursorCount];
+        final long[] sizes = new long[cursorCount];
+        final int[] flags = new int[cursorCount];
+
+        int sectionBreak = -1;
+        boolean inDirectories = true;
+        int count = 0;
+        if (cursor != null) {
+            cursor.moveToPosition(-1);
+        }
+        for (; count < cursorCount; ++count) {
+            if (!cursor.moveToNext()) {
+                Log.e(TAG, "Fail to move cursor to next pos: " + count);
+                break;
+            }
+            // Generates a Model ID for a cursor entry that refers to a document. The Model ID is a
+            // unique string that can be used to identify the document referred to by the cursor.
+            // Prefix the ids with the authority to avoid collisions.
+            ids[count] = ModelId.build(cursor);
+            displayNames[count] = getCursorString(cursor, Document.COLUMN_DISPLAY_NAME);
+            lastModified[count] = getCursorLong(cursor, Document.COLUMN_LAST_MODIFIED);
+            sizes[count] = getCursorLong(cursor, Document.COLUMN_SIZE);
+            flags[count] = getCursorInt(cursor, Document.COLUMN_FLAGS);
+
+            // Same as the visual break DirectoryAddonsAdapter inserts after leading directories.
+            if (inDirectories && !Document.MIME_TYPE_DIR.equals(
+                    getCursorString(cursor, Document.COLUMN_MIME_TYPE))) {
+                inDirectories = false;
+                sectionBreak = count > 0 ? count : -1;
+            }
+        }
+
+        if (count < cursorCount) {
+            return new ModelSnapshot(
+                    Arrays.copyOf(ids, count),
+                    Arrays.copyOf(displayNames, count),
+                    Arrays.copyOf(lastModified, count),
+                    Arrays.copyOf(sizes, count),
+                    Arrays.copyOf(flags, count),
+                    sectionBreak,
+                    sortDimensionId,
+                    sortDirection);
+        }
+        return new ModelSnapshot(ids, displayNames, lastModified, sizes, flags, sectionBreak,
+                sortDimensionId, sortDirection);
+    }
+
+    int getCount() {
+        return ids.length;
+    }
+
+    /**
+     * Returns a snapshot of the first documents of this one, in the same sort order.
+     */
+    ModelSnapshot prefix(int count) {
+        if (count >= getCount()) {
+            return this;
+        }
+        return new ModelSnapshot(
+                Arrays.copyOf(ids, count),
+                Arrays.copyOf(mDisplayNames, count),
+                Arrays.copyOf(mLastModified, count),
+                Arrays.copyOf(mSizes, count),
+                Arrays.copyOf(mFlags, count),
+                mSectionBreak < count ? mSectionBreak : -1,
+                mSortDimensionId,
+                mSortDirection);
+    }
+
+    /**
+     * Returns a snapshot of the same documents in another order, without reading the cursor
+     * again. Directories stay in front in every order documents are sorted in, so the section
+     * break doesn't move.
+     *
+     * @param moves for each document in the new order, its position in this snapshot.
+     */
+    ModelSnapshot reorder(int[] moves, int sortDimensionId, @SortDirection int sortDirection) {
+        final int count = moves.length;
+        final String[] ids = new String[count];
+        final String[] displayNames = new String[count];
+        final long[] lastModified = new long[count];
+        final long[] sizes = new long[count];
+        final int[] flags = new int[count];
+        for (int i = 0; i < count; i++) {
+            final int from = moves[i];
+            ids[i] = this.ids[from];
+            displayNames[i] = mDisplayNames[from];
+            lastModified[i] = mLastModified[from];
+            sizes[i] = mSizes[from];
+            flags[i] = mFlags[from];
+        }
+        return new ModelSnapshot(ids, displayNames, lastModified, sizes, flags, mSectionBreak,
+                sortDimensionId, sortDirection);
+    }
+
+    int getSortDimensionId() {
+        return mSortDimensionId;
+    }
+
+    @SortDirection int getSortDirection() {
+        return mSortDirection;
+    }
+
+    /**
+     * Computes the notifications that turn the rows of the previous snapshot into the rows of
+     * this one. Rows are the documents plus the section break, if any, in display order.
+     *
+     * @return the diff, or null if the snapshots aren't comparable or differ too much to be
+     *     worth diffing.
+     */
+    @Nullable Diff diffFrom(ModelSnapshot previous) {
+        if (mSortDimensionId == SortModel.SORT_DIMENSION_ID_UNKNOWN
+                || mSortDimensionId != previous.mSortDimensionId
+                || mSortDirection != previous.mSortDirection) {
+            return null;
+        }
+
+        // Myers' diff is O(N * D), so first count edits in O(N). Documents that changed might
+        // also have moved, which counts as a removal and an insertion.
+        int edits = 0;
+        int kept = 0;
+        for (int i = 0; i < ids.length && edits <= MAX_DIFF_EDITS; i++) {
+            final int oldPosition = previous.positions.get(ids[i]);
+            if (oldPosition == StringIntIndex.NOT_FOUND) {
+                edits++;
+            } else {
+                kept++;
+                if (!isSameContent(previous, oldPosition, i)) {
+                    edits += 2;
+                }
+            }
+        }
+        edits += previous.getCount() - kept;
+        if (edits > MAX_DIFF_EDITS) {
+            if (DEBUG) {
+                Log.d(TAG, "Too many changes to diff: " + edits);
+            }
+            return null;
+        }
+
+        return new Diff(previous, DiffUtil.calculateDiff(new Callback(previous, this), true));
+    }
+
+    private boolean isSameContent(ModelSnapshot previous, int oldPosition, int newPosition) {
+        return previous.mLastModified[oldPosition] == mLastModified[newPosition]
+                && previous.mSizes[oldPosition] == mSizes[newPosition]
+                && previous.mFlags[oldPosition] == mFlags[newPosition]
+                && TextUtils.equals(
+                        previous.mDisplayNames[oldPosition], mDisplayNames[newPosition]);
+    }
+
+    private int getRowCount() {
+        return mSectionBreak == -1 ? getCount() : getCount() + 1;
+    }
+
+    /**
+     * @return position of the document in the row, or {@link #SECTION_BREAK_ROW}.
+     */
+    private int getPosition(int row) {
+        if (mSectionBreak == -1 || row < mSectionBreak) {
+            return row;
+        }
+        return row == mSectionBreak ? SECTION_BREAK_ROW : row - 1;
+    }
+
+    /**
+     * Changes between two snapshots. Only valid for whoever is still showing {@link #from}.
+     */
+    static final class Diff {
+        final ModelSnapshot from;
+        final DiffUtil.DiffResult result;
+
+        private Diff(ModelSnapshot from, DiffUtil.DiffResult result) {
+            this.from = from;
+            this.result = result;
+        }
+    }
+
+    private static final class Callback extends DiffUtil.Callback {
+        private final ModelSnapshot mOld;
+        private final ModelSnapshot mNew;
+
+        private Callback(ModelSnapshot oldSnapshot, ModelSnapshot newSnapshot) {
+            mOld = oldSnapshot;
+            mNew = newSnapshot;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOld.getRowCount();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNew.getRowCount();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldRow, int newRow) {
+            final int oldPosition = mOld.getPosition(oldRow);
+            final int newPosition = mNew.getPosition(newRow);
+            if (oldPosition == SECTION_BREAK_ROW || newPosition == SECTION_BREAK_ROW) {
+                return oldPosition == newPosition;
+            }
+            return Objects.equals(mOld.ids[oldPosition], mNew.ids[newPosition]);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldRow, int newRow) {
+            final int oldPosition = mOld.getPosition(oldRow);
+            final int newPosition = mNew.getPosition(newRow);
+            return oldPosition == SECTION_BREAK_ROW
+                    || mNew.isSameContent(mOld, oldPosition, newPosition);
+        }
+
+        @Override
+        public Object getChangePayload(int oldRow, int newRow) {
+            return Model.Update.CONTENT_CHANGED_MARKER;
+        }
+    }
+}
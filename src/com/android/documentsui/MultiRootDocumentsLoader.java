@@ -19,31 +19,36 @@ package com.android.documentsui;
 import static com.android.documentsui.base.SharedMinimal.DEBUG;
 import static com.android.documentsui.base.SharedMinimal.TAG;
 
-import android.app.ActivityManager;
 import android.content.ContentProviderClient;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.CursorWrapper;
-import android.database.MatrixCursor;
-import android.database.MergeCursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.CancellationSignal;
 import android.os.FileUtils;
+import android.os.OperationCanceledException;
+import android.os.SystemClock;
 import android.provider.DocumentsContract;
 import android.provider.DocumentsContract.Document;
 import android.util.Log;
 
 import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.loader.content.AsyncTaskLoader;
 
+import com.android.documentsui.base.ColumnarDocumentsCursor;
 import com.android.documentsui.base.DocumentInfo;
+import com.android.documentsui.base.Features;
 import com.android.documentsui.base.FilteringCursorWrapper;
 import com.android.documentsui.base.Lookup;
 import com.android.documentsui.base.RootInfo;
 import com.android.documentsui.base.State;
 import com.android.documentsui.roots.ProvidersAccess;
 import com.android.documentsui.roots.RootCursorWrapper;
+import com.android.documentsui.sorting.RunMerger;
+import com.android.documentsui.sorting.SortModel;
 
 import com.google.common.util.concurrent.AbstractFuture;
 
@@ -51,35 +56,32 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
 
 /*
  * The abstract class to query multiple roots from {@link android.provider.DocumentsProvider}
  * and return the combined result.
  */
 public abstract class MultiRootDocumentsLoader extends AsyncTaskLoader<DirectoryResult> {
-    // TODO: clean up cursor ownership so background thread doesn't traverse
-    // previously returned cursors for filtering/sorting; this currently races
-    // with the UI thread.
-
-    private static final int MAX_OUTSTANDING_TASK = 4;
-    private static final int MAX_OUTSTANDING_TASK_SVELTE = 2;
-
     /**
      * Time to wait for first pass to complete before returning partial results.
      */
     private static final int MAX_FIRST_PASS_WAIT_MILLIS = 500;
 
+    /**
+     * Number of documents, about a screenful, that are worth returning before the first pass
+     * is complete.
+     */
+    private static final int FIRST_PASS_MIN_DOCUMENTS = 32;
+
     protected final State mState;
 
-    private final Semaphore mQueryPermits;
+    private final QueryScheduler mScheduler;
     private final ProvidersAccess mProviders;
     private final Lookup<String, Executor> mExecutors;
     private final Lookup<String, String> mFileTypeMap;
@@ -88,8 +90,26 @@ public abstract class MultiRootDocumentsLoader extends AsyncTaskLoader<Directory
     /** A authority -> QueryTask map */
     private final Map<String, QueryTask> mTasks = new HashMap<>();
 
-    private CountDownLatch mFirstPassLatch;
-    private volatile boolean mFirstPassDone;
+    // Filtered and sorted results of the tasks that finished so far, which later results are
+    // merged into. Results returned before only read copies of these.
+    @GuardedBy("mTasks")
+    private final RunMerger mMerger;
+
+    @GuardedBy("mTasks")
+    private boolean mTasksStarted;
+
+    // All tasks, for cancelling them without waiting for a load in progress.
+    private final List<QueryTask> mCancellableTasks = new CopyOnWriteArrayList<>();
+    private volatile boolean mCancelled;
+
+    // Progress of the first pass, which tasks report as they finish.
+    private final Object mFirstPassLock = new Object();
+    @GuardedBy("mFirstPassLock")
+    private int mFirstPassPending;
+    @GuardedBy("mFirstPassLock")
+    private int mFirstPassDocuments;
+    @GuardedBy("mFirstPassLock")
+    private boolean mFirstPassDone;
 
     private DirectoryResult mResult;
 
@@ -99,24 +119,23 @@ public abstract class MultiRootDocumentsLoader extends AsyncTaskLoader<Directory
      * @param context the context
      * @param providers the providers
      * @param state current state
+     * @param features the feature flags
      * @param executors the executors of authorities
      * @param fileTypeMap the map of mime types and file types.
      */
     public MultiRootDocumentsLoader(Context context, ProvidersAccess providers, State state,
-            Lookup<String, Executor> executors, Lookup<String, String> fileTypeMap) {
+            Features features, Lookup<String, Executor> executors,
+            Lookup<String, String> fileTypeMap) {
 
         super(context);
         mProviders = providers;
         mState = state;
         mExecutors = executors;
         mFileTypeMap = fileTypeMap;
-
-        // Keep clients around on high-RAM devices, since we'd be spinning them
-        // up moments later to fetch thumbnails anyway.
-        final ActivityManager am = (ActivityManager) getContext().getSystemService(
-                Context.ACTIVITY_SERVICE);
-        mQueryPermits = new Semaphore(
-                am.isLowRamDevice() ? MAX_OUTSTANDING_TASK_SVELTE : MAX_OUTSTANDING_TASK);
+        mMerger = new RunMerger(fileTypeMap, features.isParallelSortEnabled()
+                ? context.getResources().getInteger(R.integer.config_parallel_sort_threshold)
+                : SortModel.NO_PARALLEL_SORT);
+        mScheduler = QueryScheduler.getInstance();
     }
 
     @Override
@@ -127,9 +146,10 @@ public abstract class MultiRootDocumentsLoader extends AsyncTaskLoader<Directory
     }
 
     private DirectoryResult loadInBackgroundLocked() {
-        if (mFirstPassLatch == null) {
+        if (!mTasksStarted) {
             // First time through we kick off all the recent tasks, and wait
             // around to see if everyone finishes quickly.
+            mTasksStarted = true;
             Map<String, List<RootInfo>> rootsIndex = indexRoots();
 
             for (Map.Entry<String, List<RootInfo>> rootEntry : rootsIndex.entrySet()) {
@@ -137,14 +157,30 @@ public abstract class MultiRootDocumentsLoader extends AsyncTaskLoader<Directory
                         getQueryTask(rootEntry.getKey(), rootEntry.getValue()));
             }
 
-            mFirstPassLatch = new CountDownLatch(mTasks.size());
-            for (QueryTask task : mTasks.values()) {
+            mCancellableTasks.addAll(mTasks.values());
+            if (mCancelled) {
+                // Reset while the roots were being looked up.
+                cancelQueries();
+            }
+
+            // Start the authorities that answered fastest before first, so that they get
+            // permits before slow ones.
+            final List<QueryTask> tasks = new ArrayList<>(mTasks.values());
+            Collections.sort(tasks, (lhs, rhs) -> Long.compare(
+                    mScheduler.getExpectedLatencyMillis(lhs.authority),
+                    mScheduler.getExpectedLatencyMillis(rhs.authority)));
+
+            synchronized (mFirstPassLock) {
+                for (QueryTask task : tasks) {
+                    mFirstPassPending += task.rootInfos.size();
+                }
+            }
+            for (QueryTask task : tasks) {
                 mExecutors.lookup(task.authority).execute(task);
             }
 
             try {
-                mFirstPassLatch.await(MAX_FIRST_PASS_WAIT_MILLIS, TimeUnit.MILLISECONDS);
-                mFirstPassDone = true;
+                awaitFirstPass();
             } catch (InterruptedException e) {
                 throw new RuntimeException(e);
             }
@@ -152,72 +188,60 @@ public abstract class MultiRootDocumentsLoader extends AsyncTaskLoader<Directory
 
         final long rejectBefore = getRejectBeforeTime();
 
-        // Collect all finished tasks
+        // Merge the results of roots that finished since the last pass into the ones merged
+        // before, which are neither filtered nor sorted again.
         boolean allDone = true;
-        int totalQuerySize = 0;
-        List<Cursor> cursors = new ArrayList<>(mTasks.size());
+        int newCursorCount = 0;
         for (QueryTask task : mTasks.values()) {
-            if (task.isDone()) {
-                try {
-                    final Cursor[] taskCursors = task.get();
-                    if (taskCursors == null || taskCursors.length == 0) {
-                        continue;
-                    }
+            for (int root = 0; root < task.rootInfos.size(); root++) {
+                if (!task.isRootDone(root)) {
+                    allDone = false;
+                    continue;
+                }
+                if (task.mMerged[root]) {
+                    continue;
+                }
+                task.mMerged[root] = true;
 
-                    totalQuerySize += taskCursors.length;
-                    for (Cursor cursor : taskCursors) {
-                        if (cursor == null) {
-                            // It's possible given an authority, some roots fail to return a cursor
-                            // after a query.
-                            continue;
+                final Cursor cursor = task.getCursor(root);
+                if (cursor == null) {
+                    // It's possible given an authority, some roots fail to return a cursor
+                    // after a query.
+                    continue;
+                }
+                try {
+                    Cursor filtered = new FilteringCursorWrapper(
+                            cursor, mState.acceptMimes, getRejectMimes(), rejectBefore) {
+                        @Override
+                        public void close() {
+                            // Ignored, since we manage cursor lifecycle internally
                         }
-                        final FilteringCursorWrapper filtered = new FilteringCursorWrapper(
-                                cursor, mState.acceptMimes, getRejectMimes(), rejectBefore) {
-                            @Override
-                            public void close() {
-                                // Ignored, since we manage cursor lifecycle internally
-                            }
-                        };
-                        cursors.add(filtered);
+                    };
+                    if (!isDocumentsMovable()) {
+                        filtered = new NotMovableMaskCursor(filtered);
                     }
-
-                } catch (InterruptedException e) {
-                    throw new RuntimeException(e);
-                } catch (ExecutionException e) {
-                    // We already logged on other side
+                    // Copy out the rows, so that neither the merger nor results returned
+                    // before read the provider cursor again.
+                    mMerger.add(new ColumnarDocumentsCursor(filtered), mState.sortModel);
+                    newCursorCount++;
                 } catch (Exception e) {
                     // Catch exceptions thrown when we read the cursor.
                     Log.e(TAG, "Failed to query documents for authority: " + task.authority
-                            + ". Skip this authority.", e);
+                            + ", root: " + task.rootInfos.get(root).rootId
+                            + ". Skip this root.", e);
                 }
-            } else {
-                allDone = false;
             }
         }
 
         if (DEBUG) {
-            Log.d(TAG,
-                    "Found " + cursors.size() + " of " + totalQuerySize + " queries done");
+            Log.d(TAG, "Merged " + newCursorCount + " new queries, " + mMerger.getCount()
+                    + " documents so far");
         }
 
         final DirectoryResult result = new DirectoryResult();
         result.doc = new DocumentInfo();
 
-        final Cursor merged;
-        if (cursors.size() > 0) {
-            merged = new MergeCursor(cursors.toArray(new Cursor[cursors.size()]));
-        } else {
-            // Return something when nobody is ready
-            merged = new MatrixCursor(new String[0]);
-        }
-
-        final Cursor sorted;
-        if (isDocumentsMovable()) {
-            sorted = mState.sortModel.sortCursor(merged, mFileTypeMap);
-        } else {
-            final Cursor notMovableMasked = new NotMovableMaskCursor(merged);
-            sorted = mState.sortModel.sortCursor(notMovableMasked, mFileTypeMap);
-        }
+        final Cursor sorted = mMerger.createCursor();
 
         // Tell the UI if this is an in-progress result. When loading is complete, another update is
         // sent with EXTRA_LOADING set to false.
@@ -230,6 +254,57 @@ public abstract class MultiRootDocumentsLoader extends AsyncTaskLoader<Directory
         return result;
     }
 
+    /**
+     * Waits until either all tasks are done, enough documents for a first screen are loaded, or
+     * the first pass takes too long. Tasks finishing after that trigger another load.
+     */
+    private void awaitFirstPass() throws InterruptedException {
+        final long deadline = SystemClock.elapsedRealtime() + MAX_FIRST_PASS_WAIT_MILLIS;
+        synchronized (mFirstPassLock) {
+            while (mFirstPassPending > 0 && mFirstPassDocuments < FIRST_PASS_MIN_DOCUMENTS
+                    && !mCancelled) {
+                final long remaining = deadline - SystemClock.elapsedRealtime();
+                if (remaining <= 0) {
+                    break;
+                }
+                mFirstPassLock.wait(remaining);
+            }
+            mFirstPassDone = true;
+
+            if (DEBUG) {
+                Log.d(TAG, "First pass done with " + mFirstPassDocuments + " documents, "
+                        + mFirstPassPending + " tasks pending");
+            }
+        }
+    }
+
+    private void onQueryDone(int documentCount) {
+        final boolean firstPassDone;
+        synchronized (mFirstPassLock) {
+            mFirstPassPending--;
+            mFirstPassDocuments += documentCount;
+            firstPassDone = mFirstPassDone;
+            mFirstPassLock.notifyAll();
+        }
+        if (firstPassDone) {
+            onContentChanged();
+        }
+    }
+
+    /**
+     * Cancels the queries of all tasks, so that they stop holding permits and providers stop
+     * working on results nobody will see.
+     */
+    private void cancelQueries() {
+        mCancelled = true;
+        for (QueryTask task : mCancellableTasks) {
+            task.cancelQueries();
+        }
+        synchronized (mFirstPassLock) {
+            mFirstPassLock.notifyAll();
+        }
+    }
+
     /**
      * Returns a map of Authority -> rootInfos.
      */
@@ -314,10 +389,15 @@ public abstract class MultiRootDocumentsLoader extends AsyncTaskLoader<Directory
         // Ensure the loader is stopped
         onStopLoading();
 
+        // Don't wait for a load in progress to cancel the queries; a loader is reset as soon as
+        // it is superseded, like when the user types another search query.
+        cancelQueries();
+
         synchronized (mTasks) {
             for (QueryTask task : mTasks.values()) {
                	mExecutors.lookup(task.authority).execute(() -> FileUtils.closeQuietly(task));
             }
+            mMerger.close();
         }
 
         FileUtils.closeQuietly(mResult);
@@ -333,29 +413,73 @@ public abstract class MultiRootDocumentsLoader extends AsyncTaskLoader<Directory
                         | Document.FLAG_SUPPORTS_REMOVE
                         | Document.FLAG_SUPPORTS_MOVE);
 
+        private final int mFlagIndex;
+
         private NotMovableMaskCursor(Cursor cursor) {
             super(cursor);
+            mFlagIndex = cursor.getColumnIndex(Document.COLUMN_FLAGS);
         }
 
         @Override
         public int getInt(int index) {
-            final int flagIndex = getWrappedCursor().getColumnIndex(Document.COLUMN_FLAGS);
             final int value = super.getInt(index);
-            return (index == flagIndex) ? (value & NOT_MOVABLE_MASK) : value;
+            return (index == mFlagIndex) ? (value & NOT_MOVABLE_MASK) : value;
+        }
+
+        @Override
+        public long getLong(int index) {
+            final long value = super.getLong(index);
+            return (index == mFlagIndex) ? (value & NOT_MOVABLE_MASK) : value;
+        }
+
+        @Override
+        public String getString(int index) {
+            // Rows are copied as strings.
+            if (index != mFlagIndex || isNull(index)) {
+                return super.getString(index);
+            }
+            return Integer.toString(getInt(index));
         }
     }
 
+    /**
+     * Queries the roots of an authority. Every root is queried on its own, on the executor of
+     * the authority, which decides how many of them run at once. Each root is handed to the
+     * loader as soon as its query finishes.
+     */
     protected abstract class QueryTask extends AbstractFuture<Cursor[]> implements Runnable,
             Closeable {
         public final String authority;
         public final List<RootInfo> rootInfos;
 
-        private Cursor[] mCursors;
+        // Results and signals of the queries of every root, by index in rootInfos.
+        @GuardedBy("this")
+        private final Cursor[] mCursors;
+        private final CancellationSignal[] mSignals;
+        @GuardedBy("this")
+        private final boolean[] mDone;
+        @GuardedBy("this")
+        private int mPending;
+        @GuardedBy("this")
         private boolean mIsClosed = false;
 
+        // Roots the loader has merged into its results.
+        @GuardedBy("mTasks")
+        private final boolean[] mMerged;
+
         public QueryTask(String authority, List<RootInfo> rootInfos) {
             this.authority = authority;
             this.rootInfos = rootInfos;
+
+            final int rootInfoCount = rootInfos.size();
+            mCursors = new Cursor[rootInfoCount];
+            mSignals = new CancellationSignal[rootInfoCount];
+            for (int i = 0; i < rootInfoCount; i++) {
+                mSignals[i] = new CancellationSignal();
+            }
+            mDone = new boolean[rootInfoCount];
+            mPending = rootInfoCount;
+            mMerged = new boolean[rootInfoCount];
         }
 
         @Override
@@ -364,16 +488,10 @@ public abstract class MultiRootDocumentsLoader extends AsyncTaskLoader<Directory
                 return;
             }
 
-            try {
-                mQueryPermits.acquire();
-            } catch (InterruptedException e) {
-                return;
-            }
-
-            try {
-                runInternal();
-            } finally {
-                mQueryPermits.release();
+            final Executor executor = mExecutors.lookup(authority);
+            for (int i = 0; i < rootInfos.size(); i++) {
+                final int root = i;
+                mScheduler.execute(mSignals[root], executor, () -> queryRoot(root));
             }
         }
 
@@ -385,59 +503,101 @@ public abstract class MultiRootDocumentsLoader extends AsyncTaskLoader<Directory
         protected void addQueryArgs(@NonNull Bundle queryArgs) {
         }
 
-        private synchronized void runInternal() {
-            if (mIsClosed) {
+        private void queryRoot(int root) {
+            final CancellationSignal signal = mSignals[root];
+            final long start = SystemClock.elapsedRealtime();
+            final Cursor cursor;
+            try {
+                cursor = query(rootInfos.get(root), signal);
+            } finally {
+                mScheduler.release();
+            }
+            final long latency = SystemClock.elapsedRealtime() - start;
+
+            if (signal.isCanceled()) {
+                mScheduler.onQueryWasted(authority, latency);
+                FileUtils.closeQuietly(cursor);
                 return;
             }
+            mScheduler.onQueryFinished(authority, latency);
+            onRootDone(root, cursor);
+        }
 
+        private @Nullable Cursor query(RootInfo rootInfo, CancellationSignal signal) {
             ContentProviderClient client = null;
             try {
                 client = DocumentsApplication.acquireUnstableProviderOrThrow(
                         getContext().getContentResolver(), authority);
 
-                final int rootInfoCount = rootInfos.size();
-                final Cursor[] res = new Cursor[rootInfoCount];
-                mCursors = new Cursor[rootInfoCount];
-
-                for (int i = 0; i < rootInfoCount; i++) {
-                    final Uri uri = getQueryUri(rootInfos.get(i));
-                    try {
-                        final Bundle queryArgs = new Bundle();
-                        mState.sortModel.addQuerySortArgs(queryArgs);
-                        addQueryArgs(queryArgs);
-                        res[i] = client.query(uri, null, queryArgs, null);
-                        mCursors[i] = generateResultCursor(rootInfos.get(i), res[i]);
-                    } catch (Exception e) {
-                        Log.w(TAG, "Failed to load " + authority + ", " + rootInfos.get(i).rootId,
-                                e);
-                    }
-                }
-
+                final Bundle queryArgs = new Bundle();
+                mState.sortModel.addQuerySortArgs(queryArgs);
+                addQueryArgs(queryArgs);
+                final Cursor cursor = client.query(
+                        getQueryUri(rootInfo), null, queryArgs, signal);
+                return generateResultCursor(rootInfo, cursor);
+            } catch (OperationCanceledException e) {
+                // The load was cancelled while the query was running.
+                return null;
             } catch (Exception e) {
-                Log.w(TAG, "Failed to acquire content resolver for authority: " + authority);
+                Log.w(TAG, "Failed to load " + authority + ", " + rootInfo.rootId, e);
+                return null;
             } finally {
                 FileUtils.closeQuietly(client);
             }
+        }
+
+        private void onRootDone(int root, @Nullable Cursor cursor) {
+            final int documentCount = (cursor != null) ? cursor.getCount() : 0;
+            final boolean allDone;
+            synchronized (this) {
+                if (mIsClosed) {
+                    FileUtils.closeQuietly(cursor);
+                    return;
+                }
+                mCursors[root] = cursor;
+                mDone[root] = true;
+                allDone = --mPending == 0;
+            }
 
-            set(mCursors);
+            if (allDone) {
+                set(mCursors);
+            }
+            onQueryDone(documentCount);
+        }
+
+        /**
+         * @return whether the query of the root at the given index in rootInfos is done.
+         */
+        public synchronized boolean isRootDone(int root) {
+            return mDone[root];
+        }
+
+        /**
+         * @return the result of the query of the root at the given index in rootInfos, or null
+         *     if it failed.
+         */
+        public synchronized @Nullable Cursor getCursor(int root) {
+            return mCursors[root];
+        }
 
-            mFirstPassLatch.countDown();
-            if (mFirstPassDone) {
-                onContentChanged();
+        /**
+         * Cancels the queries of all roots. Queries waiting for a permit give up right away, and
+         * results of queries that were running are thrown away.
+         */
+        public void cancelQueries() {
+            for (CancellationSignal signal : mSignals) {
+                signal.cancel();
             }
         }
 
         @Override
         public synchronized void close() throws IOException {
-            if (mCursors == null) {
-                return;
-            }
+            mIsClosed = true;
 
+            cancelQueries();
             for (Cursor cursor : mCursors) {
                 FileUtils.closeQuietly(cursor);
             }
-
-            mIsClosed = true;
         }
     }
 }
@@ -16,95 +16,485 @@
 
 package com.android.documentsui;
 
+import static com.android.documentsui.base.SharedMinimal.DEBUG;
+
 import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.Log;
 
 import androidx.annotation.GuardedBy;
+import androidx.annotation.IntDef;
+import androidx.annotation.VisibleForTesting;
 
-import java.lang.ref.WeakReference;
-import java.util.ArrayList;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.Executor;
-import java.util.concurrent.LinkedBlockingQueue;
 
-public class ProviderExecutor extends Thread implements Executor {
+/**
+ * Runs tasks that talk to the provider of an authority. Tasks of all authorities share a small
+ * pool of threads, but only a few tasks of each authority run at once, so that slow providers
+ * don't take over the pool. An authority with nothing running gets a thread beyond the size of
+ * the pool if need be, up to a few spare ones, so providers that hang rarely hold up the others.
+ * Tasks are run by priority, and tasks that waited long enough are run ahead of more urgent
+ * ones, so that none of them starve.
+ */
+public class ProviderExecutor implements Executor {
+
+    private static final String TAG = "ProviderExecutor";
+
+    @IntDef({
+            PRIORITY_FOREGROUND,
+            PRIORITY_VISIBLE_THUMBNAIL,
+            PRIORITY_PREFETCH,
+            PRIORITY_BACKGROUND
+    })
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Priority {}
+    /** Loading directories and documents, and whatever else the user is waiting for. */
+    public static final int PRIORITY_FOREGROUND = 0;
+    /** Loading thumbnails of documents on screen. */
+    public static final int PRIORITY_VISIBLE_THUMBNAIL = 1;
+    /** Loading thumbnails of documents about to be on screen. */
+    public static final int PRIORITY_PREFETCH = 2;
+    /** Anything nobody is waiting for. */
+    public static final int PRIORITY_BACKGROUND = 3;
+    private static final int PRIORITY_COUNT = 4;
+
+    /** How long a task waits before it is run as if it was one priority more urgent. */
+    private static final long AGING_INTERVAL_MILLIS = 1000;
+    /** How long a worker waits for tasks before it stops. */
+    private static final long WORKER_KEEP_ALIVE_MILLIS = 30 * 1000;
+    /** How long an executor has no tasks before it is forgotten, along with its stats. */
+    private static final long IDLE_TIMEOUT_MILLIS = 60 * 1000;
 
-    @GuardedBy("sExecutors")
-    private static HashMap<String, ProviderExecutor> sExecutors = new HashMap<>();
+    private static final int DEFAULT_POOL_SIZE = 4;
+    /** Most threads started beyond the size of the pool, for authorities with nothing running. */
+    @VisibleForTesting
+    static final int MAX_SPARE_WORKERS = 4;
+    private static final int DEFAULT_CONCURRENCY = 2;
+
+    // Guards the pool and the queues of all executors.
+    private static final Object sLock = new Object();
+    @GuardedBy("sLock")
+    private static final HashMap<String, ProviderExecutor> sExecutors = new HashMap<>();
+    // Executors that have tasks to run and may run more of them, in the order they got there.
+    @GuardedBy("sLock")
+    private static final ArrayDeque<ProviderExecutor> sReady = new ArrayDeque<>();
+    @GuardedBy("sLock")
+    private static int sPoolSize = DEFAULT_POOL_SIZE;
+    @GuardedBy("sLock")
+    private static int sConcurrency = DEFAULT_CONCURRENCY;
+    @GuardedBy("sLock")
+    private static int sWorkers;
+    @GuardedBy("sLock")
+    private static int sIdleWorkers;
+    @GuardedBy("sLock")
+    private static long sLastSweepMillis;
 
     public static ProviderExecutor forAuthority(String authority) {
-        synchronized (sExecutors) {
+        synchronized (sLock) {
+            retireIdleLocked(SystemClock.elapsedRealtime());
             ProviderExecutor executor = sExecutors.get(authority);
             if (executor == null) {
-                executor = new ProviderExecutor();
-                executor.setName("ProviderExecutor: " + authority);
-                executor.start();
+                executor = new ProviderExecutor(authority, sConcurrency);
                 sExecutors.put(authority, executor);
             }
             return executor;
         }
     }
 
+    /**
+     * Sets the number of threads tasks of all authorities are run on, and how many tasks of
+     * authorities not used yet may run at once.
+     */
+    public static void configure(int poolSize, int concurrency) {
+        synchronized (sLock) {
+            sPoolSize = Math.max(1, poolSize);
+            sConcurrency = Math.max(1, concurrency);
+        }
+    }
+
+    /**
+     * @return a copy of the statistics of the executors of authorities used lately.
+     */
+    public static Map<String, Stats> getAllStats() {
+        synchronized (sLock) {
+            final Map<String, Stats> stats = new HashMap<>();
+            for (ProviderExecutor executor : sExecutors.values()) {
+                stats.put(executor.mAuthority, executor.getStatsLocked());
+            }
+            return stats;
+        }
+    }
+
     public interface Preemptable {
         void preempt();
     }
 
-    private final LinkedBlockingQueue<Runnable> mQueue = new LinkedBlockingQueue<Runnable>();
+    private final String mAuthority;
+    private final int mConcurrency;
+    private final Executor[] mPriorityExecutors = new Executor[PRIORITY_COUNT];
 
-    private final ArrayList<WeakReference<Preemptable>> mPreemptable = new ArrayList<>();
+    // Tasks waiting to be run, oldest first, by priority.
+    @GuardedBy("sLock")
+    private final ArrayDeque<Task>[] mQueues;
+    @GuardedBy("sLock")
+    private int mRunning;
+    // Whether this is in sReady.
+    @GuardedBy("sLock")
+    private boolean mReady;
+    @GuardedBy("sLock")
+    private long mIdleSinceMillis = SystemClock.elapsedRealtime();
+    @GuardedBy("sLock")
+    private final Stats mStats = new Stats();
 
-    private void preempt() {
-        synchronized (mPreemptable) {
-            int count = 0;
-            for (WeakReference<Preemptable> ref : mPreemptable) {
-                final Preemptable p = ref.get();
-                if (p != null) {
-                    count++;
-                    p.preempt();
-                }
-            }
-            mPreemptable.clear();
+    @SuppressWarnings("unchecked")
+    @VisibleForTesting
+    ProviderExecutor(String authority, int concurrency) {
+        mAuthority = authority;
+        mConcurrency = concurrency;
+        mQueues = new ArrayDeque[PRIORITY_COUNT];
+        for (int priority = 0; priority < PRIORITY_COUNT; priority++) {
+            mQueues[priority] = new ArrayDeque<>();
+            final int p = priority;
+            mPriorityExecutors[priority] = command -> enqueue(command, p);
         }
     }
 
     /**
-     * Execute the given task. If given task is not {@link Preemptable}, it will
-     * preempt all outstanding preemptable tasks.
+     * @return an executor that runs tasks on this one with the given priority.
+     */
+    public Executor forPriority(@Priority int priority) {
+        return mPriorityExecutors[priority];
+    }
+
+    /**
+     * Execute the given task. {@link Preemptable} tasks are taken to load thumbnails of
+     * documents on screen, anything else to be in the foreground.
      */
     public <P> void execute(AsyncTask<P, ?, ?> task, P... params) {
-        if (task instanceof Preemptable) {
-            synchronized (mPreemptable) {
-                mPreemptable.add(new WeakReference<Preemptable>((Preemptable) task));
-            }
-            task.executeOnExecutor(mNonPreemptingExecutor, params);
-        } else {
-            task.executeOnExecutor(this, params);
-        }
+        execute(task instanceof Preemptable ? PRIORITY_VISIBLE_THUMBNAIL : PRIORITY_FOREGROUND,
+                task, params);
     }
 
-    private Executor mNonPreemptingExecutor = new Executor() {
-        @Override
-        public void execute(Runnable command) {
-            assert(command != null);
-            mQueue.add(command);
-        }
-    };
+    /**
+     * Execute the given task with the given priority.
+     */
+    public <P> void execute(@Priority int priority, AsyncTask<P, ?, ?> task, P... params) {
+        task.executeOnExecutor(forPriority(priority), params);
+    }
 
+    /**
+     * Runs the command in the foreground.
+     */
     @Override
     public void execute(Runnable command) {
-        preempt();
+        enqueue(command, PRIORITY_FOREGROUND);
+    }
+
+    private void enqueue(Runnable command, @Priority int priority) {
+        enqueue(command, priority, SystemClock.elapsedRealtime());
+    }
+
+    @VisibleForTesting
+    void enqueue(Runnable command, @Priority int priority, long queuedMillis) {
         assert(command != null);
-        mQueue.add(command);
+        synchronized (sLock) {
+            mQueues[priority].add(new Task(command, priority, queuedMillis));
+            mStats.onQueued(getQueueDepthLocked());
+            scheduleLocked();
+        }
     }
 
-    @Override
-    public void run() {
-        while (true) {
+    /**
+     * Puts this in line for a worker if it has tasks it may run now.
+     */
+    @GuardedBy("sLock")
+    private void scheduleLocked() {
+        if (mReady || mRunning >= mConcurrency || getQueueDepthLocked() == 0) {
+            return;
+        }
+        mReady = true;
+        sReady.add(this);
+
+        if (sIdleWorkers > 0) {
+            sLock.notifyAll();
+        }
+        // Other authorities may hold every worker in calls that never return, so one with nothing
+        // running gets a spare worker rather than waiting for them, as long as there are spares.
+        if (sReady.size() > sIdleWorkers && (sWorkers < sPoolSize
+                || (mRunning == 0 && sWorkers < sPoolSize + MAX_SPARE_WORKERS))) {
+            sWorkers++;
+            final Thread thread = new Thread(ProviderExecutor::runWorker);
+            thread.setName("ProviderExecutor #" + sWorkers);
+            thread.start();
+        }
+    }
+
+    private static void runWorker() {
+        try {
+            while (runNextTask()) {
+                // Keep taking tasks until there were none for a while.
+            }
+        } finally {
+            // Also when a task throws, which ends the worker.
+            synchronized (sLock) {
+                sWorkers--;
+            }
+        }
+    }
+
+    /**
+     * Runs the next task of the executors ready to run one.
+     *
+     * @return false if there was none for a while, and the worker should stop.
+     */
+    private static boolean runNextTask() {
+        final ProviderExecutor executor;
+        final Task task;
+        synchronized (sLock) {
+            executor = takeLocked();
+            if (executor == null) {
+                return false;
+            }
+            task = executor.pollLocked(SystemClock.elapsedRealtime());
+            executor.mRunning++;
+            // Let other workers run more of its tasks, after those of other executors.
+            executor.scheduleLocked();
+        }
+
+        final long start = SystemClock.elapsedRealtime();
+        try {
+            task.command.run();
+        } finally {
+            final long end = SystemClock.elapsedRealtime();
+            synchronized (sLock) {
+                executor.mRunning--;
+                executor.mStats.onRun(task.priority, start - task.queuedMillis, end - start);
+                executor.scheduleLocked();
+                if (executor.mRunning == 0 && executor.getQueueDepthLocked() == 0) {
+                    executor.mIdleSinceMillis = end;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Waits for an executor with tasks to run.
+     *
+     * @return the executor, or null if there was none for a while.
+     */
+    @GuardedBy("sLock")
+    private static ProviderExecutor takeLocked() {
+        final long deadline = SystemClock.elapsedRealtime() + WORKER_KEEP_ALIVE_MILLIS;
+        ProviderExecutor executor;
+        while ((executor = sReady.pollFirst()) == null) {
+            final long remaining = deadline - SystemClock.elapsedRealtime();
+            if (remaining <= 0) {
+                return null;
+            }
+            sIdleWorkers++;
             try {
-                final Runnable command = mQueue.take();
-                command.run();
+                sLock.wait(remaining);
             } catch (InterruptedException e) {
                 // That was weird; let's go look for more tasks.
+            } finally {
+                sIdleWorkers--;
+            }
+        }
+        executor.mReady = false;
+        return executor;
+    }
+
+    /**
+     * Forgets executors that had no tasks for a while. Whoever still holds on to one can keep
+     * using it.
+     */
+    @GuardedBy("sLock")
+    private static void retireIdleLocked(long nowMillis) {
+        if (nowMillis - sLastSweepMillis < IDLE_TIMEOUT_MILLIS) {
+            return;
+        }
+        sLastSweepMillis = nowMillis;
+
+        final Iterator<ProviderExecutor> it = sExecutors.values().iterator();
+        while (it.hasNext()) {
+            final ProviderExecutor executor = it.next();
+            if (executor.mRunning == 0 && executor.getQueueDepthLocked() == 0
+                    && nowMillis - executor.mIdleSinceMillis >= IDLE_TIMEOUT_MILLIS) {
+                if (DEBUG) {
+                    Log.d(TAG, "Retiring idle executor " + executor);
+                }
+                it.remove();
             }
         }
     }
+
+    /**
+     * Takes the task to run next: the one with the most urgent priority, after aging. Only the
+     * oldest task of each priority can be the one.
+     */
+    @GuardedBy("sLock")
+    @VisibleForTesting
+    Task pollLocked(long nowMillis) {
+        int next = -1;
+        long nextRank = Long.MAX_VALUE;
+        for (int priority = 0; priority < PRIORITY_COUNT; priority++) {
+            final Task head = mQueues[priority].peekFirst();
+            if (head == null) {
+                continue;
+            }
+            final long rank = priority - (nowMillis - head.queuedMillis) / AGING_INTERVAL_MILLIS;
+            if (rank < nextRank) {
+                next = priority;
+                nextRank = rank;
+            }
+        }
+        if (next == -1) {
+            return null;
+        }
+        if (DEBUG && nextRank < next) {
+            Log.d(TAG, "Running aged task of priority " + next + " for " + mAuthority);
+        }
+        return mQueues[next].pollFirst();
+    }
+
+    @GuardedBy("sLock")
+    private int getQueueDepthLocked() {
+        int depth = 0;
+        for (ArrayDeque<Task> queue : mQueues) {
+            depth += queue.size();
+        }
+        return depth;
+    }
+
+    /**
+     * @return a copy of the statistics of this executor.
+     */
+    public Stats getStats() {
+        synchronized (sLock) {
+            return getStatsLocked();
+        }
+    }
+
+    @GuardedBy("sLock")
+    private Stats getStatsLocked() {
+        final Stats stats = new Stats(mStats);
+        for (int priority = 0; priority < PRIORITY_COUNT; priority++) {
+            stats.mQueueDepths[priority] = mQueues[priority].size();
+        }
+        stats.mRunningCount = mRunning;
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "ProviderExecutor{authority=" + mAuthority + ", " + getStats() + "}";
+    }
+
+    @VisibleForTesting
+    static final class Task {
+        final Runnable command;
+        final @Priority int priority;
+        final long queuedMillis;
+
+        private Task(Runnable command, @Priority int priority, long queuedMillis) {
+            this.command = command;
+            this.priority = priority;
+            this.queuedMillis = queuedMillis;
+        }
+    }
+
+    /**
+     * Queue depths and latencies of an executor, by priority.
+     */
+    public static final class Stats {
+        private final int[] mQueueDepths;
+        private final long[] mCompletedCounts;
+        private final long[] mTotalWaitMillis;
+        private final long[] mMaxWaitMillis;
+        private final long[] mTotalRunMillis;
+        private int mMaxQueueDepth;
+        private int mRunningCount;
+
+        private Stats() {
+            mQueueDepths = new int[PRIORITY_COUNT];
+            mCompletedCounts = new long[PRIORITY_COUNT];
+            mTotalWaitMillis = new long[PRIORITY_COUNT];
+            mMaxWaitMillis = new long[PRIORITY_COUNT];
+            mTotalRunMillis = new long[PRIORITY_COUNT];
+        }
+
+        private Stats(Stats other) {
+            mQueueDepths = other.mQueueDepths.clone();
+            mCompletedCounts = other.mCompletedCounts.clone();
+            mTotalWaitMillis = other.mTotalWaitMillis.clone();
+            mMaxWaitMillis = other.mMaxWaitMillis.clone();
+            mTotalRunMillis = other.mTotalRunMillis.clone();
+            mMaxQueueDepth = other.mMaxQueueDepth;
+        }
+
+        private void onQueued(int queueDepth) {
+            mMaxQueueDepth = Math.max(mMaxQueueDepth, queueDepth);
+        }
+
+        private void onRun(@Priority int priority, long waitMillis, long runMillis) {
+            mCompletedCounts[priority]++;
+            mTotalWaitMillis[priority] += waitMillis;
+            mMaxWaitMillis[priority] = Math.max(mMaxWaitMillis[priority], waitMillis);
+            mTotalRunMillis[priority] += runMillis;
+        }
+
+        /** Number of tasks waiting to be run. */
+        public int getQueueDepth(@Priority int priority) {
+            return mQueueDepths[priority];
+        }
+
+        /** Number of tasks running. */
+        public int getRunningCount() {
+            return mRunningCount;
+        }
+
+        /** Most tasks of all priorities that ever waited at once. */
+        public int getMaxQueueDepth() {
+            return mMaxQueueDepth;
+        }
+
+        public long getCompletedCount(@Priority int priority) {
+            return mCompletedCounts[priority];
+        }
+
+        /** Average time tasks waited before they were run. */
+        public long getAverageWaitMillis(@Priority int priority) {
+            return average(mTotalWaitMillis[priority], mCompletedCounts[priority]);
+        }
+
+        public long getMaxWaitMillis(@Priority int priority) {
+            return mMaxWaitMillis[priority];
+        }
+
+        /** Average time tasks took to run. */
+        public long getAverageRunMillis(@Priority int priority) {
+            return average(mTotalRunMillis[priority], mCompletedCounts[priority]);
+        }
+
+        private static long average(long total, long count) {
+            return count == 0 ? 0 : total / count;
+        }
+
+        @Override
+        public String toString() {
+            return "running=" + mRunningCount
+                    + ", queued=" + Arrays.toString(mQueueDepths)
+                    + ", maxQueued=" + mMaxQueueDepth
+                    + ", completed=" + Arrays.toString(mCompletedCounts)
+                    + ", maxWaitMillis=" + Arrays.toString(mMaxWaitMillis);
+        }
+    }
 }
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.documentsui;
+
+import static com.android.documentsui.base.SharedMinimal.DEBUG;
+
+import android.os.CancellationSignal;
+import android.util.Log;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Decides in which order, and how many at once, the queries of multi-root loads run. Learns how
+ * long queries to each authority take, so that loaders can start the fastest ones first, and
+ * lets fewer queries run at once while they take much longer than usual, which is what happens
+ * when providers compete for the same disk, network or CPU.
+ *
+ * <p>Queries waiting for their turn are kept in a queue, and only handed to their executor once
+ * they may run, so that they don't hold provider threads while they wait.
+ */
+final class QueryScheduler {
+    private static final String TAG = "QueryScheduler";
+
+    private static final int MIN_PERMITS = 2;
+    private static final int MAX_PERMITS = 8;
+    private static final int INITIAL_PERMITS = 4;
+
+    /** Expected latency of authorities never queried before. */
+    @VisibleForTesting
+    static final long DEFAULT_LATENCY_MILLIS = 200;
+    /** Weight of the latest query in the expected latency of an authority. */
+    private static final float LATENCY_WEIGHT = 0.3f;
+    /** A query taking this many times longer than expected counts as slowed down. */
+    private static final int SLOWDOWN_FACTOR = 3;
+
+    private static final QueryScheduler sInstance = new QueryScheduler();
+
+    static QueryScheduler getInstance() {
+        return sInstance;
+    }
+
+    @GuardedBy("this")
+    private final Map<String, Long> mLatencies = new HashMap<>();
+    @GuardedBy("this")
+    private int mPermits = INITIAL_PERMITS;
+    @GuardedBy("this")
+    private int mRunning;
+    @GuardedBy("this")
+    private final ArrayDeque<Query> mWaiting = new ArrayDeque<>();
+
+    // Queries whose results were used, queries that ran but whose results were thrown away
+    // because their load was cancelled, and queries cancelled before they ran.
+    @GuardedBy("this")
+    private long mCompletedCount;
+    @GuardedBy("this")
+    private long mWastedCount;
+    @GuardedBy("this")
+    private long mWastedMillis;
+    @GuardedBy("this")
+    private long mSkippedCount;
+
+    @VisibleForTesting
+    QueryScheduler() {}
+
+    /**
+     * @return how long a query to the given authority is expected to take.
+     */
+    synchronized long getExpectedLatencyMillis(String authority) {
+        final Long latency = mLatencies.get(authority);
+        return latency != null ? latency : DEFAULT_LATENCY_MILLIS;
+    }
+
+    /**
+     * Hands a query to its executor once it may run. Queries whose signal is cancelled before
+     * then are dropped. Every query that runs must call {@link #release} when it's done.
+     */
+    void execute(CancellationSignal signal, Executor executor, Runnable query) {
+        synchronized (this) {
+            if (signal.isCanceled()) {
+                mSkippedCount++;
+                return;
+            }
+            if (mRunning >= mPermits || !mWaiting.isEmpty()) {
+                mWaiting.add(new Query(signal, executor, query));
+                return;
+            }
+            mRunning++;
+        }
+        executor.execute(query);
+    }
+
+    /**
+     * Lets the next waiting query run.
+     */
+    void release() {
+        synchronized (this) {
+            mRunning--;
+        }
+        runWaiting();
+    }
+
+    private void runWaiting() {
+        final List<Query> ready = new ArrayList<>();
+        synchronized (this) {
+            while (mRunning < mPermits && !mWaiting.isEmpty()) {
+                final Query query = mWaiting.poll();
+                if (query.mSignal.isCanceled()) {
+                    mSkippedCount++;
+                    continue;
+                }
+                mRunning++;
+                ready.add(query);
+            }
+        }
+        // Executors may run queries right away, so they're handed over outside the lock.
+        for (Query query : ready) {
+            query.mExecutor.execute(query.mRunnable);
+        }
+    }
+
+    /**
+     * Records how long a query to the given authority took, once it held a permit.
+     */
+    void onQueryFinished(String authority, long latencyMillis) {
+        if (onQueryFinishedLocked(authority, latencyMillis)) {
+            runWaiting();
+        }
+    }
+
+    /**
+     * @return whether more queries may run at once.
+     */
+    private synchronized boolean onQueryFinishedLocked(String authority, long latencyMillis) {
+        mCompletedCount++;
+
+        final Long expected = mLatencies.get(authority);
+        if (expected == null) {
+            mLatencies.put(authority, latencyMillis);
+            return false;
+        }
+        mLatencies.put(authority,
+                (long) (LATENCY_WEIGHT * latencyMillis + (1 - LATENCY_WEIGHT) * expected));
+
+        // Back off quickly while queries slow each other down, and let more of them run one at a
+        // time once they don't.
+        final int permits = (latencyMillis > SLOWDOWN_FACTOR * Math.max(expected, 1))
+                ? Math.max(MIN_PERMITS, mPermits / 2)
+                : Math.min(MAX_PERMITS, mPermits + 1);
+        if (permits != mPermits) {
+            if (DEBUG) {
+                Log.d(TAG, "Query of " + authority + " took " + latencyMillis + " ms, expected "
+                        + expected + " ms. Letting " + permits + " queries run at once.");
+            }
+            final boolean grew = permits > mPermits;
+            mPermits = permits;
+            return grew;
+        }
+        return false;
+    }
+
+    /**
+     * Records a query whose results were thrown away because its load was cancelled. Its
+     * latency says nothing about the authority, so it isn't learned from.
+     */
+    synchronized void onQueryWasted(String authority, long latencyMillis) {
+        mWastedCount++;
+        mWastedMillis += latencyMillis;
+
+        if (DEBUG) {
+            Log.d(TAG, "Wasted " + latencyMillis + " ms on a query of " + authority + ". "
+                    + mWastedCount + " of " + (mCompletedCount + mWastedCount)
+                    + " queries wasted so far.");
+        }
+    }
+
+    /** @return the number of queries whose results were used. */
+    synchronized long getCompletedCount() {
+        return mCompletedCount;
+    }
+
+    /** @return the number of queries that ran, but whose results were thrown away. */
+    synchronized long getWastedCount() {
+        return mWastedCount;
+    }
+
+    /** @return the time spent on queries whose results were thrown away. */
+    synchronized long getWastedMillis() {
+        return mWastedMillis;
+    }
+
+    /** @return the number of queries cancelled before they ran. */
+    synchronized long getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    @VisibleForTesting
+    synchronized int getPermits() {
+        return mPermits;
+    }
+
+    private static final class Query {
+        final CancellationSignal mSignal;
+        final Executor mExecutor;
+        final Runnable mRunnable;
+
+        Query(CancellationSignal signal, Executor executor, Runnable runnable) {
+            mSignal = signal;
+            mExecutor = executor;
+            mRunnable = runnable;
+        }
+    }
+}
@@ -23,6 +23,7 @@ import android.provider.DocumentsContract;
 import android.provider.DocumentsContract.Document;
 import android.text.format.DateUtils;
 
+import com.android.documentsui.base.Features;
 import com.android.documentsui.base.Lookup;
 import com.android.documentsui.base.RootInfo;
 import com.android.documentsui.base.State;
@@ -44,8 +45,9 @@ public class RecentsLoader extends MultiRootDocumentsLoader {
     private static final int MAX_DOCS_FROM_ROOT = 64;
 
     public RecentsLoader(Context context, ProvidersAccess providers, State state,
-            Lookup<String, Executor> executors, Lookup<String, String> fileTypeMap) {
-        super(context, providers, state, executors, fileTypeMap);
+            Features features, Lookup<String, Executor> executors,
+            Lookup<String, String> fileTypeMap) {
+        super(context, providers, state, features, executors, fileTypeMap);
     }
 
     @Override
@@ -18,7 +18,6 @@ package com.android.documentsui;
 
 import androidx.annotation.IntDef;
 import androidx.annotation.Nullable;
-import androidx.core.util.Pools;
 
 import android.content.ComponentCallbacks2;
 import android.graphics.Bitmap;
@@ -27,17 +26,16 @@ import android.net.Uri;
 import android.util.LruCache;
 import android.util.Pair;
 
-import com.android.documentsui.base.Shared;
-
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.TreeMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 /**
  * An LRU cache that supports finding the thumbnail of the requested uri with a different size than
- * the requested one.
+ * the requested one. It is safe to read and write from any thread.
  */
 public class ThumbnailCache {
 
@@ -45,9 +43,12 @@ public class ThumbnailCache {
 
     /**
      * A 2-dimensional index into {@link #mCache} entries. Pair<Uri, Point> is the key to
-     * {@link #mCache}. TreeMap is used to search the closest size to a given size and a given uri.
+     * {@link #mCache}. Size maps are sorted to search the closest size to a given size and a given
+     * uri. Reads take no locks; writes to the size map of a uri are atomic, and size maps are
+     * removed once they are empty.
      */
-    private final HashMap<Uri, TreeMap<Point, Pair<Uri, Point>>> mSizeIndex;
+    private final ConcurrentHashMap<Uri, ConcurrentSkipListMap<Point, Pair<Uri, Point>>>
+            mSizeIndex;
     private final Cache mCache;
 
     /**
@@ -56,7 +57,7 @@ public class ThumbnailCache {
      * @param maxCacheSizeInBytes the maximum size of thumbnails in bytes this cache can hold.
      */
     public ThumbnailCache(int maxCacheSizeInBytes) {
-        mSizeIndex = new HashMap<>();
+        mSizeIndex = new ConcurrentHashMap<>();
         mCache = new Cache(maxCacheSizeInBytes);
     }
 
@@ -68,11 +69,10 @@ public class ThumbnailCache {
      * @return the thumbnail result
      */
     public Result getThumbnail(Uri uri, Point size) {
-        TreeMap<Point, Pair<Uri, Point>> sizeMap;
-        sizeMap = mSizeIndex.get(uri);
-        if (sizeMap == null || sizeMap.isEmpty()) {
+        final ConcurrentSkipListMap<Point, Pair<Uri, Point>> sizeMap = mSizeIndex.get(uri);
+        if (sizeMap == null) {
             // There is not any thumbnail for this uri.
-            return Result.obtainMiss();
+            return Result.MISS;
         }
 
         // Look for thumbnail of the same size.
@@ -80,38 +80,30 @@ public class ThumbnailCache {
         if (cacheKey != null) {
             Entry entry = mCache.get(cacheKey);
             if (entry != null) {
-                return Result.obtain(Result.CACHE_HIT_EXACT, size, entry);
+                return new Result(Result.CACHE_HIT_EXACT, size, entry);
             }
         }
 
         // Look for thumbnail of bigger sizes.
-        Point otherSize = sizeMap.higherKey(size);
-        if (otherSize != null) {
-            cacheKey = sizeMap.get(otherSize);
-
-            if (cacheKey != null) {
-                Entry entry = mCache.get(cacheKey);
-                if (entry != null) {
-                    return Result.obtain(Result.CACHE_HIT_LARGER, otherSize, entry);
-                }
+        Map.Entry<Point, Pair<Uri, Point>> other = sizeMap.higherEntry(size);
+        if (other != null) {
+            Entry entry = mCache.get(other.getValue());
+            if (entry != null) {
+                return new Result(Result.CACHE_HIT_LARGER, other.getKey(), entry);
             }
         }
 
         // Look for thumbnail of smaller sizes.
-        otherSize = sizeMap.lowerKey(size);
-        if (otherSize != null) {
-            cacheKey = sizeMap.get(otherSize);
-
-            if (cacheKey != null) {
-                Entry entry = mCache.get(cacheKey);
-                if (entry != null) {
-                    return Result.obtain(Result.CACHE_HIT_SMALLER, otherSize, entry);
-                }
+        other = sizeMap.lowerEntry(size);
+        if (other != null) {
+            Entry entry = mCache.get(other.getValue());
+            if (entry != null) {
+                return new Result(Result.CACHE_HIT_SMALLER, other.getKey(), entry);
             }
         }
 
         // Cache miss.
-        return Result.obtainMiss();
+        return Result.MISS;
     }
 
     /**
@@ -122,22 +114,21 @@ public class ThumbnailCache {
      * @param lastModified last modified value of the thumbnail to track its validity
      */
     public void putThumbnail(Uri uri, Point size, Bitmap thumbnail, long lastModified) {
-        Pair<Uri, Point> cacheKey = Pair.create(uri, size);
+        // Cache first, so that replacing a thumbnail, which unindexes the old one, can't drop
+        // the index of the new one. Lookups skip index entries of thumbnails evicted meanwhile.
+        final Pair<Uri, Point> cacheKey = Pair.create(uri, size);
+        mCache.put(cacheKey, new Entry(thumbnail, lastModified));
+        index(cacheKey);
+    }
 
-        TreeMap<Point, Pair<Uri, Point>> sizeMap;
-        synchronized (mSizeIndex) {
-            sizeMap = mSizeIndex.get(uri);
+    private void index(Pair<Uri, Point> cacheKey) {
+        mSizeIndex.compute(cacheKey.first, (key, sizeMap) -> {
             if (sizeMap == null) {
-                sizeMap = new TreeMap<>(SIZE_COMPARATOR);
-                mSizeIndex.put(uri, sizeMap);
+                sizeMap = new ConcurrentSkipListMap<>(SIZE_COMPARATOR);
             }
-        }
-
-        Entry entry = new Entry(thumbnail, lastModified);
-        mCache.put(cacheKey, entry);
-        synchronized (sizeMap) {
-            sizeMap.put(size, cacheKey);
-        }
+            sizeMap.put(cacheKey.second, cacheKey);
+            return sizeMap;
+        });
     }
 
     /**
@@ -145,31 +136,22 @@ public class ThumbnailCache {
      * @param uri the uri which thumbnail cache to remove
      */
     public void removeUri(Uri uri) {
-        TreeMap<Point, Pair<Uri, Point>> sizeMap;
-        synchronized (mSizeIndex) {
-            sizeMap = mSizeIndex.get(uri);
-        }
+        final ConcurrentSkipListMap<Point, Pair<Uri, Point>> sizeMap = mSizeIndex.get(uri);
 
         if (sizeMap != null) {
-            // Create an array to hold all values to avoid ConcurrentModificationException because
-            // removeKey() will be called by LruCache but we can't modify the map while we're
-            // iterating over the collection of values.
-            for (Pair<Uri, Point> index : sizeMap.values().toArray(new Pair[0])) {
+            // Iterating the size map is weakly consistent, so removeKey() may be called by
+            // LruCache while we iterate.
+            for (Pair<Uri, Point> index : sizeMap.values()) {
                 mCache.remove(index);
             }
         }
     }
 
     private void removeKey(Uri uri, Point size) {
-        TreeMap<Point, Pair<Uri, Point>> sizeMap;
-        synchronized (mSizeIndex) {
-            sizeMap = mSizeIndex.get(uri);
-        }
-
-        assert(sizeMap != null);
-        synchronized (sizeMap) {
+        mSizeIndex.computeIfPresent(uri, (key, sizeMap) -> {
             sizeMap.remove(size);
-        }
+            return sizeMap.isEmpty() ? null : sizeMap;
+        });
     }
 
     public void onTrimMemory(int level) {
@@ -207,53 +189,23 @@ public class ThumbnailCache {
          */
         public static final int CACHE_HIT_LARGER = 3;
 
-        private static final Pools.SimplePool<Result> sPool = new Pools.SimplePool<>(1);
-
-        private @Status int mStatus;
-        private @Nullable Bitmap mThumbnail;
-        private @Nullable Point mSize;
-        private long mLastModified;
+        private static final Result MISS = new Result(CACHE_MISS, null, null, 0);
 
-        private static Result obtainMiss() {
-            return obtain(CACHE_MISS, null, null, 0);
-        }
-
-        private static Result obtain(@Status int status, Point size, Entry entry) {
-            return obtain(status, entry.mThumbnail, size, entry.mLastModified);
-        }
-
-        private static Result obtain(@Status int status, @Nullable Bitmap thumbnail,
-                @Nullable Point size, long lastModified) {
-            Shared.checkMainLoop();
-
-            Result instance = sPool.acquire();
-            instance = (instance != null ? instance : new Result());
-
-            instance.mStatus = status;
-            instance.mThumbnail = thumbnail;
-            instance.mSize = size;
-            instance.mLastModified = lastModified;
+        private final @Status int mStatus;
+        private final @Nullable Bitmap mThumbnail;
+        private final @Nullable Point mSize;
+        private final long mLastModified;
 
-            return instance;
+        private Result(@Status int status, Point size, Entry entry) {
+            this(status, entry.mThumbnail, size, entry.mLastModified);
         }
 
-        private Result() {}
-
-        public void recycle() {
-            Shared.checkMainLoop();
-
-            mStatus = -1;
-            mThumbnail = null;
-            mSize = null;
-            mLastModified = -1;
-
-            boolean released = sPool.release(this);
-            // This assert is used to guarantee we won't generate too many instances that can't be
-            // held in the pool, which indicates our pool size is too small.
-            //
-            // Right now one instance is enough because we expect all instances are only used in
-            // main thread.
-            assert (released);
+        private Result(@Status int status, @Nullable Bitmap thumbnail, @Nullable Point size,
+                long lastModified) {
+            mStatus = status;
+            mThumbnail = thumbnail;
+            mSize = size;
+            mLastModified = lastModified;
         }
 
         public @Status int getStatus() {
@@ -33,7 +33,11 @@ import android.provider.DocumentsContract;
 import android.util.Log;
 import android.view.View;
 import android.widget.ImageView;
+
+import androidx.annotation.Nullable;
+
 import com.android.documentsui.ProviderExecutor.Preemptable;
+
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
@@ -99,23 +103,48 @@ public final class ThumbnailLoader extends AsyncTask<Uri, Void, Bitmap> implemen
             return null;
         }
 
-        final Context context = mIconThumb.getContext();
+        return loadThumbnail(mIconThumb.getContext(), mUri, mThumbSize, mLastModified, mSignal,
+                mAddToCache);
+    }
+
+    /**
+     * Loads a thumbnail from the disk cache, or else from its provider. Blocks, so must be called
+     * off the main thread.
+     *
+     * @param addToCache - whether to use the caches, and save the thumbnail to them.
+     * @return the thumbnail, or null if it couldn't be loaded.
+     */
+    static @Nullable Bitmap loadThumbnail(Context context, Uri uri, Point thumbSize,
+            long lastModified, CancellationSignal signal, boolean addToCache) {
         final ContentResolver resolver = context.getContentResolver();
 
         ContentProviderClient client = null;
         Bitmap result = null;
         try {
-            client = DocumentsApplication.acquireUnstableProviderOrThrow(
-                resolver, mUri.getAuthority());
-            result = DocumentsContract.getDocumentThumbnail(wrap(client),
-                    mUri, mThumbSize, mSignal);
-            if (result != null && mAddToCache) {
+            // Thumbnails written to disk are still there after the memory cache is trimmed.
+            final DiskThumbnailCache diskCache = addToCache
+                    ? DocumentsApplication.getDiskThumbnailCache(context)
+                    : null;
+            if (diskCache != null) {
+                result = diskCache.getThumbnail(uri, thumbSize, lastModified);
+            }
+
+            if (result == null && !signal.isCanceled()) {
+                client = DocumentsApplication.acquireUnstableProviderOrThrow(
+                    resolver, uri.getAuthority());
+                result = DocumentsContract.getDocumentThumbnail(wrap(client),
+                        uri, thumbSize, signal);
+                if (result != null && diskCache != null) {
+                    diskCache.putThumbnail(uri, thumbSize, result, lastModified);
+                }
+            }
+            if (result != null && addToCache) {
                 final ThumbnailCache cache = DocumentsApplication.getThumbnailCache(context);
-                cache.putThumbnail(mUri, mThumbSize, result, mLastModified);
+                cache.putThumbnail(uri, thumbSize, result, lastModified);
             }
         } catch (Exception e) {
             if (!(e instanceof OperationCanceledException)) {
-                Log.w(TAG, "Failed to load thumbnail for " + mUri + ": " + e);
+                Log.w(TAG, "Failed to load thumbnail for " + uri + ": " + e);
             }
         } finally {
             FileUtils.closeQuietly(client);
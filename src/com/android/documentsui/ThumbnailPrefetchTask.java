@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.documentsui;
+
+import static com.android.documentsui.base.SharedMinimal.VERBOSE;
+
+import android.content.Context;
+import android.graphics.Point;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.CancellationSignal;
+import android.util.Log;
+
+import com.android.documentsui.ProviderExecutor.Preemptable;
+
+/**
+ * Loads a thumbnail in to the caches before the view that shows it is bound.
+ */
+public final class ThumbnailPrefetchTask extends AsyncTask<Void, Void, Void>
+        implements Preemptable {
+
+    private static final String TAG = "ThumbnailPrefetchTask";
+
+    private final Context mContext;
+    private final Uri mUri;
+    private final Point mThumbSize;
+    private final long mLastModified;
+    private final CancellationSignal mSignal;
+
+    public ThumbnailPrefetchTask(Context context, Uri uri, Point thumbSize, long lastModified) {
+        mContext = context.getApplicationContext();
+        mUri = uri;
+        mThumbSize = thumbSize;
+        mLastModified = lastModified;
+        mSignal = new CancellationSignal();
+    }
+
+    @Override
+    public void preempt() {
+        if (VERBOSE) Log.v(TAG, "Prefetch task for " + mUri + " was cancelled.");
+        cancel(false);
+        mSignal.cancel();
+    }
+
+    @Override
+    protected Void doInBackground(Void... params) {
+        if (isCancelled()) {
+            return null;
+        }
+        ThumbnailLoader.loadThumbnail(mContext, mUri, mThumbSize, mLastModified, mSignal,
+                true /* addToCache */);
+        return null;
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.documentsui.base;
+
+import static com.android.documentsui.base.SharedMinimal.VERBOSE;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.provider.DocumentsContract.Document;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cursor holding a snapshot of all the columns of another cursor, copied into one array per
+ * column. Reads never go back to the source cursor, so they don't walk wrapper chains or refill
+ * cross-process cursor windows. The numeric document columns are kept as numbers, and all other
+ * columns as strings, or blobs for values that are blobs.
+ *
+ * <p>The source cursor is kept open, since content change notifications and extras come from
+ * it, and is closed together with this cursor.
+ */
+public class ColumnarDocumentsCursor extends AbstractCursor {
+    private static final String TAG = "ColumnarDocumentsCursor";
+
+    private static final List<String> NUMERIC_COLUMNS = Arrays.asList( = new String[] {
+            Document.COLUMN_LAST_MODIFIED,
+            Document.COLUMN_SIZE,
+            Document.COLUMN_FLAGS,
+            Document.COLUMN_ICON);
+
+    private final Cursor mSource;
+    private final boolean mOwnsSource;
+    private final int mCount;
+    private final String[] mColumnNames;
+    private final int mStringColumnCount;
+
+    // Indexed by column. A column is either a string column, or a numeric column with a flag
+    // for every null value. String columns get blobs too, allocated when one is first copied.
+    private final String[][] mStrings;
+    private final long[][] mLongs;
+    private final boolean[][] mNulls;
+    private final byte[][][] mBlobs;
+
+    public ColumnarDocumentsCursor(Cursor source) {
+        mSource = source;
+        mOwnsSource = true;
+        mCount = source.getCount();
+
+        // String columns come first.
+        final String[] sourceNames = source.getColumnNames();
+        final List<String> columnNames = new ArrayList<>(sourceNames.length);
+        for (String column : sourceNames) {
+            if (!NUMERIC_COLUMNS.contains(column)) {
+                columnNames.add(column);
+            }
+        }
+        mStringColumnCount = columnNames.size();
+        for (String column : sourceNames) {
+            if (NUMERIC_COLUMNS.contains(column)) {
+                columnNames.add(column);
+            }
+        }
+
+        mColumnNames = columnNames.toArray(new String[columnNames.size()]);
+        mStrings = new String[mColumnNames.length][];
+        mLongs = new long[mColumnNames.length][];
+        mNulls = new boolean[mColumnNames.length][];
+        mBlobs = new byte[mColumnNames.length][][];
+        allocate();
+        readRows(source, 0);
+    }
+
+    /**
+     * Copies the rows of another columnar cursor, followed by the rows of {@code source}. Columns
+     * are the ones of {@code head}.
+     */
+    private ColumnarDocumentsCursor(ColumnarDocumentsCursor head, Cursor source) {
+        mSource = source;
+        mOwnsSource = true;
+        mCount = head.mCount + source.getCount();
+        mColumnNames = head.mColumnNames;
+        mStringColumnCount = head.mStringColumnCount;
+        mStrings = new String[mColumnNames.length][];
+        mLongs = new long[mColumnNames.length][];
+        mNulls = new boolean[mColumnNames.length][];
+        mBlobs = new byte[mColumnNames.length][][];
+        allocate();
+        for (int column = 0; column < mColumnNames.length; column++) {
+            if (column < mStringColumnCount) {
+                System.arraycopy(head.mStrings[column], 0, mStrings[column], 0, head.mCount);
+                if (head.mBlobs[column] != null) {
+                    mBlobs[column] = new byte[mCount][];
+                    System.arraycopy(head.mBlobs[column], 0, mBlobs[column], 0, head.mCount);
+                }
+            } else {
+                System.arraycopy(head.mLongs[column], 0, mLongs[column], 0, head.mCount);
+                System.arraycopy(head.mNulls[column], 0, mNulls[column], 0, head.mCount);
+            }
+        }
+        readRows(source, head.mCount);
+    }
+
+    /**
+     * Shares the rows of another columnar cursor, which are never written after they are copied.
+     */
+    private ColumnarDocumentsCursor(ColumnarDocumentsCursor other) {
+        mSource = other.mSource;
+        mOwnsSource = false;
+        mCount = other.mCount;
+        mColumnNames = other.mColumnNames;
+        mStringColumnCount = other.mStringColumnCount;
+        mStrings = other.mStrings;
+        mLongs = other.mLongs;
+        mNulls = other.mNulls;
+        mBlobs = other.mBlobs;
+    }
+
+    /**
+     * Returns a cursor over the same rows as this one, with a position of its own, so that
+     * other threads can read the rows without moving this cursor. Closing it leaves the source
+     * cursor open.
+     */
+    public ColumnarDocumentsCursor view() {
+        return new ColumnarDocumentsCursor(this);
+    }
+
+    /**
+     * Returns a new cursor with the rows of this one, followed by the rows of {@code source},
+     * which the new cursor takes ownership of. Used to add pages of documents to the ones
+     * loaded before. This cursor is left as is, and since only copied values are read, may even
+     * be closed already.
+     */
+    public ColumnarDocumentsCursor append(Cursor source) {
+        return new ColumnarDocumentsCursor(this, source);
+    }
+
+    private void allocate() {
+        for (int column = 0; column < mColumnNames.length; column++) {
+            if (column < mStringColumnCount) {
+                mStrings[column] = new String[mCount];
+            } else {
+                mLongs[column] = new long[mCount];
+                mNulls[column] = new boolean[mCount];
+            }
+        }
+    }
+
+    /**
+     * Copies all rows of the source, starting at the given row of this cursor.
+     */
+    private void readRows(Cursor source, int firstRow) {
+        final int columnCount = mColumnNames.length;
+        final int[] sourceIndexes = new int[columnCount];
+        for (int column = 0; column < columnCount; column++) {
+            sourceIndexes[column] = source.getColumnIndex(mColumnNames[column]);
+        }
+
+        source.moveToPosition(-1);
+        for (int row = firstRow; row < mCount; row++) {
+            if (!source.moveToNext()) {
+                Log.e(TAG, "Fail to move cursor to next pos: " + (row - firstRow));
+                break;
+            }
+            for (int column = 0; column < columnCount; column++) {
+                final int index = sourceIndexes[column];
+                if (index == -1) {
+                    // Appended pages may lack columns of the first one.
+                    if (column >= mStringColumnCount) {
+                        mNulls[column][row] = true;
+                    }
+                } else if (column < mStringColumnCount) {
+                    if (source.getType(index) == FIELD_TYPE_BLOB) {
+                        if (mBlobs[column] == null) {
+                            mBlobs[column] = new byte[mCount][];
+                        }
+                        mBlobs[column][row] = source.getBlob(index);
+                    } else {
+                        mStrings[column][row] = source.getString(index);
+                    }
+                } else {
+                    readLong(column, row, source.getString(index));
+                }
+            }
+        }
+
+        if (VERBOSE) {
+            Log.v(TAG, "Copied " + columnCount + " columns of " + (mCount - firstRow)
+                    + " documents.");
+        }
+    }
+
+    /**
+     * Numbers are read as strings and parsed, the same way {@link DocumentInfo#getCursorLong}
+     * does, so that malformed values still read as missing.
+     */
+    private void readLong(int column, int row, String value) {
+        if (value == null) {
+            mNulls[column][row] = true;
+            return;
+        }
+        try {
+            mLongs[column][row] = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            mNulls[column][row] = true;
+        }
+    }
+
+    @Override
+    public Bundle getExtras() {
+        return mSource.getExtras();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        if (mOwnsSource) {
+            mSource.close();
+        }
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String getString(int column) {
+        checkPosition();
+        if (mStrings[column] != null) {
+            if (isBlob(column)) {
+                throw new IllegalStateException(
+                        "Column " + mColumnNames[column] + " holds a blob, not a string.");
+            }
+            return mStrings[column][mPos];
+        }
+        return mNulls[column][mPos] ? null : Long.toString(mLongs[column][mPos]);
+    }
+
+    @Override
+    public long getLong(int column) {
+        checkPosition();
+        if (mStrings[column] != null) {
+            return parseLong(mStrings[column][mPos]);
+        }
+        return mNulls[column][mPos] ? 0 : mLongs[column][mPos];
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return getLong(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return getLong(column);
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        checkPosition();
+        if (isBlob(column)) {
+            return mBlobs[column][mPos];
+        }
+        return super.getBlob(column);
+    }
+
+    private boolean isBlob(int column) {
+        return mBlobs[column] != null && mBlobs[column][mPos] != null;
+    }
+
+    @Override
+    public int getType(int column) {
+        checkPosition();
+        if (isBlob(column)) {
+            return FIELD_TYPE_BLOB;
+        }
+        if (mStrings[column] != null) {
+            return mStrings[column][mPos] == null ? FIELD_TYPE_NULL : FIELD_TYPE_STRING;
+        }
+        return mNulls[column][mPos] ? FIELD_TYPE_NULL : FIELD_TYPE_INTEGER;
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return getType(column) == FIELD_TYPE_NULL;
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
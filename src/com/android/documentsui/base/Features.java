@@ -33,17 +33,25 @@ public interface Features {
     boolean isCommandInterceptorEnabled();
     boolean isContentPagingEnabled();
     boolean isContentRefreshEnabled();
+    boolean isDeferredSyncEnabled();
     boolean isDebugSupportEnabled();
+    boolean isDiskThumbnailCacheEnabled();
     boolean isFoldersInSearchResultsEnabled();
     boolean isGestureScaleEnabled();
+    boolean isIncrementalUpdatesEnabled();
     boolean isInspectorEnabled();
     boolean isJobProgressDialogEnabled();
     boolean isLaunchToDocumentEnabled();
     boolean isNotificationChannelEnabled();
     boolean isOverwriteConfirmationEnabled();
+    boolean isParallelCopyEnabled();
+    boolean isParallelSortEnabled();
     boolean isRemoteActionsEnabled();
+    boolean isSmoothedCopyEstimateEnabled();
     boolean isSystemKeyboardNavigationEnabled();
+    boolean isThumbnailPrefetchEnabled();
     boolean isVirtualFilesSharingEnabled();
+    boolean isWarmStartRootsEnabled();
     boolean isDefaultRootInBrowseEnabled();
 
 
@@ -105,6 +113,11 @@ public interface Features {
             return isEnabled(R.bool.feature_content_refresh);
         }
 
+        @Override
+        public boolean isDeferredSyncEnabled() {
+            return isEnabled(R.bool.feature_deferred_sync);
+        }
+
         private boolean isFunPolicyEnabled() {
             return !mUserMgr.hasUserRestriction(UserManager.DISALLOW_FUN);
         }
@@ -118,6 +131,11 @@ public interface Features {
             return isDebugPolicyEnabled() && isFunPolicyEnabled();
         }
 
+        @Override
+        public boolean isDiskThumbnailCacheEnabled() {
+            return isEnabled(R.bool.feature_disk_thumbnail_cache);
+        }
+
         @Override
         public boolean isFoldersInSearchResultsEnabled() {
             return isEnabled(R.bool.feature_folders_in_search_results);
@@ -128,6 +146,11 @@ public interface Features {
             return isEnabled(R.bool.feature_gesture_scale);
         }
 
+        @Override
+        public boolean isIncrementalUpdatesEnabled() {
+            return isEnabled(R.bool.feature_incremental_updates);
+        }
+
         @Override
         public boolean isInspectorEnabled() {
             return isEnabled(R.bool.feature_inspector);
@@ -153,21 +176,46 @@ public interface Features {
             return isEnabled(R.bool.feature_overwrite_confirmation);
         }
 
+        @Override
+        public boolean isParallelCopyEnabled() {
+            return isEnabled(R.bool.feature_parallel_copy);
+        }
+
+        @Override
+        public boolean isParallelSortEnabled() {
+            return isEnabled(R.bool.feature_parallel_sort);
+        }
+
         @Override
         public boolean isRemoteActionsEnabled() {
             return isEnabled(R.bool.feature_remote_actions);
         }
 
+        @Override
+        public boolean isSmoothedCopyEstimateEnabled() {
+            return isEnabled(R.bool.feature_smoothed_copy_estimate);
+        }
+
         @Override
         public boolean isSystemKeyboardNavigationEnabled() {
             return isEnabled(R.bool.feature_system_keyboard_navigation);
         }
 
+        @Override
+        public boolean isThumbnailPrefetchEnabled() {
+            return isEnabled(R.bool.feature_thumbnail_prefetch);
+        }
+
         @Override
         public boolean isVirtualFilesSharingEnabled() {
             return isEnabled(R.bool.feature_virtual_files_sharing);
         }
 
+        @Override
+        public boolean isWarmStartRootsEnabled() {
+            return isEnabled(R.bool.feature_warm_start_roots);
+        }
+
         @Override
         public boolean isDefaultRootInBrowseEnabled() {
             return isEnabled(R.bool.feature_default_root_in_browse);
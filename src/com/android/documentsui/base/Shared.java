@@ -199,6 +199,15 @@ public final class Shared {
         return sCollator.compare(lhs, rhs);
     }
 
+    /**
+     * Returns a new copy of the collator used by {@link #compareToIgnoreCaseNullable}. Collators
+     * aren't thread safe, so callers that precompute {@link java.text.CollationKey}s in the
+     * background should use their own instance.
+     */
+    public static Collator newCollator() {
+        return (Collator) sCollator.clone();
+    }
+
     private static boolean isSystemApp(ApplicationInfo ai) {
         return (ai.flags & ApplicationInfo.FLAG_SYSTEM) != 0;
     }
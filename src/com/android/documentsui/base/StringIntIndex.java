@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.documentsui.base;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Immutable index from the strings of an array to their positions in it. Backed by an
+ * open-addressing hash table with linear probing over parallel primitive arrays, so neither
+ * building it nor looking positions up boxes anything, and lookups don't allocate at all.
+ *
+ * <p>If a string appears more than once, it maps to its first position, same as
+ * {@link java.util.List#indexOf}. Null strings are supported.
+ */
+public final class StringIntIndex {
+
+    /** Returned by {@link #get} for strings that aren't in the index. */
+    public static final int NOT_FOUND = -1;
+
+    public static final StringIntIndex EMPTY = new StringIntIndex(new String[0], 0);
+
+    private static final int MIN_CAPACITY = 2;
+
+    /** Golden ratio multiplier, for Fibonacci hashing. */
+    private static final int HASH_MULTIPLIER = 0x9E3779B9;
+
+    // Parallel arrays, indexed by slot. A null key marks an empty slot. Hash codes are kept next
+    // to the keys so that probing rarely has to call String#equals.
+    private final String[] mKeys;
+    private final int[] mHashes;
+    private final int[] mValues;
+    private final int mMask;
+    private final int mShift;
+    private final int mSize;
+
+    private int mNullValue = NOT_FOUND;
+
+    private StringIntIndex(String[] strings, int count) {
+        // The table is kept at most half full, which keeps probe sequences short.
+        int capacity = MIN_CAPACITY;
+        while (capacity < count * 2) {
+            capacity <<= 1;
+        }
+        mKeys = new String[capacity];
+        mHashes = new int[capacity];
+        mValues = new int[capacity];
+        mMask = capacity - 1;
+        mShift = Integer.numberOfLeadingZeros(mMask);
+
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            if (insert(strings[i], i)) {
+                size++;
+            }
+        }
+        mSize = size;
+    }
+
+    /**
+     * Builds an index of all the strings in the array.
+     */
+    public static StringIntIndex of(String[] strings) {
+        return of(strings, strings.length);
+    }
+
+    /**
+     * Builds an index of the first {@code count} strings in the array.
+     */
+    public static StringIntIndex of(String[] strings, int count) {
+        assert(count <= strings.length);
+        return count == 0 ? EMPTY : new StringIntIndex(strings, count);
+    }
+
+    /**
+     * @return the first position of the string, or {@link #NOT_FOUND}.
+     */
+    public int get(@Nullable String key) {
+        if (key == null) {
+            return mNullValue;
+        }
+
+        final int hash = key.hashCode();
+        for (int slot = slot(hash); ; slot = (slot + 1) & mMask) {
+            final String candidate = mKeys[slot];
+            if (candidate == null) {
+                return NOT_FOUND;
+            }
+            if (mHashes[slot] == hash && (candidate == key || candidate.equals(key))) {
+                return mValues[slot];
+            }
+        }
+    }
+
+    public boolean contains(@Nullable String key) {
+        return get(key) != NOT_FOUND;
+    }
+
+    /**
+     * @return number of distinct strings in the index.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return false if the string was already in the index.
+     */
+    private boolean insert(@Nullable String key, int value) {
+        if (key == null) {
+            if (mNullValue != NOT_FOUND) {
+                return false;
+            }
+            mNullValue = value;
+            return true;
+        }
+
+        final int hash = key.hashCode();
+        int slot = slot(hash);
+        while (mKeys[slot] != null) {
+            if (mHashes[slot] == hash && mKeys[slot].equals(key)) {
+                return false;
+            }
+            slot = (slot + 1) & mMask;
+        }
+        mKeys[slot] = key;
+        mHashes[slot] = hash;
+        mValues[slot] = value;
+        return true;
+    }
+
+    /**
+     * Takes the top bits of the scrambled hash code. Model IDs share long prefixes and often end
+     * in sequential numbers, which leaves String#hashCode clustered in the low bits.
+     */
+    private int slot(int hash) {
+        return (hash * HASH_MULTIPLIER) >>> mShift;
+    }
+}
@@ -18,7 +18,10 @@ package com.android.documentsui.dirlist;
 
 import android.view.ViewGroup;
 
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.ListUpdateCallback;
+import androidx.recyclerview.widget.RecyclerView;
 import androidx.recyclerview.widget.RecyclerView.AdapterDataObserver;
 
 import com.android.documentsui.Model;
@@ -47,6 +50,8 @@ final class DirectoryAddonsAdapter extends DocumentsAdapter {
     // now.
     private final Message mHeaderMessage;
     private final Message mInflateMessage;
+    // Whether the last model update showed or hid a message, which model diffs don't cover.
+    private boolean mMessagesToggled;
 
     DirectoryAddonsAdapter(Environment environment, DocumentsAdapter delegate) {
         mEnv = environment;
@@ -176,9 +181,13 @@ final class DirectoryAddonsAdapter extends DocumentsAdapter {
         // in our update handler.
         mDelegate.getModelUpdateListener().accept(event);
 
+        final boolean showedHeader = mHeaderMessage.shouldShow();
+        final boolean showedInflate = mInflateMessage.shouldShow();
         mBreakPosition = -1;
         mInflateMessage.update(event);
         mHeaderMessage.update(event);
+        mMessagesToggled = showedHeader != mHeaderMessage.shouldShow()
+                || showedInflate != mInflateMessage.shouldShow();
         // If there's any fatal error (exceptions), then no need to update the rest.
         if (event.hasException()) {
             return;
@@ -202,6 +211,26 @@ final class DirectoryAddonsAdapter extends DocumentsAdapter {
         }
     }
 
+    @Override
+    void notifyModelUpdated(Update update) {
+        final DiffUtil.DiffResult diff = update.getDiff();
+        if (diff == null || mMessagesToggled) {
+            notifyDataSetChanged();
+            return;
+        }
+
+        // The diff covers documents and the section break. Messages stay where they are, but
+        // may have new contents.
+        final int topOffset = mHeaderMessage.shouldShow() ? 1 : 0;
+        if (topOffset > 0) {
+            notifyItemChanged(0);
+        }
+        diff.dispatchUpdatesTo(new OffsetUpdateCallback(topOffset));
+        if (mInflateMessage.shouldShow()) {
+            notifyItemChanged(getItemCount() - 1);
+        }
+    }
+
     @Override
     public int getItemViewType(int p) {
         if (p == 0 && mHeaderMessage.shouldShow()) {
@@ -275,7 +304,37 @@ final class DirectoryAddonsAdapter extends DocumentsAdapter {
 
     @Override
     public int getPosition(String id) {
-        return toViewPosition(mDelegate.getPosition(id));
+        final int position = mDelegate.getPosition(id);
+        return position != RecyclerView.NO_POSITION ? toViewPosition(position) : position;
+    }
+
+    // Relays diff results to our listeners, shifted past the header message.
+    private final class OffsetUpdateCallback implements ListUpdateCallback {
+        private final int mOffset;
+
+        private OffsetUpdateCallback(int offset) {
+            mOffset = offset;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            notifyItemRangeInserted(position + mOffset, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            notifyItemRangeRemoved(position + mOffset, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            notifyItemMoved(fromPosition + mOffset, toPosition + mOffset);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            notifyItemRangeChanged(position + mOffset, count, payload);
+        }
     }
 
     // Listener we add to our delegate. This allows us to relay events published
@@ -90,6 +90,7 @@ import com.android.documentsui.base.RootInfo;
 import com.android.documentsui.base.Shared;
 import com.android.documentsui.base.State;
 import com.android.documentsui.base.State.ViewMode;
+import com.android.documentsui.base.StringIntIndex;
 import com.android.documentsui.clipping.ClipStore;
 import com.android.documentsui.clipping.DocumentClipper;
 import com.android.documentsui.clipping.UrisSupplier;
@@ -127,6 +128,8 @@ public class DirectoryFragment extends Fragment implements SwipeRefreshLayout.On
 
     private static final int CACHE_EVICT_LIMIT = 100;
     private static final int REFRESH_SPINNER_TIMEOUT = 500;
+    // Number of items from the end of the list at which the next page of documents is loaded.
+    private static final int NEXT_PAGE_DISTANCE = 50;
 
     private BaseActivity mActivity;
 
@@ -160,6 +163,7 @@ public class DirectoryFragment extends Fragment implements SwipeRefreshLayout.On
     private KeyInputHandler mKeyListener;
     private @Nullable DragHoverListener mDragHoverListener;
     private IconHelper mIconHelper;
+    private @Nullable ThumbnailPrefetcher mThumbnailPrefetcher;
     private SwipeRefreshLayout mRefreshLayout;
     private RecyclerView mRecView;
     private DocumentsAdapter mAdapter;
@@ -184,8 +188,9 @@ public class DirectoryFragment extends Fragment implements SwipeRefreshLayout.On
     private ContentLock mContentLock = new ContentLock();
 
     private SortModel.UpdateListener mSortListener = (model, updateType) -> {
-        // Only when sort order has changed do we need to trigger another loading.
-        if ((updateType & SortModel.UPDATE_TYPE_SORTING) != 0) {
+        // Only when sort order has changed do we need to trigger another loading. Documents
+        // already loaded are re-sorted in place when possible.
+        if ((updateType & SortModel.UPDATE_TYPE_SORTING) != 0 && !mModel.resort(model)) {
             mActions.loadDocumentsForCurrentStack();
         }
     };
@@ -266,6 +271,9 @@ public class DirectoryFragment extends Fragment implements SwipeRefreshLayout.On
             final View view = mRecView.getChildAt(i);
             cancelThumbnailTask(view);
         }
+        if (mThumbnailPrefetcher != null) {
+            mThumbnailPrefetcher.cancel();
+        }
 
         mModel.removeUpdateListener(mModelUpdateListener);
         mModel.removeUpdateListener(mAdapter.getModelUpdateListener());
@@ -314,6 +322,11 @@ public class DirectoryFragment extends Fragment implements SwipeRefreshLayout.On
         }
         mRecView.setLayoutManager(mLayout);
 
+        if (mInjector.features.isThumbnailPrefetchEnabled()) {
+            mThumbnailPrefetcher = new ThumbnailPrefetcher(mModel, mAdapter, mLayout, mIconHelper);
+            mRecView.addOnScrollListener(mThumbnailPrefetcher);
+        }
+
         mModel.addUpdateListener(mAdapter.getModelUpdateListener());
         mModel.addUpdateListener(mModelUpdateListener);
 
@@ -323,6 +336,16 @@ public class DirectoryFragment extends Fragment implements SwipeRefreshLayout.On
         mFocusManager = mInjector.getFocusManager(mRecView, mModel);
         mActions = mInjector.getActionHandler(mContentLock);
 
+        mRecView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (dy > 0 && mLayout.findLastVisibleItemPosition()
+                        >= mAdapter.getItemCount() - NEXT_PAGE_DISTANCE) {
+                    mActions.loadNextPage();
+                }
+            }
+        });
+
         mRecView.setAccessibilityDelegateCompat(
                 new AccessibilityEventRouter(mRecView,
                         (View child) -> onAccessibilityClick(child),
@@ -1179,14 +1202,20 @@ public class DirectoryFragment extends Fragment implements SwipeRefreshLayout.On
             updateLayout(mState.derivedMode);
 
             // Update the selection to remove any disappeared IDs.
+            final StringIntIndex modelIds = mModel.getModelIdIndex();
             Iterator<String> selectionIter = mSelectionMgr.getSelection().iterator();
             while (selectionIter.hasNext()) {
-                if (!mAdapter.getStableIds().contains(selectionIter.next())) {
+                if (!modelIds.contains(selectionIter.next())) {
                     selectionIter.remove();
                 }
             }
 
-            mAdapter.notifyDataSetChanged();
+            mAdapter.notifyModelUpdated(update);
+
+            // Anything but a small change, like another directory, makes prefetches stale.
+            if (mThumbnailPrefetcher != null && update.getDiff() == null) {
+                mThumbnailPrefetcher.cancel();
+            }
 
             if (mRestoredState != null) {
                 mSelectionMgr.onRestoreInstanceState(mRestoredState);
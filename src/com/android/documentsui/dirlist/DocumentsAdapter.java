@@ -57,6 +57,14 @@ public abstract class DocumentsAdapter extends RecyclerView.Adapter<DocumentHold
 
     abstract EventListener<Model.Update> getModelUpdateListener();
 
+    /**
+     * Notifies observers that the data changed after a model update, once the adapter has
+     * handled the update itself.
+     */
+    void notifyModelUpdated(Model.Update update) {
+        notifyDataSetChanged();
+    }
+
     /**
      * Returns a class that yields the span size for a particular element. This is
      * primarily useful in {@link DirectoryAddonsAdapter} where
@@ -40,6 +40,7 @@ import com.android.documentsui.R;
 import com.android.documentsui.ThumbnailCache;
 import com.android.documentsui.ThumbnailCache.Result;
 import com.android.documentsui.ThumbnailLoader;
+import com.android.documentsui.ThumbnailPrefetchTask;
 import com.android.documentsui.base.DocumentInfo;
 import com.android.documentsui.base.MimeTypes;
 import com.android.documentsui.base.State;
@@ -61,6 +62,8 @@ public class IconHelper {
     private int mMode;
     private Point mCurrentSize;
     private boolean mThumbnailsEnabled = true;
+    private int mThumbnailBindCount;
+    private int mThumbnailCacheHitCount;
 
     /**
      * @param context
@@ -159,11 +162,7 @@ public class IconHelper {
 
         final String docAuthority = uri.getAuthority();
 
-        final boolean supportsThumbnail = (docFlags & Document.FLAG_SUPPORTS_THUMBNAIL) != 0;
-        final boolean allowThumbnail = (mMode == MODE_GRID)
-                || MimeTypes.mimeMatches(MimeTypes.VISUAL_MIMES, mimeType);
-        final boolean showThumbnail = supportsThumbnail && allowThumbnail && mThumbnailsEnabled;
-        if (showThumbnail) {
+        if (shouldShowThumbnail(mimeType, docFlags)) {
             loadedThumbnail =
                 loadThumbnail(uri, docAuthority, docLastModified, iconThumb, iconMime);
         }
@@ -186,39 +185,77 @@ public class IconHelper {
         }
     }
 
+    private boolean shouldShowThumbnail(String mimeType, int docFlags) {
+        final boolean supportsThumbnail = (docFlags & Document.FLAG_SUPPORTS_THUMBNAIL) != 0;
+        final boolean allowThumbnail = (mMode == MODE_GRID)
+                || MimeTypes.mimeMatches(MimeTypes.VISUAL_MIMES, mimeType);
+        return supportsThumbnail && allowThumbnail && mThumbnailsEnabled;
+    }
+
+    /**
+     * Starts loading the thumbnail of a document that is about to be shown in to the caches,
+     * unless it is cached already.
+     *
+     * @return the task loading the thumbnail, or null if there is nothing to load.
+     */
+    public @Nullable ThumbnailPrefetchTask prefetch(
+            Uri uri, String mimeType, int docFlags, long docLastModified) {
+        if (!shouldShowThumbnail(mimeType, docFlags)) {
+            return null;
+        }
+
+        final Result result = mThumbnailCache.getThumbnail(uri, mCurrentSize);
+        if (result.isExactHit() && docLastModified <= result.getLastModified()) {
+            return null;
+        }
+
+        final ThumbnailPrefetchTask task =
+                new ThumbnailPrefetchTask(mContext, uri, mCurrentSize, docLastModified);
+        ProviderExecutor.forAuthority(uri.getAuthority())
+                .execute(ProviderExecutor.PRIORITY_PREFETCH, task);
+        return task;
+    }
+
+    /**
+     * @return a copy of the statistics of the thumbnails bound so far.
+     */
+    public Stats getStats() {
+        return new Stats(mThumbnailBindCount, mThumbnailCacheHitCount);
+    }
+
     private boolean loadThumbnail(Uri uri, String docAuthority, long docLastModified,
             ImageView iconThumb, ImageView iconMime) {
         final Result result = mThumbnailCache.getThumbnail(uri, mCurrentSize);
 
-        try {
-            final Bitmap cachedThumbnail = result.getThumbnail();
-            iconThumb.setImageBitmap(cachedThumbnail);
-
-            boolean stale = (docLastModified > result.getLastModified());
-            if (VERBOSE) Log.v(TAG,
-                    String.format("Load thumbnail for %s, got result %d and stale %b.",
-                            uri.toString(), result.getStatus(), stale));
-            if (!result.isExactHit() || stale) {
-                final BiConsumer<View, View> animator =
-                        (cachedThumbnail == null ? ThumbnailLoader.ANIM_FADE_IN :
-                                ThumbnailLoader.ANIM_NO_OP);
-
-                final ThumbnailLoader task = new ThumbnailLoader(uri, iconThumb,
-                        mCurrentSize, docLastModified,
-                        bitmap -> {
-                            if (bitmap != null) {
-                                iconThumb.setImageBitmap(bitmap);
-                                animator.accept(iconMime, iconThumb);
-                            }
-                        }, true /* addToCache */);
-
-                ProviderExecutor.forAuthority(docAuthority).execute(task);
-            }
-
-            return result.isHit();
-        } finally {
-            result.recycle();
+        final Bitmap cachedThumbnail = result.getThumbnail();
+        iconThumb.setImageBitmap(cachedThumbnail);
+
+        boolean stale = (docLastModified > result.getLastModified());
+        mThumbnailBindCount++;
+        if (result.isExactHit() && !stale) {
+            mThumbnailCacheHitCount++;
+        }
+        if (VERBOSE) Log.v(TAG,
+                String.format("Load thumbnail for %s, got result %d and stale %b.",
+                        uri.toString(), result.getStatus(), stale));
+        if (!result.isExactHit() || stale) {
+            final BiConsumer<View, View> animator =
+                    (cachedThumbnail == null ? ThumbnailLoader.ANIM_FADE_IN :
+                            ThumbnailLoader.ANIM_NO_OP);
+
+            final ThumbnailLoader task = new ThumbnailLoader(uri, iconThumb,
+                    mCurrentSize, docLastModified,
+                    bitmap -> {
+                        if (bitmap != null) {
+                            iconThumb.setImageBitmap(bitmap);
+                            animator.accept(iconMime, iconThumb);
+                        }
+                    }, true /* addToCache */);
+
+            ProviderExecutor.forAuthority(docAuthority).execute(task);
         }
+
+        return result.isHit();
     }
 
     private void setMimeIcon(ImageView view, Drawable icon) {
@@ -247,4 +284,32 @@ public class IconHelper {
         return getDocumentIcon(
                 context, doc.authority, doc.documentId, doc.mimeType, doc.icon);
     }
+
+    /**
+     * How many thumbnails were bound, and how many of those the memory cache served.
+     */
+    public static final class Stats {
+        private final int mBindCount;
+        private final int mCacheHitCount;
+
+        private Stats(int bindCount, int cacheHitCount) {
+            mBindCount = bindCount;
+            mCacheHitCount = cacheHitCount;
+        }
+
+        /** Number of thumbnails bound. */
+        public int getBindCount() {
+            return mBindCount;
+        }
+
+        /** Number of thumbnails bound that were in the cache, up to date and in the right size. */
+        public int getCacheHitCount() {
+            return mCacheHitCount;
+        }
+
+        @Override
+        public String toString() {
+            return "binds=" + mBindCount + ", cacheHits=" + mCacheHitCount;
+        }
+    }
 }
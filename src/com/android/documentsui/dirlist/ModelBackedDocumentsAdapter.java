@@ -35,8 +35,10 @@ import com.android.documentsui.base.EventListener;
 import com.android.documentsui.base.Lookup;
 import com.android.documentsui.base.Shared;
 import com.android.documentsui.base.State;
+import com.android.documentsui.base.StringIntIndex;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -56,7 +58,9 @@ final class ModelBackedDocumentsAdapter extends DocumentsAdapter {
      * An ordered list of model IDs. This is the data structure that determines what shows up in
      * the UI, and where.
      */
-    private List<String> mModelIds = new ArrayList<>();
+    private List<String> mModelIds = Collections.emptyList();
+    /** Maps model IDs to their positions in {@link #mModelIds}. */
+    private StringIntIndex mModelIdPositions = StringIntIndex.EMPTY;
     private EventListener<Model.Update> mModelUpdateListener;
 
     public ModelBackedDocumentsAdapter(
@@ -115,7 +119,8 @@ final class ModelBackedDocumentsAdapter extends DocumentsAdapter {
 
     @Override
     public void onBindViewHolder(DocumentHolder holder, int position, List<Object> payload) {
-        if (payload.contains(SelectionTracker.SELECTION_CHANGED_MARKER)) {
+        if (payload.contains(SelectionTracker.SELECTION_CHANGED_MARKER)
+                && !payload.contains(Update.CONTENT_CHANGED_MARKER)) {
             final boolean selected = mEnv.isSelected(mModelIds.get(position));
             holder.setSelected(selected, true);
         } else {
@@ -153,16 +158,16 @@ final class ModelBackedDocumentsAdapter extends DocumentsAdapter {
     }
 
     private void onModelUpdate(Model model) {
-        String[] modelIds = model.getModelIds();
-        mModelIds = new ArrayList<>(modelIds.length);
-        for (String id : modelIds) {
-            mModelIds.add(id);
-        }
+        // The model replaces its IDs and index on every update, so they can be shared without
+        // copying, as long as the list can't write through to the model's array.
+        mModelIds = Collections.unmodifiableList(Arrays.asList(model.getModelIds()));
+        mModelIdPositions = model.getModelIdIndex();
     }
 
     private void onModelUpdateFailed(Exception e) {
         Log.w(TAG, "Model update failed.", e);
-        mModelIds.clear();
+        mModelIds = Collections.emptyList();
+        mModelIdPositions = StringIntIndex.EMPTY;
     }
 
     @Override
@@ -172,7 +177,7 @@ final class ModelBackedDocumentsAdapter extends DocumentsAdapter {
 
     @Override
     public int getAdapterPosition(String modelId) {
-        return mModelIds.indexOf(modelId);
+        return mModelIdPositions.get(modelId);
     }
 
     @Override
@@ -182,7 +187,7 @@ final class ModelBackedDocumentsAdapter extends DocumentsAdapter {
 
     @Override
     public int getPosition(String id) {
-        int position = mModelIds.indexOf(id);
+        int position = mModelIdPositions.get(id);
         return position >= 0 ? position : RecyclerView.NO_POSITION;
     }
 
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.documentsui.dirlist;
+
+import static com.android.documentsui.base.DocumentInfo.getCursorInt;
+import static com.android.documentsui.base.DocumentInfo.getCursorLong;
+import static com.android.documentsui.base.DocumentInfo.getCursorString;
+import static com.android.documentsui.base.SharedMinimal.DEBUG;
+
+import android.database.Cursor;
+import android.os.AsyncTask;
+import android.provider.DocumentsContract.Document;
+import android.util.Log;
+import android.view.View;
+
+import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.android.documentsui.Model;
+import com.android.documentsui.ThumbnailPrefetchTask;
+import com.android.documentsui.base.DocumentInfo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads thumbnails of the documents just past the edge the list is scrolled towards, so that
+ * they are usually cached by the time they are bound. The faster the list is scrolled, the
+ * further ahead it looks.
+ */
+final class ThumbnailPrefetcher extends RecyclerView.OnScrollListener {
+
+    private static final String TAG = "ThumbnailPrefetcher";
+
+    // Rows of documents prefetched ahead of the visible ones.
+    private static final int MIN_ROWS_AHEAD = 2;
+    private static final int MAX_ROWS_AHEAD = 8;
+    // Frames of scrolling at the current speed that prefetching should stay ahead of.
+    private static final int FRAMES_AHEAD = 30;
+    // Prefetches still hold up the threads of a provider, so only queue a few at a time.
+    private static final int MAX_PENDING = 16;
+
+    private final Model mModel;
+    private final DocumentsAdapter mAdapter;
+    private final GridLayoutManager mLayout;
+    private final IconHelper mIconHelper;
+
+    // Prefetches that are queued or running, by Model ID.
+    private final Map<String, ThumbnailPrefetchTask> mPending = new HashMap<>();
+
+    ThumbnailPrefetcher(
+            Model model, DocumentsAdapter adapter, GridLayoutManager layout, IconHelper iconHelper) {
+        mModel = model;
+        mAdapter = adapter;
+        mLayout = layout;
+        mIconHelper = iconHelper;
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        if (dy == 0) {
+            return;
+        }
+
+        final int first = mLayout.findFirstVisibleItemPosition();
+        final int last = mLayout.findLastVisibleItemPosition();
+        final View child = recyclerView.getChildAt(0);
+        if (first == RecyclerView.NO_POSITION || child == null || child.getHeight() == 0) {
+            return;
+        }
+
+        final int rowsAhead = Math.max(MIN_ROWS_AHEAD,
+                Math.min(MAX_ROWS_AHEAD, Math.abs(dy) * FRAMES_AHEAD / child.getHeight()));
+        final int itemsAhead = rowsAhead * mLayout.getSpanCount();
+
+        // Closest documents first, since they will be bound first.
+        final List<String> ids = new ArrayList<>(itemsAhead);
+        if (dy > 0) {
+            final int end = Math.min(mAdapter.getItemCount() - 1, last + itemsAhead);
+            for (int position = last + 1; position <= end; position++) {
+                addId(ids, position);
+            }
+        } else {
+            final int end = Math.max(0, first - itemsAhead);
+            for (int position = first - 1; position >= end; position--) {
+                addId(ids, position);
+            }
+        }
+
+        // Cancel prefetches of documents the list scrolled away from.
+        final Set<String> inRange = new HashSet<>(ids);
+        final Iterator<Map.Entry<String, ThumbnailPrefetchTask>> it =
+                mPending.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<String, ThumbnailPrefetchTask> entry = it.next();
+            if (entry.getValue().getStatus() == AsyncTask.Status.FINISHED) {
+                it.remove();
+            } else if (!inRange.contains(entry.getKey())) {
+                entry.getValue().preempt();
+                it.remove();
+            }
+        }
+
+        for (String id : ids) {
+            if (mPending.size() >= MAX_PENDING) {
+                break;
+            }
+            if (mPending.containsKey(id)) {
+                continue;
+            }
+            final Cursor cursor = mModel.getItem(id);
+            if (cursor == null) {
+                continue;
+            }
+            final ThumbnailPrefetchTask task = mIconHelper.prefetch(
+                    DocumentInfo.getUri(cursor),
+                    getCursorString(cursor, Document.COLUMN_MIME_TYPE),
+                    getCursorInt(cursor, Document.COLUMN_FLAGS),
+                    getCursorLong(cursor, Document.COLUMN_LAST_MODIFIED));
+            if (task != null) {
+                mPending.put(id, task);
+            }
+        }
+    }
+
+    private void addId(List<String> ids, int position) {
+        // Null for section breaks and messages.
+        final String id = mAdapter.getStableId(position);
+        if (id != null) {
+            ids.add(id);
+        }
+    }
+
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+        if (DEBUG && newState == RecyclerView.SCROLL_STATE_IDLE) {
+            Log.d(TAG, "Thumbnails: " + mIconHelper.getStats());
+        }
+    }
+
+    /**
+     * Cancels all prefetches, like when the documents they are for are gone.
+     */
+    void cancel() {
+        for (ThumbnailPrefetchTask task : mPending.values()) {
+            task.preempt();
+        }
+        mPending.clear();
+    }
+}
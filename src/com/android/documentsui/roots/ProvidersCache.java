@@ -27,6 +27,7 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.content.pm.ResolveInfo;
@@ -45,17 +46,19 @@ import android.util.Log;
 import com.android.documentsui.DocumentsApplication;
 import com.android.documentsui.R;
 import com.android.documentsui.archives.ArchivesProvider;
+import com.android.documentsui.base.Features;
 import com.android.documentsui.base.Providers;
 import com.android.documentsui.base.RootInfo;
 import com.android.documentsui.base.State;
 import androidx.annotation.GuardedBy;
-
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.Multimap;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import android.os.FileUtils;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -63,7 +66,11 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -82,6 +89,28 @@ public class ProvidersCache implements ProvidersAccess {
         add(ArchivesProvider.AUTHORITY);
     }};
 
+    // Authorities of the roots shown first, like the default root and local storage. The first
+    // load is done as soon as these answered, without waiting for other providers.
+    private static final List<String> FIRST_LOAD_AUTHORITIES = Arrays.asList(
+            Providers.AUTHORITY_DOWNLOADS,
+            Providers.AUTHORITY_STORAGE,
+            Providers.AUTHORITY_MEDIA,
+            Providers.AUTHORITY_FAV);
+
+    // Time an update waits for each provider to answer, counted from when its query starts.
+    // Roots of providers answering later are published when they do.
+    private static final long PROVIDER_TIMEOUT_MILLIS = 5000;
+
+    // Providers whose roots are queried at the same time. A hung provider holds its thread
+    // until it answers, so this leaves room for several before others have to queue.
+    private static final int ROOTS_LOADER_THREADS = 8;
+
+    // Time changes notified by providers are collected for before their roots are reloaded.
+    private static final long ROOTS_CHANGE_DELAY_MILLIS = 500;
+
+    // File in the cache dir that roots are kept in between processes.
+    private static final String ROOTS_FILE = "roots";
+
     private final Context mContext;
     private final ContentObserver mObserver;
 
@@ -89,6 +118,9 @@ public class ProvidersCache implements ProvidersAccess {
 
     private RootInfo mTestRoot;//add by hjy
 
+    // Null if roots aren't kept on disk.
+    private final @Nullable RootsDiskCache mDiskCache;
+
     private final Object mLock = new Object();
     private final CountDownLatch mFirstLoad = new CountDownLatch(1);
 
@@ -97,17 +129,36 @@ public class ProvidersCache implements ProvidersAccess {
     @GuardedBy("mLock")
     private PendingResult mBootCompletedResult;
 
+    // Both are replaced rather than changed, under mLock, so that they can be read without it.
+    private volatile RootsSnapshot mRoots = RootsSnapshot.EMPTY;
+    private volatile Set<String> mStoppedAuthorities = Collections.emptySet();
+    // Incremented by every update, so that only the latest one writes roots to disk when done.
+    @GuardedBy("mLock")
+    private int mUpdateGeneration;
     @GuardedBy("mLock")
-    private Multimap<String, RootInfo> mRoots = ArrayListMultimap.create();
+    private boolean mWarmStartServed;
+    // Incremented by every load of the roots of an authority, by updates and reloads alike, so
+    // that roots loaded earlier never replace the roots of a load started later.
     @GuardedBy("mLock")
-    private HashSet<String> mStoppedAuthorities = new HashSet<>();
+    private final Map<String, Integer> mRootVersions = new HashMap<>();
+
+    // Read by callers on any thread, and added to by the threads loading roots.
+    private final Map<String, PackageDetails> mObservedAuthoritiesDetails =
+            new ConcurrentHashMap<>();
 
-    @GuardedBy("mObservedAuthoritiesDetails")
-    private final Map<String, PackageDetails> mObservedAuthoritiesDetails = new HashMap<>();
+    // Queries providers for their roots. Kept apart from the ProviderExecutor pool, so that
+    // loading roots isn't held up by document queries, nor the other way around.
+    private final ThreadPoolExecutor mRootsExecutor;
 
     public ProvidersCache(Context context) {
         mContext = context;
         mObserver = new RootsChangedObserver();
+        mDiskCache = Features.create(context).isWarmStartRootsEnabled()
+                ? new RootsDiskCache(new File(context.getCacheDir(), ROOTS_FILE))
+                : null;
+        mRootsExecutor = new ThreadPoolExecutor(ROOTS_LOADER_THREADS, ROOTS_LOADER_THREADS,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        mRootsExecutor.allowCoreThreadTimeOut(true);
 
         // Create a new anonymous "Recents" RootInfo. It's a faker.
         mRecentsRoot = new RootInfo() {{
@@ -121,9 +172,24 @@ public class ProvidersCache implements ProvidersAccess {
         }};
     }
 
+    /**
+     * Reloads the roots of authorities that notified a change. Providers often notify several
+     * changes in a row, like when a device is attached or favorites are edited, so changes are
+     * collected for a while and each authority is reloaded once for all of them.
+     */
     private class RootsChangedObserver extends ContentObserver {
+        private final Handler mHandler;
+        // Authorities that changed since the last reload. Only used on the handler thread.
+        private final Set<String> mChangedAuthorities = new HashSet<>();
+        private final Runnable mReloadChanged = this::reloadChanged;
+
         public RootsChangedObserver() {
-            super(new Handler());
+            this(new Handler());
+        }
+
+        private RootsChangedObserver(Handler handler) {
+            super(handler);
+            mHandler = handler;
         }
 
         @Override
@@ -135,7 +201,16 @@ public class ProvidersCache implements ProvidersAccess {
             if (DEBUG) {
                 Log.i(TAG, "Updating roots due to change at " + uri);
             }
-            updateAuthorityAsync(uri.getAuthority());
+            if (mChangedAuthorities.isEmpty()) {
+                mHandler.postDelayed(mReloadChanged, ROOTS_CHANGE_DELAY_MILLIS);
+            }
+            mChangedAuthorities.add(uri.getAuthority());
+        }
+
+        private void reloadChanged() {
+            final Set<String> authorities = new HashSet<>(mChangedAuthorities);
+            mChangedAuthorities.clear();
+            new ReloadTask(authorities).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
         }
     }
 
@@ -172,10 +247,8 @@ public class ProvidersCache implements ProvidersAccess {
     }
 
     public void updateAuthorityAsync(String authority) {
-        final ProviderInfo info = mContext.getPackageManager().resolveContentProvider(authority, 0);
-        if (info != null) {
-            updatePackageAsync(info.packageName);
-        }
+        new ReloadTask(Collections.singleton(authority))
+                .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
     }
 
     void setBootCompletedResult(PendingResult result) {
@@ -213,12 +286,16 @@ public class ProvidersCache implements ProvidersAccess {
      * {@link UpdateTask} passes ignore stopped applications.
      */
     private void loadStoppedAuthorities() {
+        if (mStoppedAuthorities.isEmpty()) {
+            return;
+        }
         final ContentResolver resolver = mContext.getContentResolver();
         synchronized (mLock) {
             for (String authority : mStoppedAuthorities) {
-                mRoots.replaceValues(authority, loadRootsForAuthority(resolver, authority, true));
+                publishIfCurrentLocked(authority, startLoadLocked(authority),
+                        loadRootsForAuthority(resolver, authority, true));
             }
-            mStoppedAuthorities.clear();
+            mStoppedAuthorities = Collections.emptySet();
         }
     }
 
@@ -227,6 +304,9 @@ public class ProvidersCache implements ProvidersAccess {
      * ignore stopped applications.
      */
     private void loadStoppedAuthority(String authority) {
+        if (!mStoppedAuthorities.contains(authority)) {
+            return;
+        }
         final ContentResolver resolver = mContext.getContentResolver();
         synchronized (mLock) {
             if (!mStoppedAuthorities.contains(authority)) {
@@ -235,8 +315,68 @@ public class ProvidersCache implements ProvidersAccess {
             if (DEBUG) {
                 Log.d(TAG, "Loading stopped authority " + authority);
             }
-            mRoots.replaceValues(authority, loadRootsForAuthority(resolver, authority, true));
-            mStoppedAuthorities.remove(authority);
+            publishIfCurrentLocked(authority, startLoadLocked(authority),
+                    loadRootsForAuthority(resolver, authority, true));
+            final Set<String> stopped = new HashSet<>(mStoppedAuthorities);
+            stopped.remove(authority);
+            mStoppedAuthorities = stopped;
+        }
+    }
+
+    /**
+     * Writes the current roots to disk, for the next process to start with. Roots of
+     * removable devices and archives come and go, so they are left out.
+     */
+    private void persistRoots() {
+        // Updates and reloads may finish at the same time. The snapshot is taken under the
+        // lock, so that an older snapshot is never written after a newer one.
+        synchronized (mDiskCache) {
+            mDiskCache.write(getEntries(mRoots));
+        }
+    }
+
+    private Map<String, RootsDiskCache.Entry> getEntries(RootsSnapshot roots) {
+        final Map<String, RootsDiskCache.Entry> entries = new HashMap<>();
+        for (String authority : roots.getAuthorities()) {
+            if (authority == null || PERMIT_EMPTY_CACHE.contains(authority)) {
+                continue;
+            }
+            final PackageDetails details = mObservedAuthoritiesDetails.get(authority);
+            final RootsDiskCache.PackageVersion version =
+                    details != null ? getPackageVersion(details.packageName) : null;
+            if (version != null) {
+                entries.put(authority, new RootsDiskCache.Entry(
+                        version, new ArrayList<>(roots.getRoots(authority))));
+            }
+        }
+        return entries;
+    }
+
+    private @Nullable RootsDiskCache.PackageVersion getPackageVersion(String packageName) {
+        try {
+            final PackageInfo info = mContext.getPackageManager().getPackageInfo(packageName, 0);
+            return new RootsDiskCache.PackageVersion(
+                    info.getLongVersionCode(), info.lastUpdateTime);
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+
+    private void observeAuthority(ProviderInfo provider) {
+        final String authority = provider.authority;
+        if (mObservedAuthoritiesDetails.containsKey(authority)) {
+            return;
+        }
+        final PackageManager pm = mContext.getPackageManager();
+        CharSequence appName = pm.getApplicationLabel(provider.applicationInfo);
+        String packageName = provider.applicationInfo.packageName;
+
+        // Providers may be loaded on several threads at once; only the first one observes.
+        if (mObservedAuthoritiesDetails.putIfAbsent(
+                authority, new PackageDetails(appName.toString(), packageName)) == null) {
+            // Watch for any future updates
+            final Uri rootsUri = DocumentsContract.buildRootsUri(authority);
+            mContext.getContentResolver().registerContentObserver(rootsUri, true, mObserver);
         }
     }
 
@@ -272,19 +412,7 @@ public class ProvidersCache implements ProvidersAccess {
             return roots;
         }
 
-        synchronized (mObservedAuthoritiesDetails) {
-            if (!mObservedAuthoritiesDetails.containsKey(authority)) {
-                CharSequence appName = pm.getApplicationLabel(provider.applicationInfo);
-                String packageName = provider.applicationInfo.packageName;
-
-                mObservedAuthoritiesDetails.put(
-                        authority, new PackageDetails(appName.toString(), packageName));
-
-                // Watch for any future updates
-                final Uri rootsUri = DocumentsContract.buildRootsUri(authority);
-                mContext.getContentResolver().registerContentObserver(rootsUri, true, mObserver);
-            }
-        }
+        observeAuthority(provider);
 
         final Uri rootsUri = DocumentsContract.buildRootsUri(authority);
         if (!forceRefresh) {
@@ -337,18 +465,73 @@ public class ProvidersCache implements ProvidersAccess {
         return roots;
     }
 
+    /**
+     * Replaces the roots of an authority with a new snapshot. Readers keep the snapshot they
+     * got, so they never see roots change under them.
+     */
+    @GuardedBy("mLock")
+    private void publishLocked(String authority, Collection<RootInfo> roots) {
+        mRoots = mRoots.replace(authority, roots);
+    }
+
+    /**
+     * Starts a load of the roots of an authority.
+     *
+     * @return the version to publish the loaded roots with.
+     */
+    @VisibleForTesting
+    int startLoad(String authority) {
+        synchronized (mLock) {
+            return startLoadLocked(authority);
+        }
+    }
+
+    @GuardedBy("mLock")
+    private int startLoadLocked(String authority) {
+        final int version = mRootVersions.getOrDefault(authority, 0) + 1;
+        mRootVersions.put(authority, version);
+        return version;
+    }
+
+    /**
+     * Publishes the roots of a load, unless a load of the same authority started after it.
+     * Loads may finish in any order, so this keeps the roots of the latest one.
+     *
+     * @return whether the roots were published.
+     */
+    @VisibleForTesting
+    boolean publishIfCurrent(String authority, int version, Collection<RootInfo> roots) {
+        synchronized (mLock) {
+            return publishIfCurrentLocked(authority, version, roots);
+        }
+    }
+
+    @GuardedBy("mLock")
+    private boolean publishIfCurrentLocked(
+            String authority, int version, Collection<RootInfo> roots) {
+        if (mRootVersions.getOrDefault(authority, 0) != version) {
+            return false;
+        }
+        publishLocked(authority, roots);
+        return true;
+    }
+
     @Override
     public RootInfo getRootOneshot(String authority, String rootId) {
         return getRootOneshot(authority, rootId, false);
     }
 
     public RootInfo getRootOneshot(String authority, String rootId, boolean forceRefresh) {
+        RootInfo root = forceRefresh ? null : mRoots.getRoot(authority, rootId);
+        if (root != null) {
+            return root;
+        }
         synchronized (mLock) {
-            RootInfo root = forceRefresh ? null : getRootLocked(authority, rootId);
+            root = forceRefresh ? null : mRoots.getRoot(authority, rootId);
             if (root == null) {
-                mRoots.replaceValues(authority, loadRootsForAuthority(
-                                mContext.getContentResolver(), authority, forceRefresh));
-                root = getRootLocked(authority, rootId);
+                publishIfCurrentLocked(authority, startLoadLocked(authority), loadRootsForAuthority(
+                        mContext.getContentResolver(), authority, forceRefresh));
+                root = mRoots.getRoot(authority, rootId);
             }
             return root;
         }
@@ -357,18 +540,7 @@ public class ProvidersCache implements ProvidersAccess {
     public RootInfo getRootBlocking(String authority, String rootId) {
         waitForFirstLoad();
         loadStoppedAuthorities();
-        synchronized (mLock) {
-            return getRootLocked(authority, rootId);
-        }
-    }
-
-    private RootInfo getRootLocked(String authority, String rootId) {
-        for (RootInfo root : mRoots.get(authority)) {
-            if (Objects.equals(root.rootId, rootId)) {
-                return root;
-            }
-        }
-        return null;
+        return mRoots.getRoot(authority, rootId);
     }
 
     @Override
@@ -392,33 +564,28 @@ public class ProvidersCache implements ProvidersAccess {
     public Collection<RootInfo> getRootsBlocking() {
         waitForFirstLoad();
         loadStoppedAuthorities();
-        synchronized (mLock) {
-            return mRoots.values();
-        }
+        return mRoots.getRoots();
     }
 
     @Override
     public Collection<RootInfo> getMatchingRootsBlocking(State state) {
         waitForFirstLoad();
         loadStoppedAuthorities();
-        synchronized (mLock) {
-            return ProvidersAccess.getMatchingRoots(mRoots.values(), state);
-        }
+        return mRoots.getMatchingRoots(state);
     }
 
     @Override
     public Collection<RootInfo> getRootsForAuthorityBlocking(String authority) {
         waitForFirstLoad();
         loadStoppedAuthority(authority);
-        synchronized (mLock) {
-            final Collection<RootInfo> roots = mRoots.get(authority);
-            return roots != null ? roots : Collections.<RootInfo>emptyList();
-        }
+        return mRoots.getRoots(authority);
     }
 
     @Override
     public RootInfo getDefaultRootBlocking(State state) {
-        for (RootInfo root : ProvidersAccess.getMatchingRoots(getRootsBlocking(), state)) {
+        waitForFirstLoad();
+        loadStoppedAuthorities();
+        for (RootInfo root : mRoots.getMatchingRoots(state)) {
             if (root.isDownloads()) {
                 return root;
             }
@@ -452,9 +619,17 @@ public class ProvidersCache implements ProvidersAccess {
         private final boolean mForceRefreshAll;
         private final String mForceRefreshPackage;
 
-        private final Multimap<String, RootInfo> mTaskRoots = ArrayListMultimap.create();
+        private final List<ProviderInfo> mTaskProviders = new ArrayList<>();
+        private final HashSet<String> mTaskAuthorities = new HashSet<>();
         private final HashSet<String> mTaskStoppedAuthorities = new HashSet<>();
 
+        @GuardedBy("mLock")
+        private int mGeneration;
+        @GuardedBy("mLock")
+        private final HashSet<String> mPendingFirstLoadAuthorities = new HashSet<>();
+        @GuardedBy("mLock")
+        private boolean mPassDone;
+
         /**
          * Create task to update roots cache.
          *
@@ -472,8 +647,6 @@ public class ProvidersCache implements ProvidersAccess {
         protected Void doInBackground(Void... params) {
             final long start = SystemClock.elapsedRealtime();
 
-            mTaskRoots.put(mRecentsRoot.authority, mRecentsRoot);
-
             final PackageManager pm = mContext.getPackageManager();
 
             // Pick up provider with action string
@@ -481,43 +654,310 @@ public class ProvidersCache implements ProvidersAccess {
             final List<ResolveInfo> providers = pm.queryIntentContentProviders(intent, 0);
             for (ResolveInfo info : providers) {
                 ProviderInfo providerInfo = info.providerInfo;
-                if (providerInfo.authority != null) {
-                    handleDocumentsProvider(providerInfo);
+                if (providerInfo.authority == null) {
+                    continue;
+                }
+                // Ignore stopped packages for now; we might query them
+                // later during UI interaction.
+                if ((providerInfo.applicationInfo.flags & ApplicationInfo.FLAG_STOPPED) != 0) {
+                    if (VERBOSE) Log.v(TAG, "Ignoring stopped authority " + providerInfo.authority);
+                    mTaskStoppedAuthorities.add(providerInfo.authority);
+                    continue;
+                }
+                mTaskProviders.add(providerInfo);
+                mTaskAuthorities.add(providerInfo.authority);
+            }
+
+            if (mDiskCache != null) {
+                serveWarmStartRoots(mTaskProviders);
+            }
+
+            final Map<String, Integer> versions = new HashMap<>();
+            synchronized (mLock) {
+                mGeneration = ++mUpdateGeneration;
+                for (ProviderInfo info : mTaskProviders) {
+                    versions.put(info.authority, startLoadLocked(info.authority));
+                    if (FIRST_LOAD_AUTHORITIES.contains(info.authority)) {
+                        mPendingFirstLoadAuthorities.add(info.authority);
+                    }
+                }
+                publishLocked(mRecentsRoot.authority, Collections.singletonList(mRecentsRoot));
+            }
+
+            // Query providers in parallel, so that a slow provider only delays its own roots.
+            // The roots shown first are queried first, so they never queue behind others.
+            final List<ProviderInfo> ordered = new ArrayList<>(mTaskProviders);
+            ordered.sort((a, b) -> Boolean.compare(
+                    !FIRST_LOAD_AUTHORITIES.contains(a.authority),
+                    !FIRST_LOAD_AUTHORITIES.contains(b.authority)));
+            final ProviderLoads loads = new ProviderLoads(ordered.size());
+            for (ProviderInfo info : ordered) {
+                final boolean forceRefresh = mForceRefreshAll
+                        || Objects.equals(info.packageName, mForceRefreshPackage);
+                final int version = versions.get(info.authority);
+                loads.execute(() -> {
+                    final long queried = SystemClock.elapsedRealtime();
+                    onAuthorityLoaded(info.authority, version, loadRootsForAuthority(
+                            mContext.getContentResolver(), info.authority, forceRefresh));
+                    if (VERBOSE) Log.v(TAG, "Loaded roots of " + info.authority + " in "
+                            + (SystemClock.elapsedRealtime() - queried) + "ms");
+                });
+            }
+
+            try {
+                final int late = loads.await();
+                if (late > 0) {
+                    Log.w(TAG, late + " providers didn't answer within "
+                            + PROVIDER_TIMEOUT_MILLIS + "ms. Publishing their roots later.");
                 }
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Interrupted while waiting for providers", e);
             }
 
             final long delta = SystemClock.elapsedRealtime() - start;
-            if (VERBOSE) Log.v(TAG,
-                    "Update found " + mTaskRoots.size() + " roots in " + delta + "ms");
             synchronized (mLock) {
+                mPassDone = true;
+                if (VERBOSE) Log.v(TAG,
+                        "Update found " + mRoots.size() + " roots in " + delta + "ms");
+
+                // Drop the roots of providers that are gone. Providers that didn't answer yet
+                // keep their roots until they do.
+                mRoots = mRoots.retainAuthorities(mTaskAuthorities);
+                mStoppedAuthorities = mTaskStoppedAuthorities;
+
                 mFirstLoadDone = true;
                 if (mBootCompletedResult != null) {
                     mBootCompletedResult.finish();
                     mBootCompletedResult = null;
                 }
-                mRoots = mTaskRoots;
-                mStoppedAuthorities = mTaskStoppedAuthorities;
             }
             mFirstLoad.countDown();
             LocalBroadcastManager.getInstance(mContext).sendBroadcast(new Intent(BROADCAST_ACTION));
+
+            if (mDiskCache != null) {
+                persistRootsIfCurrent();
+            }
             return null;
         }
 
-        private void handleDocumentsProvider(ProviderInfo info) {
-            // Ignore stopped packages for now; we might query them
-            // later during UI interaction.
-            if ((info.applicationInfo.flags & ApplicationInfo.FLAG_STOPPED) != 0) {
-                if (VERBOSE) Log.v(TAG, "Ignoring stopped authority " + info.authority);
-                mTaskStoppedAuthorities.add(info.authority);
+        /**
+         * Publishes the roots kept on disk by the last process, for providers that weren't
+         * updated since. Done once, before the first update queries providers; the roots are
+         * replaced as providers answer, and dropped if their provider is gone.
+         */
+        private void serveWarmStartRoots(List<ProviderInfo> providers) {
+            synchronized (mLock) {
+                if (mWarmStartServed || mFirstLoadDone) {
+                    return;
+                }
+                mWarmStartServed = true;
+            }
+
+            final long start = SystemClock.elapsedRealtime();
+            final Map<String, RootsDiskCache.Entry> entries = mDiskCache.read();
+            if (entries.isEmpty()) {
+                return;
+            }
+
+            final Map<ProviderInfo, List<RootInfo>> warmRoots = new HashMap<>();
+            for (ProviderInfo info : providers) {
+                final RootsDiskCache.Entry entry = entries.get(info.authority);
+                if (entry != null
+                        && entry.packageVersion.equals(getPackageVersion(info.packageName))) {
+                    warmRoots.put(info, entry.roots);
+                }
+            }
+            if (warmRoots.isEmpty()) {
                 return;
             }
 
-            final boolean forceRefresh = mForceRefreshAll
-                    || Objects.equals(info.packageName, mForceRefreshPackage);
-            mTaskRoots.putAll(info.authority, loadRootsForAuthority(mContext.getContentResolver(),
-                    info.authority, forceRefresh));
+            for (ProviderInfo info : warmRoots.keySet()) {
+                observeAuthority(info);
+            }
+            synchronized (mLock) {
+                if (mFirstLoadDone) {
+                    return;
+                }
+                publishLocked(mRecentsRoot.authority, Collections.singletonList(mRecentsRoot));
+                for (Map.Entry<ProviderInfo, List<RootInfo>> entry : warmRoots.entrySet()) {
+                    // Authorities that were reloaded already have newer roots.
+                    if (!mRootVersions.containsKey(entry.getKey().authority)) {
+                        publishLocked(entry.getKey().authority, entry.getValue());
+                    }
+                }
+            }
+            if (DEBUG) {
+                Log.d(TAG, "Served roots of " + warmRoots.size() + " authorities from disk in "
+                        + (SystemClock.elapsedRealtime() - start) + "ms");
+            }
+            mFirstLoad.countDown();
+            LocalBroadcastManager.getInstance(mContext).sendBroadcast(new Intent(BROADCAST_ACTION));
+        }
+
+        private void persistRootsIfCurrent() {
+            synchronized (mLock) {
+                if (mGeneration != mUpdateGeneration) {
+                    // A newer update will write its own roots.
+                    return;
+                }
+            }
+            persistRoots();
         }
 
+        /**
+         * Publishes the roots of an authority as soon as it answered. Releases callers waiting
+         * for the first load once the roots shown first are known.
+         */
+        private void onAuthorityLoaded(
+                String authority, int version, Collection<RootInfo> roots) {
+            final boolean firstLoadReady;
+            final boolean late;
+            synchronized (mLock) {
+                if (!publishIfCurrentLocked(authority, version, roots)) {
+                    // A newer update or reload is loading its roots again.
+                    return;
+                }
+
+                firstLoadReady = mPendingFirstLoadAuthorities.remove(authority)
+                        && mPendingFirstLoadAuthorities.isEmpty();
+                late = mPassDone;
+            }
+
+            if (firstLoadReady) {
+                if (DEBUG) {
+                    Log.d(TAG, "Roots shown first are loaded, done with first load");
+                }
+                mFirstLoad.countDown();
+            }
+            if (firstLoadReady || late) {
+                LocalBroadcastManager.getInstance(mContext)
+                        .sendBroadcast(new Intent(BROADCAST_ACTION));
+            }
+            if (late && mDiskCache != null) {
+                persistRootsIfCurrent();
+            }
+        }
+    }
+
+    /**
+     * Reloads the roots of the given authorities in parallel, then broadcasts the change once.
+     * Unlike {@link UpdateTask}, other providers aren't queried.
+     */
+    private class ReloadTask extends AsyncTask<Void, Void, Void> {
+        private final Set<String> mAuthorities;
+        private volatile boolean mDone;
+
+        ReloadTask(Set<String> authorities) {
+            mAuthorities = authorities;
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            final long start = SystemClock.elapsedRealtime();
+            final ProviderLoads loads = new ProviderLoads(mAuthorities.size());
+            for (String authority : mAuthorities) {
+                final int version = startLoad(authority);
+                loads.execute(() -> reload(authority, version));
+            }
+
+            try {
+                final int late = loads.await();
+                if (late > 0) {
+                    Log.w(TAG, late + " providers didn't answer within "
+                            + PROVIDER_TIMEOUT_MILLIS + "ms after they changed.");
+                }
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Interrupted while reloading roots", e);
+            }
+
+            if (VERBOSE) Log.v(TAG, "Reloaded roots of " + mAuthorities + " in "
+                    + (SystemClock.elapsedRealtime() - start) + "ms");
+            mDone = true;
+            LocalBroadcastManager.getInstance(mContext).sendBroadcast(new Intent(BROADCAST_ACTION));
+            if (mDiskCache != null) {
+                persistRoots();
+            }
+            return null;
+        }
+
+        private void reload(String authority, int version) {
+            if (mStoppedAuthorities.contains(authority)) {
+                // Loaded when it's first asked for.
+                return;
+            }
+            final Collection<RootInfo> roots =
+                    loadRootsForAuthority(mContext.getContentResolver(), authority, true);
+            if (!publishIfCurrent(authority, version, roots)) {
+                return;
+            }
+            if (mDone) {
+                // Answered after the others were broadcast.
+                LocalBroadcastManager.getInstance(mContext)
+                        .sendBroadcast(new Intent(BROADCAST_ACTION));
+            }
+        }
+    }
+
+    /**
+     * Queries of several providers on {@link #mRootsExecutor}. Each provider is waited for
+     * until it answered or has been queried for {@link #PROVIDER_TIMEOUT_MILLIS}, so providers
+     * queued behind slow ones aren't charged for their wait. Providers still queued that long
+     * are behind hung ones, and aren't waited for either.
+     */
+    private final class ProviderLoads {
+        // Per query: the time it was queued, then the time it started, then -1 once done.
+        @GuardedBy("this")
+        private final long[] mStartTimes;
+        private int mCount;
+
+        ProviderLoads(int count) {
+            mStartTimes = new long[count];
+        }
+
+        void execute(Runnable load) {
+            final int index = mCount++;
+            setStartTime(index, SystemClock.elapsedRealtime());
+            mRootsExecutor.execute(() -> {
+                setStartTime(index, SystemClock.elapsedRealtime());
+                try {
+                    load.run();
+                } finally {
+                    setStartTime(index, -1);
+                }
+            });
+        }
+
+        private synchronized void setStartTime(int index, long time) {
+            mStartTimes[index] = time;
+            notifyAll();
+        }
+
+        /**
+         * Waits until every query answered or timed out.
+         *
+         * @return the number of providers that didn't answer.
+         */
+        synchronized int await() throws InterruptedException {
+            while (true) {
+                final long now = SystemClock.elapsedRealtime();
+                long deadline = Long.MAX_VALUE;
+                int late = 0;
+                for (long start : mStartTimes) {
+                    if (start == -1) {
+                        continue;
+                    }
+                    if (now - start < PROVIDER_TIMEOUT_MILLIS) {
+                        deadline = Math.min(deadline, start + PROVIDER_TIMEOUT_MILLIS);
+                    } else {
+                        late++;
+                    }
+                }
+                if (deadline == Long.MAX_VALUE) {
+                    return late;
+                }
+                wait(deadline - now);
+            }
+        }
     }
 
     private static class PackageDetails {
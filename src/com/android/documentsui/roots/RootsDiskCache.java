@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.documentsui.roots;
+
+import static com.android.documentsui.base.SharedMinimal.DEBUG;
+
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.android.documentsui.base.RootInfo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ProtocolException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The roots of each authority as last loaded, kept in a file so that they can be shown right
+ * away when the process starts, before providers are queried again.
+ *
+ * <p>Roots are stored with the version of the package providing them, so that roots of a
+ * package that was updated since are not used. Reads and writes block.
+ */
+final class RootsDiskCache {
+
+    private static final String TAG = "RootsDiskCache";
+
+    private static final int VERSION_INIT = 1;
+
+    private final AtomicFile mFile;
+
+    RootsDiskCache(File file) {
+        mFile = new AtomicFile(file);
+    }
+
+    /**
+     * Roots of an authority and the version of the package they were loaded from.
+     */
+    static final class Entry {
+        final PackageVersion packageVersion;
+        final List<RootInfo> roots;
+
+        Entry(PackageVersion packageVersion, List<RootInfo> roots) {
+            this.packageVersion = packageVersion;
+            this.roots = roots;
+        }
+    }
+
+    /**
+     * Version of an installed package. A reinstall of the same version code is told apart by
+     * the time of the last update.
+     */
+    static final class PackageVersion {
+        final long versionCode;
+        final long lastUpdateTime;
+
+        PackageVersion(long versionCode, long lastUpdateTime) {
+            this.versionCode = versionCode;
+            this.lastUpdateTime = lastUpdateTime;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PackageVersion)) {
+                return false;
+            }
+            final PackageVersion other = (PackageVersion) o;
+            return versionCode == other.versionCode && lastUpdateTime == other.lastUpdateTime;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(versionCode) * 31 + Long.hashCode(lastUpdateTime);
+        }
+    }
+
+    /**
+     * @return the entries by authority, which are empty if there is no file or it can't be read.
+     */
+    Map<String, Entry> read() {
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(mFile.openRead()))) {
+            final int version = in.readInt();
+            if (version != VERSION_INIT) {
+                throw new ProtocolException("Unknown version " + version);
+            }
+
+            final int count = readCount(in);
+            final Map<String, Entry> entries = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                final String authority = in.readUTF();
+                final PackageVersion packageVersion =
+                        new PackageVersion(in.readLong(), in.readLong());
+                final int rootCount = readCount(in);
+                final List<RootInfo> roots = new ArrayList<>();
+                for (int j = 0; j < rootCount; j++) {
+                    final RootInfo root = new RootInfo();
+                    root.read(in);
+                    roots.add(root);
+                }
+                entries.put(authority, new Entry(packageVersion, roots));
+            }
+            if (DEBUG) {
+                Log.d(TAG, "Read roots of " + entries.size() + " authorities.");
+            }
+            return entries;
+        } catch (FileNotFoundException e) {
+            return Collections.emptyMap();
+        } catch (IOException | RuntimeException e) {
+            // Damaged files may hold anything, which RootInfo doesn't always check.
+            Log.w(TAG, "Failed to read roots. Deleting them.", e);
+            mFile.delete();
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Reads a count. Collections aren't sized by counts read, so that a damaged file can't make
+     * them allocate much.
+     */
+    private static int readCount(DataInputStream in) throws IOException {
+        final int count = in.readInt();
+        if (count < 0) {
+            throw new ProtocolException("Invalid count " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Replaces the file with the given entries by authority.
+     */
+    void write(Map<String, Entry> entries) {
+        FileOutputStream stream = null;
+        try {
+            stream = mFile.startWrite();
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(VERSION_INIT);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().packageVersion.versionCode);
+                out.writeLong(entry.getValue().packageVersion.lastUpdateTime);
+                out.writeInt(entry.getValue().roots.size());
+                for (RootInfo root : entry.getValue().roots) {
+                    root.write(out);
+                }
+            }
+            out.flush();
+            mFile.finishWrite(stream);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write roots.", e);
+            if (stream != null) {
+                mFile.failWrite(stream);
+            }
+        }
+    }
+}
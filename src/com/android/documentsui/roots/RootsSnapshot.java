@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.documentsui.roots;
+
+import androidx.annotation.Nullable;
+
+import com.android.documentsui.base.RootInfo;
+import com.android.documentsui.base.State;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable set of roots, indexed by authority and root ID. {@link ProvidersCache} replaces
+ * its snapshot whenever roots change, so that readers never wait for an update.
+ *
+ * <p>Roots matching a {@link State} are computed once per snapshot for each kind of request,
+ * since the same few states ask for them over and over.
+ */
+final class RootsSnapshot {
+
+    static final RootsSnapshot EMPTY = new RootsSnapshot(Collections.emptyMap());
+
+    // Kinds of requests whose matching roots are kept. There are only a few in practice.
+    private static final int MAX_MATCHES = 16;
+
+    // Roots by root ID by authority, in the order their provider returned them.
+    private final Map<String, Map<String, RootInfo>> mRoots;
+    private final List<RootInfo> mAll;
+    private final ConcurrentHashMap<MatchKey, List<RootInfo>> mMatches =
+            new ConcurrentHashMap<>();
+
+    private RootsSnapshot(Map<String, Map<String, RootInfo>> roots) {
+        mRoots = roots;
+        final List<RootInfo> all = new ArrayList<>();
+        for (Map<String, RootInfo> authorityRoots : roots.values()) {
+            all.addAll(authorityRoots.values());
+        }
+        mAll = Collections.unmodifiableList(all);
+    }
+
+    /**
+     * @return a snapshot with the roots of the given authority replaced.
+     */
+    RootsSnapshot replace(@Nullable String authority, Collection<RootInfo> roots) {
+        final Map<String, Map<String, RootInfo>> next = new HashMap<>(mRoots);
+        if (roots.isEmpty()) {
+            next.remove(authority);
+        } else {
+            // Linked, to keep the order of roots for the drawer.
+            final Map<String, RootInfo> byId = new LinkedHashMap<>();
+            for (RootInfo root : roots) {
+                byId.put(root.rootId, root);
+            }
+            next.put(authority, Collections.unmodifiableMap(byId));
+        }
+        return new RootsSnapshot(next);
+    }
+
+    /**
+     * @return a snapshot with the roots of other authorities than the given ones dropped. Roots
+     *         without an authority, like recents, are kept.
+     */
+    RootsSnapshot retainAuthorities(Set<String> authorities) {
+        final Map<String, Map<String, RootInfo>> next = new HashMap<>(mRoots);
+        next.keySet().removeIf(authority -> authority != null && !authorities.contains(authority));
+        return next.size() == mRoots.size() ? this : new RootsSnapshot(next);
+    }
+
+    @Nullable RootInfo getRoot(@Nullable String authority, @Nullable String rootId) {
+        final Map<String, RootInfo> roots = mRoots.get(authority);
+        return roots != null ? roots.get(rootId) : null;
+    }
+
+    Set<String> getAuthorities() {
+        return Collections.unmodifiableSet(mRoots.keySet());
+    }
+
+    Collection<RootInfo> getRoots() {
+        return mAll;
+    }
+
+    Collection<RootInfo> getRoots(@Nullable String authority) {
+        final Map<String, RootInfo> roots = mRoots.get(authority);
+        return roots != null
+                ? Collections.unmodifiableCollection(roots.values())
+                : Collections.emptyList();
+    }
+
+    /**
+     * @return the roots matching the given state, see
+     *         {@link ProvidersAccess#getMatchingRoots(Collection, State)}.
+     */
+    List<RootInfo> getMatchingRoots(State state) {
+        final MatchKey key = new MatchKey(state);
+        List<RootInfo> matching = mMatches.get(key);
+        if (matching == null) {
+            matching = Collections.unmodifiableList(
+                    ProvidersAccess.getMatchingRoots(mAll, state));
+            if (mMatches.size() < MAX_MATCHES) {
+                mMatches.putIfAbsent(key, matching);
+            }
+        }
+        return matching;
+    }
+
+    int size() {
+        return mAll.size();
+    }
+
+    /**
+     * The parts of a {@link State} that decide which roots match it.
+     */
+    private static final class MatchKey {
+        private final int mAction;
+        private final boolean mShowAdvanced;
+        private final boolean mLocalOnly;
+        private final boolean mDirectoryCopy;
+        private final String[] mAcceptMimes;
+        private final String[] mExcludedAuthorities;
+        private final int mHashCode;
+
+        MatchKey(State state) {
+            mAction = state.action;
+            mShowAdvanced = state.showAdvanced;
+            mLocalOnly = state.localOnly;
+            mDirectoryCopy = state.directoryCopy;
+            // Copied, since states can change after they asked for roots.
+            mAcceptMimes = state.acceptMimes != null ? state.acceptMimes.clone() : null;
+            mExcludedAuthorities = state.excludedAuthorities.toArray(new String[0]);
+            mHashCode = Objects.hash(mAction, mShowAdvanced, mLocalOnly, mDirectoryCopy,
+                    Arrays.hashCode(mAcceptMimes), Arrays.hashCode(mExcludedAuthorities));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof MatchKey)) {
+                return false;
+            }
+            final MatchKey other = (MatchKey) o;
+            return mAction == other.mAction
+                    && mShowAdvanced == other.mShowAdvanced
+                    && mLocalOnly == other.mLocalOnly
+                    && mDirectoryCopy == other.mDirectoryCopy
+                    && Arrays.equals(mAcceptMimes, other.mAcceptMimes)
+                    && Arrays.equals(mExcludedAuthorities, other.mExcludedAuthorities);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+}
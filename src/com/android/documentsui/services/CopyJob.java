@@ -32,6 +32,7 @@ import static com.android.documentsui.services.FileOperationService.EXTRA_OPERAT
 import static com.android.documentsui.services.FileOperationService.MESSAGE_FINISH;
 import static com.android.documentsui.services.FileOperationService.MESSAGE_PROGRESS;
 import static com.android.documentsui.services.FileOperationService.OPERATION_COPY;
+import static com.android.documentsui.services.FileOperationService.OPERATION_MOVE;
 
 import android.app.Notification;
 import android.app.Notification.Builder;
@@ -43,6 +44,7 @@ import android.content.res.AssetFileDescriptor;
 import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.CancellationSignal;
 import android.os.FileUtils;
 import android.os.Handler;
 import android.os.Looper;
@@ -76,16 +78,23 @@ import com.android.documentsui.services.FileOperationService.OpType;
 import com.android.documentsui.util.FormatUtils;
 
 import java.io.FileDescriptor;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.SyncFailedException;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
+import java.util.function.LongConsumer;
 import java.util.function.LongSupplier;
 
+import androidx.annotation.IntDef;
+import androidx.annotation.Nullable;
 import androidx.annotation.StringRes;
 import androidx.annotation.VisibleForTesting;
 
@@ -95,6 +104,22 @@ class CopyJob extends ResolvedResourcesJob {
 
     private static final long LOADING_TIMEOUT = 60000; // 1 min
 
+    // Bytes handed to the kernel at a time when copying between regular files.
+    private static final long TRANSFER_CHUNK_BYTES = 8 * 1024 * 1024;
+    // Minimum time between progress updates of a file copied by the kernel.
+    private static final long TRANSFER_PROGRESS_INTERVAL_MILLIS = 250;
+
+    @IntDef({
+            ESTIMATOR_SAMPLED,
+            ESTIMATOR_SMOOTHED
+    })
+    @Retention(RetentionPolicy.SOURCE)
+    @interface ProgressEstimator {}
+    // Remaining time from the throughput between the last two samples.
+    static final int ESTIMATOR_SAMPLED = 0;
+    // Remaining time from a throughput and per file overhead fitted to recent samples.
+    static final int ESTIMATOR_SMOOTHED = 1;
+
     final ArrayList<DocumentInfo> convertedFiles = new ArrayList<>();
     DocumentInfo mDstInfo;
 
@@ -102,6 +127,20 @@ class CopyJob extends ResolvedResourcesJob {
     private final Messenger mMessenger;
 
     private CopyJobProgressTracker mProgressTracker;
+    private @ProgressEstimator int mProgressEstimator;
+    // Publishes progress to the messenger while the job is running.
+    private ProgressReporter mProgressReporter;
+
+    // Set when copied files are synced in batches rather than one at a time.
+    private final @Nullable DeferredSync mDeferredSync;
+
+    // Number of files copied at a time between two authorities.
+    private final int mCopyThreads;
+    // Set while files are copied in parallel, and only used on the job thread.
+    private @Nullable CopyPipeline mPipeline;
+    private CopyPipeline.Batch mBatch;
+    // Document the job was asked to copy which is being processed, only used on the job thread.
+    private DocumentInfo mTopLevelDoc;
 
     /**
      * @see @link {@link Job} constructor for most param descriptions.
@@ -116,10 +155,29 @@ class CopyJob extends ResolvedResourcesJob {
         super(service, listener, id, opType, destination, srcs, features);
         mDstInfo = destination.peek();
         mMessenger = messenger;
+        // Moves delete sources as soon as they are copied, so only plain copies run in parallel.
+        mCopyThreads = opType == OPERATION_COPY && features.isParallelCopyEnabled()
+                ? service.getResources().getInteger(R.integer.config_copy_threads)
+                : 1;
+        mDeferredSync = (opType == OPERATION_COPY || opType == OPERATION_MOVE)
+                && features.isDeferredSyncEnabled()
+                ? new DeferredSync(service.getResources().getInteger(
+                        R.integer.config_deferred_sync_batch_files))
+                : null;
+        mProgressEstimator = features.isSmoothedCopyEstimateEnabled()
+                ? ESTIMATOR_SMOOTHED
+                : ESTIMATOR_SAMPLED;
 
         assert(srcs.getItemCount() > 0);
     }
 
+    /**
+     * Sets how the remaining time of this job is estimated. Must be called before the job runs.
+     */
+    void setProgressEstimator(@ProgressEstimator int estimator) {
+        mProgressEstimator = estimator;
+    }
+
     @Override
     Builder createProgressBuilder() {
         return super.createProgressBuilder(
@@ -210,10 +268,72 @@ class CopyJob extends ResolvedResourcesJob {
     @Override
     void start() {
         mProgressTracker.start();
+        mProgressReporter = new ProgressReporter(mHandler,
+                service.getResources().getInteger(R.integer.config_progress_interval_millis),
+                mProgressTracker, mProgressTracker::getDataProcessed, this::sendProgress,
+                SystemClock::elapsedRealtime);
+        mProgressTracker.setThroughputSource(mProgressReporter::getThroughput);
+        mProgressReporter.start();
+        try {
+            copyDocuments();
+        } finally {
+            if (mDeferredSync != null) {
+                // Files must be durable before the job reports success.
+                mDeferredSync.flush();
+            }
+            mProgressReporter.stop();
+        }
+    }
+
+    /**
+     * @return the sequence to pass to {@link #runWhenSynced} to wait for files copied from now.
+     */
+    final long getSyncSequence() {
+        return mDeferredSync != null ? mDeferredSync.getSequence() : 0;
+    }
+
+    /**
+     * Runs an action once the files copied so far are durable, unless any of the files copied
+     * since the given sequence failed to sync.
+     *
+     * @return false if syncs aren't deferred, in which case the action doesn't run.
+     */
+    final boolean runWhenSynced(long since, Runnable action) {
+        if (mDeferredSync == null) {
+            return false;
+        }
+        mDeferredSync.post(since, action);
+        return true;
+    }
+
+    /**
+     * @return the document the job was asked to copy which is being processed. Only valid on
+     *     the job thread.
+     */
+    final DocumentInfo getTopLevelDocument() {
+        return mTopLevelDoc;
+    }
+
+    @Override
+    synchronized void onFileFailed(DocumentInfo file) {
+        // The files of a document can fail to sync after the document itself failed, or one
+        // after another, but each document is reported once.
+        if (!failedDocs.contains(file)) {
+            super.onFileFailed(file);
+        }
+    }
+
+    private void copyDocuments() {
+        if (mCopyThreads > 1) {
+            startParallel();
+            Metrics.logFileOperation(operationType, mResolvedDocs, mDstInfo);
+            return;
+        }
 
         DocumentInfo srcInfo;
         for (int i = 0; i < mResolvedDocs.size() && !isCanceled(); ++i) {
             srcInfo = mResolvedDocs.get(i);
+            mTopLevelDoc = srcInfo;
 
             if (DEBUG) {
                 Log.d(TAG,
@@ -238,6 +358,55 @@ class CopyJob extends ResolvedResourcesJob {
         Metrics.logFileOperation(operationType, mResolvedDocs, mDstInfo);
     }
 
+    /**
+     * Copies documents like {@link #start()}, but hands files to a {@link CopyPipeline} instead
+     * of copying them one by one. Directories are still created in order on this thread.
+     *
+     * <p>Failures are reported like in {@link #start()}: once for each document the job was
+     * asked to copy. Unlike there, the other files of a document are still copied after one of
+     * them failed, since they are already queued.
+     */
+    private void startParallel() {
+        try (CopyPipeline pipeline = new CopyPipeline(mCopyThreads, mSignal)) {
+            mPipeline = pipeline;
+            for (int i = 0; i < mResolvedDocs.size() && !isCanceled(); ++i) {
+                final DocumentInfo srcInfo = mResolvedDocs.get(i);
+                mTopLevelDoc = srcInfo;
+
+                if (DEBUG) {
+                    Log.d(TAG,
+                        "Copying " + srcInfo.displayName + " (" + srcInfo.derivedUri + ")"
+                            + " to " + mDstInfo.displayName + " (" + mDstInfo.derivedUri + ")");
+                }
+
+                final long syncSequence = getSyncSequence();
+                mBatch = pipeline.startBatch(failed -> {
+                    if (failed) {
+                        onFileFailed(srcInfo);
+                    } else {
+                        onDocumentCopied(syncSequence);
+                    }
+                });
+                try {
+                    // Copying recursively to itself or one of descendants is not allowed.
+                    if (mDstInfo.equals(srcInfo) || isDescendentOf(srcInfo, mDstInfo)) {
+                        Log.e(TAG, "Skipping recursive copy of " + srcInfo.derivedUri);
+                        mBatch.fail();
+                    } else {
+                        processDocument(srcInfo, null, mDstInfo);
+                    }
+                } catch (ResourceException | RuntimeException e) {
+                    Log.e(TAG, "Failed to copy " + srcInfo.derivedUri, e);
+                    mBatch.fail();
+                }
+                mBatch.close();
+            }
+        } finally {
+            mPipeline = null;
+            mBatch = null;
+        }
+    }
+
     /**
      * Checks whether the destination folder has enough space to take all source files.
      * @return true if the root has enough space or doesn't provide free space info; otherwise false
@@ -296,14 +465,17 @@ class CopyJob extends ResolvedResourcesJob {
      * @param bytesCopied
      */
     private void makeCopyProgress(long bytesCopied) {
+        mProgressTracker.onBytesCopied(bytesCopied);
+    }
+
+    private void sendProgress(double progress, long remainingTime) {
         try {
             mMessenger.send(Message.obtain(mHandler, MESSAGE_PROGRESS,
-                    (int) (100 * mProgressTracker.getProgress()), // Progress in percentage
-                    (int) mProgressTracker.getRemainingTimeEstimate()));
+                    (int) (100 * progress), // Progress in percentage
+                    (int) remainingTime));
         } catch (RemoteException e) {
             // Ignore. The frontend may be gone.
         }
-        mProgressTracker.onBytesCopied(bytesCopied);
     }
 
     /**
@@ -352,8 +524,19 @@ class CopyJob extends ResolvedResourcesJob {
 
     private void processDocumentThenUpdateProgress(DocumentInfo src, DocumentInfo srcParent,
             DocumentInfo dstDirInfo) throws ResourceException {
+        final long syncSequence = getSyncSequence();
         processDocument(src, srcParent, dstDirInfo);
-        mProgressTracker.onDocumentCompleted();
+        onDocumentCopied(syncSequence);
+    }
+
+    /**
+     * Counts a document as completed once the files copied for it since the given sync sequence
+     * are durable. Documents with files which fail to sync are reported by the sync.
+     */
+    private void onDocumentCopied(long syncSequence) {
+        if (!runWhenSynced(syncSequence, mProgressTracker::onDocumentCompleted)) {
+            mProgressTracker.onDocumentCompleted();
+        }
     }
 
     void byteCopyDocument(DocumentInfo src, DocumentInfo dest) throws ResourceException {
@@ -415,21 +598,29 @@ class CopyJob extends ResolvedResourcesJob {
                     dest.derivedUri);
         }
 
-        DocumentInfo dstInfo = null;
+        if (Document.MIME_TYPE_DIR.equals(src.mimeType)) {
+            copyDirectoryHelper(src, loadCreatedDocument(dstUri));
+        } else if (mPipeline != null) {
+            final Uri fileUri = dstUri;
+            final DocumentInfo topLevelDoc = mTopLevelDoc;
+            mPipeline.submit(src.authority, dest.authority, mBatch, (signal) ->
+                    copyFileHelper(src, loadCreatedDocument(fileUri), dest, dstMimeType,
+                            topLevelDoc, signal));
+        } else {
+            copyFileHelper(src, loadCreatedDocument(dstUri), dest, dstMimeType, mTopLevelDoc,
+                    mSignal);
+        }
+    }
+
+    private DocumentInfo loadCreatedDocument(Uri dstUri) throws ResourceException {
         try {
-            dstInfo = DocumentInfo.fromUri(getContentResolver(), dstUri);
+            return DocumentInfo.fromUri(getContentResolver(), dstUri);
         } catch (FileNotFoundException | RuntimeException e) {
             Metrics.logFileOperationFailure(
                     appContext, MetricConsts.SUBFILEOP_QUERY_DOCUMENT, dstUri);
             throw new ResourceException("Could not load DocumentInfo for newly created file %s.",
                     dstUri);
         }
-
-        if (Document.MIME_TYPE_DIR.equals(src.mimeType)) {
-            copyDirectoryHelper(src, dstInfo);
-        } else {
-            copyFileHelper(src, dstInfo, dest, dstMimeType);
-        }
     }
 
     /**
@@ -498,16 +689,21 @@ class CopyJob extends ResolvedResourcesJob {
      * @param dest Info of the *file* to copy to. Must be created beforehand.
      * @param destParent Info of the parent of the destination.
      * @param mimeType Mime type for the target. Can be different than source for virtual files.
+     * @param topLevelDoc Info of the document the job was asked to copy which contains the file,
+     *     reported as failed if the file fails to sync later.
+     * @param signal Signal canceling the copy of this file.
      * @throws ResourceException
      */
     private void copyFileHelper(DocumentInfo src, DocumentInfo dest, DocumentInfo destParent,
-            String mimeType) throws ResourceException {
+            String mimeType, DocumentInfo topLevelDoc, CancellationSignal signal)
+            throws ResourceException {
         AssetFileDescriptor srcFileAsAsset = null;
         ParcelFileDescriptor srcFile = null;
         ParcelFileDescriptor dstFile = null;
         InputStream in = null;
         ParcelFileDescriptor.AutoCloseOutputStream out = null;
         boolean success = false;
+        boolean deferred = false;
 
         try {
             // If the file is virtual, but can be converted to another format, then try to copy it
@@ -515,7 +711,7 @@ class CopyJob extends ResolvedResourcesJob {
             if (src.isVirtual()) {
                 try {
                     srcFileAsAsset = getClient(src).openTypedAssetFileDescriptor(
-                                src.derivedUri, mimeType, null, mSignal);
+                                src.derivedUri, mimeType, null, signal);
                 } catch (FileNotFoundException | RemoteException | RuntimeException e) {
                     Metrics.logFileOperationFailure(
                             appContext, MetricConsts.SUBFILEOP_OPEN_FILE, src.derivedUri);
@@ -535,7 +731,7 @@ class CopyJob extends ResolvedResourcesJob {
                 Metrics.logFileOperated(operationType, MetricConsts.OPMODE_CONVERTED);
             } else {
                 try {
-                    srcFile = getClient(src).openFile(src.derivedUri, "r", mSignal);
+                    srcFile = getClient(src).openFile(src.derivedUri, "r", signal);
                 } catch (FileNotFoundException | RemoteException | RuntimeException e) {
                     Metrics.logFileOperationFailure(
                             appContext, MetricConsts.SUBFILEOP_OPEN_FILE, src.derivedUri);
@@ -548,7 +744,7 @@ class CopyJob extends ResolvedResourcesJob {
             }
 
             try {
-                dstFile = getClient(dest).openFile(dest.derivedUri, "w", mSignal);
+                dstFile = getClient(dest).openFile(dest.derivedUri, "w", signal);
             } catch (FileNotFoundException | RemoteException | RuntimeException e) {
                 Metrics.logFileOperationFailure(
                         appContext, MetricConsts.SUBFILEOP_OPEN_FILE, dest.derivedUri);
@@ -570,12 +766,18 @@ class CopyJob extends ResolvedResourcesJob {
                 }
 
                 try {
-                    final Int64Ref last = new Int64Ref(0);
-                    FileUtils.copy(in, out, mSignal, Runnable::run, (long progress) -> {
-                        final long delta = progress - last.value;
-                        last.value = progress;
-                        makeCopyProgress(delta);
-                    });
+                    if (!src.isVirtual() && isRegularFile(srcFile) && isRegularFile(dstFile)) {
+                        // Let the kernel copy the bytes, without passing them through the heap.
+                        transferFile(((FileInputStream) in).getChannel(), out.getChannel(),
+                                signal, this::makeCopyProgress);
+                    } else {
+                        final Int64Ref last = new Int64Ref(0);
+                        FileUtils.copy(in, out, signal, Runnable::run, (long progress) -> {
+                            final long delta = progress - last.value;
+                            last.value = progress;
+                            makeCopyProgress(delta);
+                        });
+                    }
                 } catch (OperationCanceledException e) {
                     if (DEBUG) {
                         Log.d(TAG, "Canceled copy mid-copy of: " + src.derivedUri);
@@ -583,24 +785,17 @@ class CopyJob extends ResolvedResourcesJob {
                     return;
                 }
 
-                // Need to invoke Os#fsync to ensure the file is written to the storage device.
-                try {
-                    Os.fsync(dstFile.getFileDescriptor());
-                } catch (ErrnoException error) {
-                    // fsync will fail with fd of pipes and return EROFS or EINVAL.
-                    if (error.errno != OsConstants.EROFS && error.errno != OsConstants.EINVAL) {
-                        throw new SyncFailedException(
-                                "Failed to sync bytes after copying a file.");
-                    }
-                }
-
-                // Need to invoke IoUtils.close explicitly to avoid from ignoring errors at flush.
-                try {
-                    Os.close(dstFile.getFileDescriptor());
-                } catch (ErrnoException e) {
-                    throw new IOException(e);
-                }
                 srcFile.checkError();
+                if (mDeferredSync != null && isRegularFile(dstFile)
+                        && mDeferredSync.add(dstFile, mProgressTracker::onFileCompleted,
+                                (e) -> onSyncFailed(topLevelDoc, src, dest, destParent, e))) {
+                    // The destination is synced and closed later, along with other files. It only
+                    // counts as copied once it is synced.
+                    out = null;
+                    deferred = true;
+                } else {
+                    DeferredSync.syncAndClose(dstFile);
+                }
             } catch (IOException e) {
                 Metrics.logFileOperationFailure(
                         appContext,
@@ -612,10 +807,15 @@ class CopyJob extends ResolvedResourcesJob {
             }
 
             if (src.isVirtual()) {
-               convertedFiles.add(src);
+                synchronized (convertedFiles) {
+                    convertedFiles.add(src);
+                }
             }
 
             success = true;
+            if (!deferred) {
+                mProgressTracker.onFileCompleted();
+            }
         } finally {
             if (!success) {
                 if (dstFile != null) {
@@ -629,7 +829,7 @@ class CopyJob extends ResolvedResourcesJob {
                 if (DEBUG) {
                     Log.d(TAG, "Cleaning up failed operation leftovers.");
                 }
-                mSignal.cancel();
+                signal.cancel();
                 try {
                     deleteDocument(dest, destParent);
                 } catch (ResourceException e) {
@@ -643,6 +843,75 @@ class CopyJob extends ResolvedResourcesJob {
         }
     }
 
+    private void onSyncFailed(DocumentInfo topLevelDoc, DocumentInfo src, DocumentInfo dest,
+            DocumentInfo destParent, IOException e) {
+        Log.e(TAG, "Failed to sync " + dest.derivedUri + " after copying " + src.derivedUri, e);
+        Metrics.logFileOperationFailure(appContext, MetricConsts.SUBFILEOP_WRITE_FILE,
+                dest.derivedUri);
+        onFileFailed(topLevelDoc);
+        try {
+            deleteDocument(dest, destParent);
+        } catch (ResourceException cleanupError) {
+            Log.w(TAG, "Failed to cleanup after sync error: " + src.derivedUri, cleanupError);
+        }
+    }
+
+    @VisibleForTesting
+    static boolean isRegularFile(ParcelFileDescriptor file) {
+        try {
+            return OsConstants.S_ISREG(Os.fstat(file.getFileDescriptor()).st_mode);
+        } catch (ErrnoException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Copies the rest of a file to another with {@link FileChannel#transferTo}, which lets the
+     * kernel copy the bytes in large chunks. Progress is reported at a bounded rate, and once
+     * more when the copy is done.
+     *
+     * @param progressListener called with the number of bytes copied since the last call.
+     * @throws OperationCanceledException if the signal is canceled during the copy.
+     */
+    private static void transferFile(FileChannel in, WritableByteChannel out,
+            CancellationSignal signal, LongConsumer progressListener) throws IOException {
+        transferFile(in, out, signal, TRANSFER_CHUNK_BYTES, TRANSFER_PROGRESS_INTERVAL_MILLIS,
+                progressListener);
+    }
+
+    /**
+     * Like {@link #transferFile(FileChannel, WritableByteChannel, CancellationSignal,
+     * LongConsumer)}, with the chunk size and progress rate given. A chunk may be copied in
+     * several transfers, as channels may take fewer bytes than asked.
+     */
+    @VisibleForTesting
+    static void transferFile(FileChannel in, WritableByteChannel out, CancellationSignal signal,
+            long chunkBytes, long progressIntervalMillis, LongConsumer progressListener)
+            throws IOException {
+        long position = in.position();
+        long unreported = 0;
+        long lastReport = SystemClock.elapsedRealtime();
+        while (true) {
+            signal.throwIfCanceled();
+            final long transferred = in.transferTo(position, chunkBytes, out);
+            if (transferred <= 0) {
+                break;
+            }
+            position += transferred;
+            unreported += transferred;
+
+            final long now = SystemClock.elapsedRealtime();
+            if (now - lastReport >= progressIntervalMillis) {
+                progressListener.accept(unreported);
+                unreported = 0;
+                lastReport = now;
+            }
+        }
+        if (unreported > 0) {
+            progressListener.accept(unreported);
+        }
+    }
+
     /**
      * Create CopyJobProgressTracker instance for notification to update copy progress.
      *
@@ -651,20 +920,22 @@ class CopyJob extends ResolvedResourcesJob {
     private CopyJobProgressTracker createProgressTracker() {
         long docsRequired = mResolvedDocs.size();
         long bytesRequired = 0;
+        final Int64Ref filesRequired = new Int64Ref(0);
 
         try {
             for (DocumentInfo src : mResolvedDocs) {
                 if (src.isDirectory()) {
                     // Directories need to be recursed into.
                     try {
-                        bytesRequired +=
-                                calculateFileSizesRecursively(getClient(src), src.derivedUri);
+                        bytesRequired += calculateFileSizesRecursively(
+                                getClient(src), src.derivedUri, filesRequired);
                     } catch (RemoteException e) {
                         Log.w(TAG, "Failed to obtain the client for " + src.derivedUri, e);
                         return new IndeterminateProgressTracker(bytesRequired);
                     }
                 } else {
                     bytesRequired += src.size;
+                    filesRequired.value++;
                 }
 
                 if (isCanceled()) {
@@ -676,7 +947,10 @@ class CopyJob extends ResolvedResourcesJob {
             return new IndeterminateProgressTracker(bytesRequired);
         }
 
-        if (bytesRequired > 0) {
+        if (bytesRequired > 0 && mProgressEstimator == ESTIMATOR_SMOOTHED) {
+            return new SmoothedProgressTracker(
+                    bytesRequired, filesRequired.value, SystemClock::elapsedRealtime);
+        } else if (bytesRequired > 0) {
             return new ByteCountProgressTracker(bytesRequired, SystemClock::elapsedRealtime);
         } else {
             return new FileCountProgressTracker(docsRequired, SystemClock::elapsedRealtime);
@@ -690,6 +964,17 @@ class CopyJob extends ResolvedResourcesJob {
      */
     long calculateFileSizesRecursively(
             ContentProviderClient client, Uri uri) throws ResourceException {
+        return calculateFileSizesRecursively(client, uri, new Int64Ref(0));
+    }
+
+    /**
+     * Calculates (recursively) the cumulative size of all the files under the given directory.
+     *
+     * @param fileCount incremented by the number of files found.
+     * @throws ResourceException
+     */
+    private long calculateFileSizesRecursively(ContentProviderClient client, Uri uri,
+            Int64Ref fileCount) throws ResourceException {
         final String authority = uri.getAuthority();
         final String queryColumns[] = new String[] {
                 Document.COLUMN_DOCUMENT_ID,
@@ -707,11 +992,12 @@ class CopyJob extends ResolvedResourcesJob {
                     // Recurse into directories.
                     final Uri dirUri = buildDocumentUri(authority,
                             getCursorString(cursor, Document.COLUMN_DOCUMENT_ID));
-                    result += calculateFileSizesRecursively(client, dirUri);
+                    result += calculateFileSizesRecursively(client, dirUri, fileCount);
                 } else {
                     // This may return -1 if the size isn't defined. Ignore those cases.
                     long size = getCursorLong(cursor, Document.COLUMN_SIZE);
                     result += size > 0 ? size : 0;
+                    fileCount.value++;
                 }
             }
         } catch (RemoteException | RuntimeException e) {
@@ -843,17 +1129,41 @@ class CopyJob extends ResolvedResourcesJob {
         private long mSampleTime;
         private long mSpeed;
         private long mRemainingTime = -1;
+        private volatile @Nullable LongSupplier mThroughputSource;
 
         public CopyJobProgressTracker(LongSupplier timeSupplier) {
             mElapsedRealTimeSupplier = timeSupplier;
         }
 
+        /**
+         * Sets where the throughput over the recent history of the job is read from, in units
+         * of data per second, or -1 if unknown. It's preferred to the speed estimated from
+         * the last update when known.
+         */
+        void setThroughputSource(@Nullable LongSupplier throughputSource) {
+            mThroughputSource = throughputSource;
+        }
+
+        /**
+         * @return the amount of data processed so far, in the unit remaining time is estimated
+         *         in, or -1 if not tracked.
+         */
+        protected long getDataProcessed() {
+            return -1;
+        }
+
         protected void onBytesCopied(long numBytes) {
         }
 
         protected void onDocumentCompleted() {
         }
 
+        /**
+         * Called when a single file is copied, including files inside of copied directories.
+         */
+        protected void onFileCompleted() {
+        }
+
         protected boolean hasRequiredBytes() {
             return false;
         }
@@ -899,7 +1209,11 @@ class CopyJob extends ResolvedResourcesJob {
                 mSpeed = ((3 * mSpeed) + sampleSpeed) / 4;
             }
 
-            if (mSampleTime > 0 && mSpeed > 0) {
+            final long throughput =
+                    mThroughputSource != null ? mThroughputSource.getAsLong() : -1;
+            if (throughput > 0) {
+                mRemainingTime = ((dataRequired - dataProcessed) * 1000) / throughput;
+            } else if (mSampleTime > 0 && mSpeed > 0) {
                 mRemainingTime = ((dataRequired - dataProcessed) * 1000) / mSpeed;
             }
 
@@ -938,6 +1252,11 @@ class CopyJob extends ResolvedResourcesJob {
             mBytesCopied.getAndAdd(numBytes);
         }
 
+        @Override
+        protected long getDataProcessed() {
+            return mBytesCopied.get();
+        }
+
         @Override
         public void updateEstimateRemainingTime() {
             estimateRemainingTime(mBytesCopied.get(), mBytesRequired);
@@ -965,12 +1284,130 @@ class CopyJob extends ResolvedResourcesJob {
             mDocsProcessed.getAndIncrement();
         }
 
+        @Override
+        protected long getDataProcessed() {
+            return mDocsProcessed.get();
+        }
+
         @Override
         public void updateEstimateRemainingTime() {
             estimateRemainingTime(mDocsProcessed.get(), mDocsRequired);
         }
     }
 
+    /**
+     * Estimates the remaining time with a model of the copy, where each file costs a fixed
+     * overhead plus its size over the throughput. Both terms are fitted by least squares to the
+     * samples taken on each update, and samples fade out with a time constant of
+     * {@link #TIME_CONSTANT_MILLIS}. This keeps the estimate stable when small and large files
+     * are mixed, or when the destination stops for a while to flush.
+     */
+    @VisibleForTesting
+    static class SmoothedProgressTracker extends ByteCountProgressTracker {
+        // Samples lose 1/e of their weight over this time.
+        @VisibleForTesting
+        static final long TIME_CONSTANT_MILLIS = 20 * 1000;
+        // Below this, byte and file counts of the samples are too correlated to tell the
+        // throughput and the overhead apart.
+        private static final double MIN_CONDITION = 1e-3;
+
+        final long mFilesRequired;
+        final AtomicLong mFilesCopied = new AtomicLong(0);
+        private final LongSupplier mTimeSupplier;
+
+        // Weighted sums of products of the bytes (B), files (F) and time (T) of each sample.
+        private double mBB;
+        private double mBF;
+        private double mFF;
+        private double mBT;
+        private double mFT;
+
+        private long mSampleTime = -1;
+        private long mSampleBytes;
+        private long mSampleFiles;
+
+        private double mMillisPerByte = -1;
+        private double mMillisPerFile;
+        private long mRemainingTime = -1;
+
+        public SmoothedProgressTracker(long bytesRequired, long filesRequired,
+                LongSupplier elapsedRealtimeSupplier) {
+            super(bytesRequired, elapsedRealtimeSupplier);
+            mFilesRequired = filesRequired;
+            mTimeSupplier = elapsedRealtimeSupplier;
+        }
+
+        @Override
+        protected void start() {
+            super.start();
+            mSampleTime = mTimeSupplier.getAsLong();
+        }
+
+        @Override
+        protected void onFileCompleted() {
+            mFilesCopied.getAndIncrement();
+        }
+
+        @Override
+        public void updateEstimateRemainingTime() {
+            final long time = mTimeSupplier.getAsLong();
+            final long bytes = mBytesCopied.get();
+            final long files = mFilesCopied.get();
+            final double duration = time - mSampleTime;
+            final double bytesDelta = bytes - mSampleBytes;
+            final double filesDelta = files - mSampleFiles;
+            if (mSampleTime < 0 || duration <= 0 || (bytesDelta == 0 && filesDelta == 0)) {
+                // Nothing to learn from yet. Time without progress is counted in the next
+                // sample, so stalls slow down the estimated throughput.
+                return;
+            }
+
+            final double decay = Math.exp(-duration / TIME_CONSTANT_MILLIS);
+            mBB = decay * mBB + bytesDelta * bytesDelta;
+            mBF = decay * mBF + bytesDelta * filesDelta;
+            mFF = decay * mFF + filesDelta * filesDelta;
+            mBT = decay * mBT + bytesDelta * duration;
+            mFT = decay * mFT + filesDelta * duration;
+            mSampleTime = time;
+            mSampleBytes = bytes;
+            mSampleFiles = files;
+
+            fit();
+            if (mMillisPerByte >= 0) {
+                mRemainingTime = Math.round(
+                        mMillisPerByte * Math.max(mBytesRequired - bytes, 0)
+                        + mMillisPerFile * Math.max(mFilesRequired - files, 0));
+            }
+        }
+
+        private void fit() {
+            final double det = mBB * mFF - mBF * mBF;
+            if (det > MIN_CONDITION * mBB * mFF) {
+                final double millisPerByte = (mBT * mFF - mFT * mBF) / det;
+                final double millisPerFile = (mFT * mBB - mBT * mBF) / det;
+                if (millisPerByte >= 0 && millisPerFile >= 0) {
+                    mMillisPerByte = millisPerByte;
+                    mMillisPerFile = millisPerFile;
+                    return;
+                }
+            }
+
+            // Only the throughput can be told from the samples, so keep the overhead learned
+            // so far.
+            if (mBB > 0) {
+                mMillisPerByte = Math.max((mBT - mMillisPerFile * mBF) / mBB, 0);
+            } else if (mFF > 0) {
+                mMillisPerByte = 0;
+                mMillisPerFile = mFT / mFF;
+            }
+        }
+
+        @Override
+        public long getRemainingTimeEstimate() {
+            return mRemainingTime;
+        }
+    }
+
     private static class IndeterminateProgressTracker extends ByteCountProgressTracker {
         public IndeterminateProgressTracker(long bytesRequired) {
             super(bytesRequired, () -> -1L /* No need to update elapsedTime */);
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.documentsui.services;
+
+import android.os.CancellationSignal;
+import android.util.Log;
+
+import androidx.annotation.GuardedBy;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Copies the files of a {@link CopyJob} on a few threads per pair of source and destination
+ * authorities, while the job keeps walking the documents to copy. The job creates directories
+ * and destination documents itself, in order, so files are only copied into directories that
+ * exist; the pipeline overlaps the provider round trips of opening, copying and syncing files.
+ *
+ * <p>Files are grouped in {@link Batch}es, one for each document the job was asked to copy, so
+ * that the job learns when a document is copied with all its descendants.
+ */
+final class CopyPipeline implements AutoCloseable {
+
+    private static final String TAG = "CopyPipeline";
+
+    /**
+     * Copies a file. Must stop when the given signal is canceled.
+     */
+    interface Task {
+        void run(CancellationSignal signal) throws ResourceException;
+    }
+
+    private final int mThreads;
+    private final CancellationSignal mJobSignal;
+    // Limits files waiting to be copied, so that walking large trees doesn't run ahead.
+    private final Semaphore mSlots;
+
+    // Executors by source and destination authority. Only used by the job thread.
+    private final Map<String, ExecutorService> mExecutors = new HashMap<>();
+
+    // Signals of files being copied, canceled along with the job.
+    private final Set<CancellationSignal> mSignals = ConcurrentHashMap.newKeySet();
+
+    @GuardedBy("this")
+    private int mPending;
+
+    /**
+     * @param threads the number of files copied at a time between two authorities.
+     * @param jobSignal the signal canceled when the job is canceled.
+     */
+    CopyPipeline(int threads, CancellationSignal jobSignal) {
+        mThreads = threads;
+        mJobSignal = jobSignal;
+        mSlots = new Semaphore(threads * 2);
+        mJobSignal.setOnCancelListener(this::cancel);
+    }
+
+    /**
+     * Starts a batch of files. The callback is called once the batch is closed and all its
+     * files are copied, on whichever thread finished last.
+     *
+     * @param onFinished called with whether any file of the batch failed.
+     */
+    Batch startBatch(Consumer<Boolean> onFinished) {
+        return new Batch(onFinished);
+    }
+
+    /**
+     * Queues a file to be copied. Blocks while too many files are waiting.
+     */
+    void submit(String srcAuthority, String dstAuthority, Batch batch, Task task) {
+        final String key = srcAuthority + ">" + dstAuthority;
+        ExecutorService executor = mExecutors.get(key);
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(mThreads);
+            mExecutors.put(key, executor);
+        }
+
+        mSlots.acquireUninterruptibly();
+        batch.mPending.incrementAndGet();
+        synchronized (this) {
+            mPending++;
+        }
+        executor.execute(() -> {
+            try {
+                run(batch, task);
+            } finally {
+                mSlots.release();
+                batch.release();
+                synchronized (this) {
+                    if (--mPending == 0) {
+                        notifyAll();
+                    }
+                }
+            }
+        });
+    }
+
+    private void run(Batch batch, Task task) {
+        if (mJobSignal.isCanceled()) {
+            return;
+        }
+
+        // Each file gets its own signal, so that the failure of one file doesn't cancel others.
+        final CancellationSignal signal = new CancellationSignal();
+        mSignals.add(signal);
+        try {
+            if (mJobSignal.isCanceled()) {
+                signal.cancel();
+            }
+            task.run(signal);
+        } catch (ResourceException | RuntimeException e) {
+            Log.e(TAG, "Failed to copy a file.", e);
+            batch.fail();
+        } finally {
+            mSignals.remove(signal);
+        }
+    }
+
+    private void cancel() {
+        for (CancellationSignal signal : mSignals) {
+            signal.cancel();
+        }
+    }
+
+    /**
+     * Waits until all queued files are copied, or given up on if the job was canceled.
+     */
+    void await() {
+        boolean interrupted = false;
+        synchronized (this) {
+            while (mPending > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        await();
+        mJobSignal.setOnCancelListener(null);
+        for (ExecutorService executor : mExecutors.values()) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Files copied for one of the documents a job was asked to copy.
+     */
+    static final class Batch {
+        private final Consumer<Boolean> mOnFinished;
+        // Queued files, plus one until the batch is closed.
+        private final AtomicInteger mPending = new AtomicInteger(1);
+        private volatile boolean mFailed;
+
+        private Batch(Consumer<Boolean> onFinished) {
+            mOnFinished = onFinished;
+        }
+
+        /**
+         * Marks the batch as failed, like when a directory of it couldn't be created.
+         */
+        void fail() {
+            mFailed = true;
+        }
+
+        /**
+         * Tells the batch that no more files are going to be queued in it.
+         */
+        void close() {
+            release();
+        }
+
+        private void release() {
+            if (mPending.decrementAndGet() == 0) {
+                mOnFinished.accept(mFailed);
+            }
+        }
+    }
+}
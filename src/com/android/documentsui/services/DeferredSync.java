@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.documentsui.services;
+
+import android.os.FileUtils;
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.VisibleForTesting;
+
+import java.io.IOException;
+import java.io.SyncFailedException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Syncs the files copied by a job to storage in batches, instead of one at a time. Files are
+ * kept open until their batch is synced, and actions which need files to be durable first,
+ * such as deleting the source of a move, wait for the files added before them.
+ *
+ * <p>The files of a batch are synced in parallel, so that storage can commit them together,
+ * and without holding the lock files are added under.
+ *
+ * <p>The files kept open by all jobs are capped, so that batches can't run the process out of
+ * file descriptors. Files beyond the cap are synced by the job right away instead.
+ *
+ * <p>A job must {@link #flush()} before it reports success, so that everything it copied is
+ * durable by then.
+ */
+final class DeferredSync {
+
+    /**
+     * Called when a file failed to sync, on the thread flushing the batch.
+     */
+    interface Callback {
+        void onSyncFailed(IOException e);
+    }
+
+    // Files synced at the same time. Storage commits overlapping syncs together.
+    private static final int SYNC_THREADS = 4;
+
+    private static final ThreadPoolExecutor sSyncExecutor = new ThreadPoolExecutor(
+            SYNC_THREADS, SYNC_THREADS, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+
+    static {
+        sSyncExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    // Files kept open by all jobs at most.
+    @VisibleForTesting
+    static final int MAX_OPEN_FILES = 64;
+
+    private static final AtomicInteger sOpenFiles = new AtomicInteger();
+
+    private static final class FileEntry {
+        final long mSequence;
+        final ParcelFileDescriptor mFile;
+        final Runnable mOnSynced;
+        final Callback mCallback;
+        // Set by the thread syncing the file, read once the batch is synced.
+        IOException mError;
+
+        FileEntry(long sequence, ParcelFileDescriptor file, Runnable onSynced,
+                Callback callback) {
+            mSequence = sequence;
+            mFile = file;
+            mOnSynced = onSynced;
+            mCallback = callback;
+        }
+    }
+
+    private static final class ActionEntry {
+        final long mSince;
+        // Sequence of the first file added after the action, which it doesn't wait for.
+        final long mUntil;
+        final Runnable mAction;
+
+        ActionEntry(long since, long until, Runnable action) {
+            mSince = since;
+            mUntil = until;
+            mAction = action;
+        }
+    }
+
+    private final int mBatchSize;
+
+    // Held while a batch is synced, so that batches are synced in the order they were added.
+    private final Object mFlushLock = new Object();
+
+    @GuardedBy("this")
+    private final List<FileEntry> mFiles = new ArrayList<>();
+    @GuardedBy("this")
+    private final List<ActionEntry> mActions = new ArrayList<>();
+    // Sequence of the next file added.
+    @GuardedBy("this")
+    private long mSequence;
+    // Files with a lower sequence are synced, or failed to.
+    @GuardedBy("this")
+    private long mSyncedSequence;
+    // Sequences of the files which failed to sync.
+    @GuardedBy("this")
+    private final TreeSet<Long> mFailures = new TreeSet<>();
+
+    /**
+     * @param batchSize the number of files kept open before they are synced.
+     */
+    DeferredSync(int batchSize) {
+        mBatchSize = Math.max(batchSize, 1);
+    }
+
+    /**
+     * Adds a file to sync and close. Syncs the whole batch when it is full.
+     *
+     * @param onSynced called once the file is synced, on the thread flushing the batch.
+     * @param callback called if the file fails to sync, instead of onSynced.
+     * @return false if too many files are open already, in which case the file isn't added,
+     *         and the caller must sync it.
+     */
+    boolean add(ParcelFileDescriptor file, Runnable onSynced, Callback callback) {
+        if (!tryOpenFile()) {
+            return false;
+        }
+
+        final boolean full;
+        synchronized (this) {
+            mFiles.add(new FileEntry(mSequence++, file, onSynced, callback));
+            full = mFiles.size() >= mBatchSize;
+        }
+        if (full) {
+            flush();
+        }
+        return true;
+    }
+
+    private static boolean tryOpenFile() {
+        while (true) {
+            final int openFiles = sOpenFiles.get();
+            if (openFiles >= MAX_OPEN_FILES) {
+                return false;
+            }
+            if (sOpenFiles.compareAndSet(openFiles, openFiles + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return the sequence of the next file added, to be passed to {@link #post}.
+     */
+    synchronized long getSequence() {
+        return mSequence;
+    }
+
+    /**
+     * Runs an action once the files added so far are synced, unless a file added since the given
+     * sequence failed to sync. Runs right away when no file is waiting.
+     */
+    void post(long since, Runnable action) {
+        synchronized (this) {
+            if (mSyncedSequence < mSequence) {
+                mActions.add(new ActionEntry(since, mSequence, action));
+                return;
+            }
+            if (hasFailedLocked(since, mSequence)) {
+                return;
+            }
+        }
+        action.run();
+    }
+
+    /**
+     * Syncs and closes all files added so far, and runs the actions waiting for them.
+     */
+    void flush() {
+        synchronized (mFlushLock) {
+            final List<FileEntry> batch;
+            final long end;
+            synchronized (this) {
+                batch = new ArrayList<>(mFiles);
+                mFiles.clear();
+                end = mSequence;
+            }
+
+            syncAll(batch);
+
+            final List<Runnable> ready = new ArrayList<>();
+            synchronized (this) {
+                for (FileEntry entry : batch) {
+                    if (entry.mError != null) {
+                        mFailures.add(entry.mSequence);
+                    }
+                }
+                mSyncedSequence = end;
+                final Iterator<ActionEntry> actions = mActions.iterator();
+                while (actions.hasNext()) {
+                    final ActionEntry entry = actions.next();
+                    if (entry.mUntil <= end) {
+                        actions.remove();
+                        if (!hasFailedLocked(entry.mSince, entry.mUntil)) {
+                            ready.add(entry.mAction);
+                        }
+                    }
+                }
+            }
+
+            for (FileEntry entry : batch) {
+                if (entry.mError != null) {
+                    entry.mCallback.onSyncFailed(entry.mError);
+                } else {
+                    entry.mOnSynced.run();
+                }
+            }
+            for (Runnable action : ready) {
+                action.run();
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private boolean hasFailedLocked(long since, long until) {
+        final Long failure = mFailures.ceiling(since);
+        return failure != null && failure < until;
+    }
+
+    /**
+     * Syncs and closes the files of a batch in parallel, and waits for all of them.
+     */
+    private static void syncAll(List<FileEntry> batch) {
+        final CountDownLatch synced = new CountDownLatch(batch.size());
+        for (FileEntry entry : batch) {
+            sSyncExecutor.execute(() -> {
+                try {
+                    syncAndClose(entry.mFile);
+                } catch (IOException e) {
+                    entry.mError = e;
+                } finally {
+                    FileUtils.closeQuietly(entry.mFile);
+                    sOpenFiles.decrementAndGet();
+                    synced.countDown();
+                }
+            });
+        }
+
+        // Files must not be reported synced before they are.
+        boolean interrupted = false;
+        while (true) {
+            try {
+                synced.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Syncs a file written to storage and closes it, reporting any error of both.
+     */
+    static void syncAndClose(ParcelFileDescriptor file) throws IOException {
+        // Need to invoke Os#fsync to ensure the file is written to the storage device.
+        try {
+            Os.fsync(file.getFileDescriptor());
+        } catch (ErrnoException error) {
+            // fsync will fail with fd of pipes and return EROFS or EINVAL.
+            if (error.errno != OsConstants.EROFS && error.errno != OsConstants.EINVAL) {
+                throw new SyncFailedException(
+                        "Failed to sync bytes after copying a file.");
+            }
+        }
+
+        // Need to invoke IoUtils.close explicitly to avoid from ignoring errors at flush.
+        try {
+            Os.close(file.getFileDescriptor());
+        } catch (ErrnoException e) {
+            throw new IOException(e);
+        }
+    }
+}
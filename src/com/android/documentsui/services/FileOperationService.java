@@ -508,12 +508,12 @@ public class FileOperationService extends Service implements Job.Listener {
      * we poll states of jobs.
      */
     private final class JobMonitor implements Runnable {
-        private static final long PROGRESS_INTERVAL_MILLIS = 500L;
-
         private final Job mJob;
+        private final long mIntervalMillis;
 
         private JobMonitor(Job job) {
             mJob = job;
+            mIntervalMillis = getResources().getInteger(R.integer.config_progress_interval_millis);
         }
 
         private void start() {
@@ -537,7 +537,7 @@ public class FileOperationService extends Service implements Job.Listener {
                             mJob.getProgressNotification());
                 }
 
-                handler.postDelayed(this, PROGRESS_INTERVAL_MILLIS);
+                handler.postDelayed(this, mIntervalMillis);
             }
         }
     }
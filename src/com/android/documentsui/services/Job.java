@@ -193,18 +193,21 @@ abstract public class Job implements Runnable {
     }
 
     ContentProviderClient getClient(Uri uri) throws RemoteException {
-        ContentProviderClient client = mClients.get(uri.getAuthority());
-        if (client == null) {
-            // Acquire content providers.
-            client = acquireUnstableProviderOrThrow(
-                    getContentResolver(),
-                    uri.getAuthority());
-
-            mClients.put(uri.getAuthority(), client);
-        }
+        // Copies may ask for clients on several threads.
+        synchronized (mClients) {
+            ContentProviderClient client = mClients.get(uri.getAuthority());
+            if (client == null) {
+                // Acquire content providers.
+                client = acquireUnstableProviderOrThrow(
+                        getContentResolver(),
+                        uri.getAuthority());
+
+                mClients.put(uri.getAuthority(), client);
+            }
 
-        assert(client != null);
-        return client;
+            assert(client != null);
+            return client;
+        }
     }
 
     ContentProviderClient getClient(DocumentInfo doc) throws RemoteException {
@@ -212,8 +215,10 @@ abstract public class Job implements Runnable {
     }
 
     final void cleanup() {
-        for (ContentProviderClient client : mClients.values()) {
-            FileUtils.closeQuietly(client);
+        synchronized (mClients) {
+            for (ContentProviderClient client : mClients.values()) {
+                FileUtils.closeQuietly(client);
+            }
         }
     }
 
@@ -239,7 +244,7 @@ abstract public class Job implements Runnable {
         return service.getContentResolver();
     }
 
-    void onFileFailed(DocumentInfo file) {
+    synchronized void onFileFailed(DocumentInfo file) {
         failureCount++;
         failedDocs.add(file);
     }
@@ -177,14 +177,27 @@ final class MoveJob extends CopyJob {
         }
 
         // If we couldn't do an optimized copy...we fall back to vanilla byte copy.
+        final long syncSequence = getSyncSequence();
+        final DocumentInfo topLevelDoc = getTopLevelDocument();
         byteCopyDocument(src, dest);
 
-        // Remove the source document.
-        if(!isCanceled()) {
+        // Remove the source document, once its copy is durable if syncs are deferred.
+        if(!isCanceled() && !runWhenSynced(syncSequence,
+                () -> deleteMovedDocument(src, srcParent, topLevelDoc))) {
             deleteDocument(src, srcParent);
         }
     }
 
+    private void deleteMovedDocument(DocumentInfo src, @Nullable DocumentInfo srcParent,
+            DocumentInfo topLevelDoc) {
+        try {
+            deleteDocument(src, srcParent);
+        } catch (ResourceException e) {
+            Log.e(TAG, "Failed to delete " + src.derivedUri + " after moving it.", e);
+            onFileFailed(topLevelDoc);
+        }
+    }
+
     @Override
     public String toString() {
         return new StringBuilder()
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.documentsui.services;
+
+import android.os.Handler;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.VisibleForTesting;
+
+import com.android.documentsui.services.Job.ProgressTracker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Publishes the progress of a job at a fixed rate. Threads doing the work only update the
+ * tracker, and never wait for the UI; the tracker is sampled on the handler, which also keeps
+ * a short history of samples the remaining time is estimated from.
+ */
+final class ProgressReporter implements Runnable {
+
+    // Samples kept in the history.
+    @VisibleForTesting
+    static final int HISTORY_SIZE = 120;
+
+    /**
+     * Receives progress on the handler thread.
+     */
+    interface Listener {
+        /**
+         * @param progress the progress of the job, between 0 and 1.
+         * @param remainingTime the estimated time left in milliseconds, or -1 if unknown.
+         */
+        void onProgress(double progress, long remainingTime);
+    }
+
+    /**
+     * Amount of data processed at some time.
+     */
+    static final class Sample {
+        final long timeMillis;
+        final long dataProcessed;
+
+        Sample(long timeMillis, long dataProcessed) {
+            this.timeMillis = timeMillis;
+            this.dataProcessed = dataProcessed;
+        }
+    }
+
+    private final Handler mHandler;
+    private final long mIntervalMillis;
+    private final ProgressTracker mTracker;
+    private final LongSupplier mDataProcessed;
+    private final Listener mListener;
+    private final LongSupplier mClock;
+
+    // Ring buffer of the latest samples.
+    @GuardedBy("mHistory")
+    private final Sample[] mHistory = new Sample[HISTORY_SIZE];
+    @GuardedBy("mHistory")
+    private int mHistoryCount;
+
+    // Last published values, only used on the handler thread.
+    private int mPublishedPercent = -1;
+    private long mPublishedRemainingTime = -1;
+    private boolean mStarted;
+
+    /**
+     * @param handler the handler progress is published on.
+     * @param intervalMillis the time between two samples.
+     * @param tracker the tracker progress and remaining time are read from.
+     * @param dataProcessed the amount of data processed so far, in the tracker's unit.
+     * @param listener the listener progress is published to.
+     * @param clock the clock samples are timed with.
+     */
+    ProgressReporter(Handler handler, long intervalMillis, ProgressTracker tracker,
+            LongSupplier dataProcessed, Listener listener, LongSupplier clock) {
+        mHandler = handler;
+        mIntervalMillis = intervalMillis;
+        mTracker = tracker;
+        mDataProcessed = dataProcessed;
+        mListener = listener;
+        mClock = clock;
+    }
+
+    /**
+     * Starts publishing progress on the handler.
+     */
+    void start() {
+        mHandler.post(() -> {
+            mStarted = true;
+            run();
+        });
+    }
+
+    /**
+     * Stops publishing progress once the latest progress is published.
+     */
+    void stop() {
+        mHandler.post(() -> {
+            mStarted = false;
+            mHandler.removeCallbacks(this);
+            publish();
+        });
+    }
+
+    @Override
+    public void run() {
+        if (!mStarted) {
+            return;
+        }
+        publish();
+        mHandler.postDelayed(this, mIntervalMillis);
+    }
+
+    /**
+     * Samples the tracker, and publishes progress if it changed since it was published last.
+     */
+    @VisibleForTesting
+    void publish() {
+        final Sample sample = new Sample(mClock.getAsLong(), mDataProcessed.getAsLong());
+        synchronized (mHistory) {
+            mHistory[mHistoryCount % HISTORY_SIZE] = sample;
+            mHistoryCount++;
+        }
+
+        final double progress = mTracker.getProgress();
+        final int percent = (int) (100 * progress);
+        final long remainingTime = mTracker.getRemainingTimeEstimate();
+        if (percent != mPublishedPercent || remainingTime != mPublishedRemainingTime) {
+            mPublishedPercent = percent;
+            mPublishedRemainingTime = remainingTime;
+            mListener.onProgress(progress, remainingTime);
+        }
+    }
+
+    /**
+     * @return the latest samples, from oldest to newest.
+     */
+    List<Sample> getHistory() {
+        synchronized (mHistory) {
+            final int size = Math.min(mHistoryCount, HISTORY_SIZE);
+            final List<Sample> history = new ArrayList<>(size);
+            for (int i = mHistoryCount - size; i < mHistoryCount; i++) {
+                history.add(mHistory[i % HISTORY_SIZE]);
+            }
+            return history;
+        }
+    }
+
+    /**
+     * Can be called on any thread.
+     *
+     * @return the throughput over the samples in the history in units of data per second, or
+     *         -1 if there are too few samples.
+     */
+    long getThroughput() {
+        final Sample first;
+        final Sample last;
+        synchronized (mHistory) {
+            if (mHistoryCount < 2) {
+                return -1;
+            }
+            first = mHistory[Math.max(mHistoryCount - HISTORY_SIZE, 0) % HISTORY_SIZE];
+            last = mHistory[(mHistoryCount - 1) % HISTORY_SIZE];
+        }
+        final long duration = last.timeMillis - first.timeMillis;
+        return duration > 0 ? (last.dataProcessed - first.dataProcessed) * 1000 / duration : -1;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.documentsui.sorting;
+
+import com.android.documentsui.sorting.SortDimension.SortDirection;
+
+/**
+ * Order of the documents of several cursors that were sorted separately, as the index of the
+ * cursor and the position in it of every document. Immutable, so it can be shared by the
+ * cursors built from it.
+ */
+final class MergedOrder {
+
+    static final MergedOrder EMPTY = new MergedOrder(new int[0], new int[0]);
+
+    final int[] runIndexes;
+    final int[] positions;
+
+    private MergedOrder(int[] runIndexes, int[] positions) {
+        this.runIndexes = runIndexes;
+        this.positions = positions;
+    }
+
+    int getCount() {
+        return positions.length;
+    }
+
+    /**
+     * Merges the sorted positions of one more cursor into this order in a single linear pass.
+     * Documents already in the order go first when they compare equal, so merging cursors one
+     * at a time is stable.
+     *
+     * @param keys sort keys of every cursor, by index.
+     * @param run index of the cursor to merge.
+     * @param sorted positions of the cursor to merge, as sorted by {@link SortKeys#sort}.
+     */
+    MergedOrder merge(SortKeys[] keys, int run, int[] sorted, @SortDirection int direction) {
+        final int count = positions.length;
+        final int[] mergedRuns = new int[count + sorted.length];
+        final int[] mergedPositions = new int[count + sorted.length];
+        final SortKeys runKeys = keys[run];
+
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < count && j < sorted.length) {
+            if (keys[runIndexes[i]].compareTo(positions[i], runKeys, sorted[j], direction) <= 0) {
+                mergedRuns[k] = runIndexes[i];
+                mergedPositions[k++] = positions[i++];
+            } else {
+                mergedRuns[k] = run;
+                mergedPositions[k++] = sorted[j++];
+            }
+        }
+        while (i < count) {
+            mergedRuns[k] = runIndexes[i];
+            mergedPositions[k++] = positions[i++];
+        }
+        while (j < sorted.length) {
+            mergedRuns[k] = run;
+            mergedPositions[k++] = sorted[j++];
+        }
+        return new MergedOrder(mergedRuns, mergedPositions);
+    }
+}
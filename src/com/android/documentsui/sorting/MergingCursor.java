@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.documentsui.sorting;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.util.SparseArray;
+
+import androidx.annotation.Nullable;
+
+import com.android.documentsui.sorting.SortDimension.SortDirection;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cursor that presents several separately sorted cursors, like the results of the roots of a
+ * multi-root query, as one sorted cursor. Columns are the union of the columns of the wrapped
+ * cursors; columns a cursor lacks read as null. Built by {@link RunMerger}.
+ */
+public class MergingCursor extends AbstractCursor {
+    private final Cursor[] mRuns;
+    private final String[] mColumnNames;
+    // Index of every column of this cursor in each wrapped cursor, or -1 if it lacks it.
+    private final int[][] mColumnIndexes;
+
+    // Sort keys of each wrapped cursor, by dimension ID, so that it can be re-sorted without
+    // reading the wrapped cursors again.
+    private final SparseArray<SortKeys>[] mSortKeys;
+    // Merged orders by dimension ID, for each direction.
+    private final SparseArray<MergedOrder> mAscendingOrders = new SparseArray<>();
+    private final SparseArray<MergedOrder> mDescendingOrders = new SparseArray<>();
+
+    private MergedOrder mOrder;
+
+    private Cursor mRun;
+    private int[] mRunColumnIndexes;
+
+    @SuppressWarnings("unchecked")
+    MergingCursor(
+            Cursor[] runs,
+            SortKeys[] keys,
+            int dimensionId,
+            @SortDirection int direction,
+            MergedOrder order) {
+        mRuns = runs;
+        mOrder = order;
+
+        final List<String> columnNames = new ArrayList<>();
+        for (Cursor run : runs) {
+            for (String column : run.getColumnNames()) {
+                if (!columnNames.contains(column)) {
+                    columnNames.add(column);
+                }
+            }
+        }
+        mColumnNames = columnNames.toArray(new String[columnNames.size()]);
+
+        mColumnIndexes = new int[runs.length][mColumnNames.length];
+        mSortKeys = new SparseArray[runs.length];
+        for (int run = 0; run < runs.length; run++) {
+            for (int column = 0; column < mColumnNames.length; column++) {
+                mColumnIndexes[run][column] = runs[run].getColumnIndex(mColumnNames[column]);
+            }
+            mSortKeys[run] = new SparseArray<>();
+            mSortKeys[run].put(dimensionId, keys[run]);
+        }
+        if (direction != SortDimension.SORT_DIRECTION_NONE) {
+            getOrders(direction).put(dimensionId, order);
+        }
+    }
+
+    /**
+     * Re-sorts this cursor by the given dimension, if its wrapped cursors have been sorted by
+     * that dimension before. Each wrapped cursor is sorted again from its cached sort keys and
+     * merged with the others, and the merged order is cached for the next time. Reading the sort
+     * keys of a new dimension is left to a reload, off the main thread.
+     *
+     * @return true if the cursor was re-sorted, false if it has no sort keys for the dimension.
+     */
+    boolean resort(SortDimension dimension) {
+        final int id = dimension.getId();
+        final @SortDirection int direction = dimension.getSortDirection();
+
+        MergedOrder order = getOrders(direction).get(id);
+        if (order == null) {
+            final SortKeys[] keys = new SortKeys[mRuns.length];
+            for (int run = 0; run < mRuns.length; run++) {
+                keys[run] = mSortKeys[run].get(id);
+                if (keys[run] == null) {
+                    return false;
+                }
+            }
+
+            order = MergedOrder.EMPTY;
+            for (int run = 0; run < mRuns.length; run++) {
+                order = order.merge(keys, run, keys[run].sort(direction, false), direction);
+            }
+            getOrders(direction).put(id, order);
+        }
+
+        mOrder = order;
+        // Forces the next move to go through onMove with the new order.
+        moveToPosition(-1);
+        return true;
+    }
+
+    /**
+     * @return for each row in the current order, its position when sorted by the given
+     *     dimension and direction, or null if the cursor is in that order or was never sorted
+     *     by it.
+     */
+    @Nullable int[] getMovesFrom(int dimensionId, @SortDirection int direction) {
+        if (direction == SortDimension.SORT_DIRECTION_NONE) {
+            return null;
+        }
+        final MergedOrder order = getOrders(direction).get(dimensionId);
+        return (order != null && order != mOrder)
+                ? PositionSorter.getMoves(flatten(order), flatten(mOrder))
+                : null;
+    }
+
+    /**
+     * @return the rows of an order as positions in all wrapped cursors one after another.
+     */
+    private int[] flatten(MergedOrder order) {
+        final int[] offsets = new int[mRuns.length];
+        for (int run = 1; run < mRuns.length; run++) {
+            offsets[run] = offsets[run - 1] + mRuns[run - 1].getCount();
+        }
+        final int[] positions = new int[order.getCount()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = offsets[order.runIndexes[i]] + order.positions[i];
+        }
+        return positions;
+    }
+
+    private SparseArray<MergedOrder> getOrders(@SortDirection int direction) {
+        switch (direction) {
+            case SortDimension.SORT_DIRECTION_ASCENDING:
+                return mAscendingOrders;
+            case SortDimension.SORT_DIRECTION_DESCENDING:
+                return mDescendingOrders;
+            default:
+                throw new IllegalArgumentException("Unknown sorting direction: " + direction);
+        }
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        for (Cursor run : mRuns) {
+            run.close();
+        }
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        final int run = mOrder.runIndexes[newPosition];
+        mRun = mRuns[run];
+        mRunColumnIndexes = mColumnIndexes[run];
+        return mRun.moveToPosition(mOrder.positions[newPosition]);
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public int getCount() {
+        return mOrder.getCount();
+    }
+
+    @Override
+    public String getString(int column) {
+        final int index = mRunColumnIndexes[column];
+        return index != -1 ? mRun.getString(index) : null;
+    }
+
+    @Override
+    public long getLong(int column) {
+        final int index = mRunColumnIndexes[column];
+        return index != -1 ? mRun.getLong(index) : 0;
+    }
+
+    @Override
+    public int getInt(int column) {
+        final int index = mRunColumnIndexes[column];
+        return index != -1 ? mRun.getInt(index) : 0;
+    }
+
+    @Override
+    public short getShort(int column) {
+        final int index = mRunColumnIndexes[column];
+        return index != -1 ? mRun.getShort(index) : 0;
+    }
+
+    @Override
+    public float getFloat(int column) {
+        final int index = mRunColumnIndexes[column];
+        return index != -1 ? mRun.getFloat(index) : 0;
+    }
+
+    @Override
+    public double getDouble(int column) {
+        final int index = mRunColumnIndexes[column];
+        return index != -1 ? mRun.getDouble(index) : 0;
+    }
+
+    @Override
+    public int getType(int column) {
+        final int index = mRunColumnIndexes[column];
+        return index != -1 ? mRun.getType(index) : FIELD_TYPE_NULL;
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        final int index = mRunColumnIndexes[column];
+        return index == -1 || mRun.isNull(index);
+    }
+}
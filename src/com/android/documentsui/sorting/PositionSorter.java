@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.documentsui.sorting;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Stable O(n log n) merge sort over an array of cursor positions. Works on primitive ints so
+ * sorting a large directory doesn't box every position. Large directories can be sorted on all
+ * cores with {@link #parallelSort}.
+ */
+final class PositionSorter {
+
+    /**
+     * Runs shorter than this are insertion sorted. Same cutoff as the legacy merge sort in
+     * {@link java.util.Arrays}.
+     */
+    private static final int INSERTION_SORT_THRESHOLD = 7;
+
+    /**
+     * Runs shorter than this are sorted sequentially by a single fork-join task.
+     */
+    private static final int PARALLEL_LEAF_SIZE = 4096;
+
+    private PositionSorter() {}
+
+    /**
+     * Compares two cursor positions.
+     */
+    @FunctionalInterface
+    interface Comparator {
+        int compare(int lhs, int rhs);
+    }
+
+    /**
+     * Sorts {@code positions[from, to)} in place.
+     */
+    static void sort(int[] positions, int from, int to, Comparator comparator) {
+        if (to - from < 2) {
+            return;
+        }
+        final int[] aux = positions.clone();
+        mergeSort(aux, positions, from, to, comparator);
+    }
+
+    /**
+     * Sorts {@code positions[from, to)} in place, splitting the work across the common
+     * fork-join pool. The comparator must be safe to call from multiple threads.
+     */
+    static void parallelSort(int[] positions, int from, int to, Comparator comparator) {
+        if (to - from <= PARALLEL_LEAF_SIZE) {
+            sort(positions, from, to, comparator);
+            return;
+        }
+        final int[] aux = positions.clone();
+        ForkJoinPool.commonPool().invoke(
+                new MergeSortTask(aux, positions, from, to, comparator));
+    }
+
+    /**
+     * Maps one order of the same positions onto another in O(n), without comparing anything.
+     *
+     * @return for each index of {@code to}, the index of the same position in {@code from}.
+     */
+    static int[] getMoves(int[] from, int[] to) {
+        final int[] indexes = new int[from.length];
+        for (int i = 0; i < from.length; i++) {
+            indexes[from[i]] = i;
+        }
+        final int[] moves = new int[to.length];
+        for (int i = 0; i < to.length; i++) {
+            moves[i] = indexes[to[i]];
+        }
+        return moves;
+    }
+
+    /**
+     * Sorts {@code src[low, high)} into {@code dest[low, high)}. Both ranges must hold the same
+     * values on entry; the two arrays swap roles on every level of recursion.
+     */
+    static void mergeSort(int[] src, int[] dest, int low, int high, Comparator comparator) {
+        final int length = high - low;
+
+        if (length < INSERTION_SORT_THRESHOLD) {
+            for (int i = low + 1; i < high; i++) {
+                final int pivot = dest[i];
+                int j = i;
+                while (j > low && comparator.compare(dest[j - 1], pivot) > 0) {
+                    dest[j] = dest[j - 1];
+                    j--;
+                }
+                dest[j] = pivot;
+            }
+            return;
+        }
+
+        final int mid = (low + high) >>> 1;
+        mergeSort(dest, src, low, mid, comparator);
+        mergeSort(dest, src, mid, high, comparator);
+
+        merge(src, dest, low, mid, high, comparator);
+    }
+
+    /**
+     * Merges the sorted runs {@code src[low, mid)} and {@code src[mid, high)} into
+     * {@code dest[low, high)}. Ties are taken from the left run to keep the sort stable.
+     */
+    static void merge(int[] src, int[] dest, int low, int mid, int high, Comparator comparator) {
+        // Already in order, which is common when the provider returns sorted results.
+        if (comparator.compare(src[mid - 1], src[mid]) <= 0) {
+            System.arraycopy(src, low, dest, low, high - low);
+            return;
+        }
+
+        for (int i = low, p = low, q = mid; i < high; i++) {
+            if (q >= high || (p < mid && comparator.compare(src[p], src[q]) <= 0)) {
+                dest[i] = src[p++];
+            } else {
+                dest[i] = src[q++];
+            }
+        }
+    }
+
+    /**
+     * Fork-join version of {@link #mergeSort}. Both halves are sorted in parallel, then merged
+     * by the parent task.
+     */
+    private static final class MergeSortTask extends RecursiveAction {
+        private final int[] mSrc;
+        private final int[] mDest;
+        private final int mLow;
+        private final int mHigh;
+        private final Comparator mComparator;
+
+        private MergeSortTask(int[] src, int[] dest, int low, int high, Comparator comparator) {
+            mSrc = src;
+            mDest = dest;
+            mLow = low;
+            mHigh = high;
+            mComparator = comparator;
+        }
+
+        @Override
+        protected void compute() {
+            if (mHigh - mLow <= PARALLEL_LEAF_SIZE) {
+                mergeSort(mSrc, mDest, mLow, mHigh, mComparator);
+                return;
+            }
+
+            final int mid = (mLow + mHigh) >>> 1;
+            invokeAll(
+                    new MergeSortTask(mDest, mSrc, mLow, mid, mComparator),
+                    new MergeSortTask(mDest, mSrc, mid, mHigh, mComparator));
+            merge(mSrc, mDest, mLow, mid, mHigh, mComparator);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.documentsui.sorting;
+
+import static com.android.documentsui.base.SharedMinimal.VERBOSE;
+
+import android.os.FileUtils;
+import android.util.Log;
+
+import com.android.documentsui.base.ColumnarDocumentsCursor;
+import com.android.documentsui.base.Lookup;
+import com.android.documentsui.sorting.SortDimension.SortDirection;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sorts cursors that arrive one at a time, like the results of the roots of a multi-root query,
+ * into one order. Each cursor is sorted on its own when it is added, and merged with the ones
+ * added before it in a single linear pass, so that documents added before are never sorted
+ * again. Not thread safe, but the cursors it creates may be read on another thread.
+ */
+public final class RunMerger implements Closeable {
+    private static final String TAG = "RunMerger";
+
+    private final Lookup<String, String> mFileTypeLookup;
+    private final int mParallelSortThreshold;
+
+    private final List<ColumnarDocumentsCursor> mRuns = new ArrayList<>();
+    private final List<SortKeys> mKeys = new ArrayList<>();
+    private MergedOrder mOrder = MergedOrder.EMPTY;
+
+    private int mDimensionId = SortModel.SORT_DIMENSION_ID_UNKNOWN;
+    private @SortDirection int mDirection = SortDimension.SORT_DIRECTION_NONE;
+
+    /**
+     * @param parallelSortThreshold cursors with at least this many rows are sorted on all cores.
+     *     Pass {@link SortModel#NO_PARALLEL_SORT} to always sort on the calling thread.
+     */
+    public RunMerger(Lookup<String, String> fileTypeLookup, int parallelSortThreshold) {
+        mFileTypeLookup = fileTypeLookup;
+        mParallelSortThreshold = parallelSortThreshold;
+    }
+
+    /**
+     * Adds the rows of a cursor, which the merger takes ownership of, to the ones added before,
+     * sorted by the currently sorted dimension of the model. If the model is sorted differently
+     * than when rows were last added, the rows added before are sorted again.
+     */
+    public void add(ColumnarDocumentsCursor rows, SortModel sortModel) {
+        sortBy(sortModel.getSortedDimensionId(), sortModel.getCurrentSortDirection());
+
+        mRuns.add(rows);
+        mKeys.add(null);
+        mergeRun(mRuns.size() - 1);
+    }
+
+    private void sortBy(int dimensionId, @SortDirection int direction) {
+        if (dimensionId == mDimensionId && direction == mDirection) {
+            return;
+        }
+        mDimensionId = dimensionId;
+        mDirection = direction;
+
+        mOrder = MergedOrder.EMPTY;
+        for (int run = 0; run < mRuns.size(); run++) {
+            mergeRun(run);
+        }
+    }
+
+    private void mergeRun(int run) {
+        final ColumnarDocumentsCursor rows = mRuns.get(run);
+        final boolean parallel = rows.getCount() >= mParallelSortThreshold;
+        final SortKeys keys = SortKeys.extract(rows, mDimensionId, mFileTypeLookup, parallel);
+        mKeys.set(run, keys);
+        mOrder = mOrder.merge(mKeys.toArray(new SortKeys[mKeys.size()]), run,
+                keys.sort(mDirection, parallel), mDirection);
+
+        if (VERBOSE) {
+            Log.v(TAG, "Merged " + rows.getCount() + " documents into " + mOrder.getCount()
+                    + ".");
+        }
+    }
+
+    /**
+     * @return the number of rows added so far.
+     */
+    public int getCount() {
+        return mOrder.getCount();
+    }
+
+    /**
+     * Returns a cursor over all rows added so far, in sorted order. Rows added later don't show
+     * up in it. The cursor reads rows of its own, and stays readable after the merger is closed.
+     */
+    public MergingCursor createCursor() {
+        final ColumnarDocumentsCursor[] views = new ColumnarDocumentsCursor[mRuns.size()];
+        for (int run = 0; run < views.length; run++) {
+            views[run] = mRuns.get(run).view();
+        }
+        return new MergingCursor(views, mKeys.toArray(new SortKeys[mKeys.size()]),
+                mDimensionId, mDirection, mOrder);
+    }
+
+    @Override
+    public void close() {
+        for (ColumnarDocumentsCursor rows : mRuns) {
+            FileUtils.closeQuietly(rows);
+        }
+        mRuns.clear();
+        mKeys.clear();
+        mOrder = MergedOrder.EMPTY;
+    }
+}
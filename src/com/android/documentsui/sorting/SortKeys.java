@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.documentsui.sorting;
+
+import android.database.Cursor;
+import android.provider.DocumentsContract.Document;
+import android.text.TextUtils;
+
+import androidx.annotation.Nullable;
+
+import com.android.documentsui.base.Lookup;
+import com.android.documentsui.base.Shared;
+import com.android.documentsui.sorting.SortDimension.SortDirection;
+import com.android.documentsui.sorting.SortModel.SortDimensionId;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Sort keys extracted from a cursor in a single pass, so that sorting never has to go back to
+ * the cursor or to the {@link Collator}. Keys are indexed by the original cursor position.
+ */
+final class SortKeys {
+
+    final int count;
+    final boolean[] isDirs;
+    final String[] ids;
+
+    // Only one of these is populated, depending on the data type of the dimension.
+    private final @Nullable long[] mLongValues;
+    private final @Nullable CollationKey[] mStringValues;
+
+    private SortKeys(
+            int count,
+            @Nullable long[] longValues,
+            @Nullable CollationKey[] stringValues) {
+        this.count = count;
+        isDirs = new boolean[count];
+        ids = new String[count];
+        mLongValues = longValues;
+        mStringValues = stringValues;
+    }
+
+    /**
+     * Walks the cursor once and extracts everything needed to sort it by the given dimension.
+     *
+     * @param parallel whether collation keys should be computed on all cores. The cursor itself
+     *     is always read on the calling thread.
+     */
+    static SortKeys extract(
+            Cursor cursor,
+            @SortDimensionId int dimensionId,
+            Lookup<String, String> fileTypeLookup,
+            boolean parallel) {
+        final int count = cursor.getCount();
+        final SortKeys keys;
+        // Strings are copied out of the cursor first, and turned into collation keys afterwards.
+        final String[] strings;
+        switch (dimensionId) {
+            case SortModel.SORT_DIMENSION_ID_TITLE:
+            case SortModel.SORT_DIMENSION_ID_FILE_TYPE:
+                keys = new SortKeys(count, null, new CollationKey[count]);
+                strings = new String[count];
+                break;
+            case SortModel.SORT_DIMENSION_ID_DATE:
+            case SortModel.SORT_DIMENSION_ID_SIZE:
+                keys = new SortKeys(count, new long[count], null);
+                strings = null;
+                break;
+            default:
+                keys = new SortKeys(count, null, null);
+                strings = null;
+                break;
+        }
+
+        // Resolve column indexes once, instead of looking them up by name for every row.
+        final int mimeTypeIndex = cursor.getColumnIndex(Document.COLUMN_MIME_TYPE);
+        final int idIndex = cursor.getColumnIndex(Document.COLUMN_DOCUMENT_ID);
+        final int displayNameIndex = cursor.getColumnIndex(Document.COLUMN_DISPLAY_NAME);
+        final int lastModifiedIndex = cursor.getColumnIndex(Document.COLUMN_LAST_MODIFIED);
+        final int sizeIndex = cursor.getColumnIndex(Document.COLUMN_SIZE);
+
+        cursor.moveToPosition(-1);
+        for (int i = 0; i < count; i++) {
+            cursor.moveToNext();
+
+            final String mimeType = getString(cursor, mimeTypeIndex);
+            keys.isDirs[i] = Document.MIME_TYPE_DIR.equals(mimeType);
+            keys.ids[i] = getString(cursor, idIndex);
+
+            switch (dimensionId) {
+                case SortModel.SORT_DIMENSION_ID_TITLE:
+                    strings[i] = getString(cursor, displayNameIndex);
+                    break;
+                case SortModel.SORT_DIMENSION_ID_FILE_TYPE:
+                    strings[i] = fileTypeLookup.lookup(mimeType);
+                    break;
+                case SortModel.SORT_DIMENSION_ID_DATE:
+                    keys.mLongValues[i] = getLastModified(cursor, lastModifiedIndex);
+                    break;
+                case SortModel.SORT_DIMENSION_ID_SIZE:
+                    keys.mLongValues[i] = getLong(cursor, sizeIndex);
+                    break;
+            }
+        }
+
+        if (strings != null) {
+            if (parallel) {
+                ForkJoinPool.commonPool().invoke(
+                        new CollationKeysTask(strings, keys.mStringValues, 0, count));
+            } else {
+                computeCollationKeys(strings, keys.mStringValues, 0, count);
+            }
+        }
+
+        return keys;
+    }
+
+    /**
+     * @return true if the dimension these keys were extracted for can be sorted at all.
+     */
+    boolean isSortable() {
+        return mLongValues != null || mStringValues != null;
+    }
+
+    /**
+     * Compares two documents, identified by their original cursor positions, by the sort key
+     * only. Directory bucketing is left to the caller.
+     */
+    int compareValues(int lhs, int rhs) {
+        return compareValues(this, lhs, this, rhs);
+    }
+
+    private static int compareValues(SortKeys lhsKeys, int lhs, SortKeys rhsKeys, int rhs) {
+        if (lhsKeys.mLongValues != null) {
+            return Long.compare(lhsKeys.mLongValues[lhs], rhsKeys.mLongValues[rhs]);
+        }
+
+        // Empty strings are represented as null keys and, like in
+        // Shared#compareToIgnoreCaseNullable, go before everything else.
+        final CollationKey lhsKey = lhsKeys.mStringValues[lhs];
+        final CollationKey rhsKey = rhsKeys.mStringValues[rhs];
+        if (lhsKey == null) {
+            return rhsKey == null ? 0 : -1;
+        }
+        if (rhsKey == null) {
+            return 1;
+        }
+        return lhsKey.compareTo(rhsKey);
+    }
+
+    /**
+     * Compares two documents by their document IDs. Used as a tie breaker to achieve stable sort
+     * results even if incoming items are continually shuffling and have identical sort keys. One
+     * common example of this scenario is seen when sorting a set of active downloads by mod time.
+     */
+    int compareIds(int lhs, int rhs) {
+        return compareIds(this, lhs, this, rhs);
+    }
+
+    private static int compareIds(SortKeys lhsKeys, int lhs, SortKeys rhsKeys, int rhs) {
+        final String lhsId = lhsKeys.ids[lhs];
+        final String rhsId = rhsKeys.ids[rhs];
+        if (lhsId == null) {
+            return rhsId == null ? 0 : -1;
+        }
+        if (rhsId == null) {
+            return 1;
+        }
+        return lhsId.compareTo(rhsId);
+    }
+
+    /**
+     * Compares a document of these keys with a document of keys extracted from another cursor
+     * for the same dimension, in the order {@link #sort} puts them in: directories first, then
+     * by sort key in the given direction, then by document ID. Used to merge cursors that were
+     * sorted separately.
+     */
+    int compareTo(int lhs, SortKeys other, int rhs, @SortDirection int direction) {
+        if (!isSortable()) {
+            // Unsorted cursors are simply concatenated.
+            return 0;
+        }
+
+        if (isDirs[lhs] != other.isDirs[rhs]) {
+            return isDirs[lhs] ? -1 : 1;
+        }
+
+        final int compare = (direction == SortDimension.SORT_DIRECTION_DESCENDING)
+                ? compareValues(other, rhs, this, lhs)
+                : compareValues(this, lhs, other, rhs);
+        if (compare != 0) {
+            return compare;
+        }
+        return compareIds(this, lhs, other, rhs);
+    }
+
+    /**
+     * Returns a comparator of original cursor positions for the given direction. Direction only
+     * applies to the sort key; document ID tie breaking is always ascending.
+     */
+    PositionSorter.Comparator comparator(@SortDirection int direction) {
+        switch (direction) {
+            case SortDimension.SORT_DIRECTION_ASCENDING:
+                return (lhs, rhs) -> {
+                    final int compare = compareValues(lhs, rhs);
+                    return compare != 0 ? compare : compareIds(lhs, rhs);
+                };
+            case SortDimension.SORT_DIRECTION_DESCENDING:
+                return (lhs, rhs) -> {
+                    final int compare = compareValues(rhs, lhs);
+                    return compare != 0 ? compare : compareIds(lhs, rhs);
+                };
+            default:
+                throw new IllegalArgumentException("Unknown sorting direction: " + direction);
+        }
+    }
+
+    /**
+     * Sorts the documents and returns their original cursor positions in sorted order.
+     * Directories always go in front.
+     *
+     * @param parallel whether to sort with a fork-join merge sort on all cores.
+     */
+    int[] sort(@SortDirection int direction, boolean parallel) {
+        final int[] positions = new int[count];
+        if (!isSortable()) {
+            for (int i = 0; i < count; i++) {
+                positions[i] = i;
+            }
+            return positions;
+        }
+
+        final int dirCount = partitionDirs(positions);
+        final PositionSorter.Comparator comparator = comparator(direction);
+        if (parallel) {
+            PositionSorter.parallelSort(positions, 0, dirCount, comparator);
+            PositionSorter.parallelSort(positions, dirCount, count, comparator);
+        } else {
+            PositionSorter.sort(positions, 0, dirCount, comparator);
+            PositionSorter.sort(positions, dirCount, count, comparator);
+        }
+        return positions;
+    }
+
+    /**
+     * Turns positions sorted in one direction into positions sorted in the opposite direction in
+     * O(n), without comparing sort keys across documents. Directories stay in front and documents
+     * with equal sort keys stay ordered by document ID, exactly as {@link #sort} would order them.
+     */
+    int[] reverse(int[] positions) {
+        final int[] reversed = new int[count];
+        if (!isSortable()) {
+            System.arraycopy(positions, 0, reversed, 0, count);
+            return reversed;
+        }
+
+        int dirCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (isDirs[i]) {
+                dirCount++;
+            }
+        }
+
+        reverseRange(positions, reversed, 0, dirCount);
+        reverseRange(positions, reversed, dirCount, count);
+        return reversed;
+    }
+
+    private void reverseRange(int[] src, int[] dest, int from, int to) {
+        for (int i = from; i < to; i++) {
+            dest[i] = src[to - 1 - (i - from)];
+        }
+
+        // Ties are always broken by ascending document ID, so runs of equal keys have to be
+        // flipped back.
+        int runStart = from;
+        for (int i = from + 1; i <= to; i++) {
+            if (i == to || compareValues(dest[runStart], dest[i]) != 0) {
+                for (int lo = runStart, hi = i - 1; lo < hi; lo++, hi--) {
+                    final int tmp = dest[lo];
+                    dest[lo] = dest[hi];
+                    dest[hi] = tmp;
+                }
+                runStart = i;
+            }
+        }
+    }
+
+    /**
+     * Fills positions with directories first, then everything else, each in original order.
+     *
+     * @return number of directories
+     */
+    int partitionDirs(int[] positions) {
+        int dirCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (isDirs[i]) {
+                dirCount++;
+            }
+        }
+
+        int dirIndex = 0;
+        int fileIndex = dirCount;
+        for (int i = 0; i < count; i++) {
+            if (isDirs[i]) {
+                positions[dirIndex++] = i;
+            } else {
+                positions[fileIndex++] = i;
+            }
+        }
+        return dirCount;
+    }
+
+    private static void computeCollationKeys(
+            String[] strings, CollationKey[] collationKeys, int from, int to) {
+        final Collator collator = Shared.newCollator();
+        for (int i = from; i < to; i++) {
+            final String value = strings[i];
+            collationKeys[i] = TextUtils.isEmpty(value) ? null : collator.getCollationKey(value);
+        }
+    }
+
+    private static @Nullable String getString(Cursor cursor, int columnIndex) {
+        return (columnIndex != -1) ? cursor.getString(columnIndex) : null;
+    }
+
+    /**
+     * Same as DocumentInfo#getCursorLong, but with a resolved column index. Missing or null
+     * values are returned as -1.
+     */
+    private static long getLong(Cursor cursor, int columnIndex) {
+        final String value = getString(cursor, columnIndex);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return Timestamp for the given document. Some docs (e.g. active downloads) have a null
+     * timestamp - these will be replaced with MAX_LONG so that such files get sorted to the top
+     * when sorting descending by date.
+     */
+    private static long getLastModified(Cursor cursor, int columnIndex) {
+        long l = getLong(cursor, columnIndex);
+        return (l == -1) ? Long.MAX_VALUE : l;
+    }
+
+    /**
+     * Computes collation keys for a range of strings, splitting it across the fork-join pool.
+     * Every leaf uses its own {@link Collator}, since collators aren't thread safe.
+     */
+    private static final class CollationKeysTask extends RecursiveAction {
+        private static final int LEAF_SIZE = 1024;
+
+        private final String[] mStrings;
+        private final CollationKey[] mCollationKeys;
+        private final int mFrom;
+        private final int mTo;
+
+        private CollationKeysTask(
+                String[] strings, CollationKey[] collationKeys, int from, int to) {
+            mStrings = strings;
+            mCollationKeys = collationKeys;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom <= LEAF_SIZE) {
+                computeCollationKeys(mStrings, mCollationKeys, mFrom, mTo);
+                return;
+            }
+            final int mid = (mFrom + mTo) >>> 1;
+            invokeAll(
+                    new CollationKeysTask(mStrings, mCollationKeys, mFrom, mid),
+                    new CollationKeysTask(mStrings, mCollationKeys, mid, mTo));
+        }
+    }
+}
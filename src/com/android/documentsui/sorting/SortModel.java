@@ -90,6 +90,11 @@ public class SortModel implements Parcelable {
      */
     public static final int UPDATE_TYPE_UNSPECIFIED = -1;
 
+    /**
+     * Parallel sort threshold that disables parallel sorting.
+     */
+    public static final int NO_PARALLEL_SORT = Integer.MAX_VALUE;
+
     private static final String TAG = "SortModel";
 
     private final SparseArray<SortDimension> mDimensions;
@@ -228,13 +233,69 @@ public class SortModel implements Parcelable {
     }
 
     public Cursor sortCursor(Cursor cursor, Lookup<String, String> fileTypesMap) {
+        return sortCursor(cursor, fileTypesMap, NO_PARALLEL_SORT);
+    }
+
+    /**
+     * Sorts the cursor by the currently sorted dimension.
+     *
+     * @param parallelSortThreshold cursors with at least this many rows are sorted on all cores.
+     *     Pass {@link #NO_PARALLEL_SORT} to always sort on the calling thread.
+     */
+    public Cursor sortCursor(
+            Cursor cursor, Lookup<String, String> fileTypesMap, int parallelSortThreshold) {
         if (mSortedDimension != null) {
-            return new SortingCursorWrapper(cursor, mSortedDimension, fileTypesMap);
+            final boolean parallel = cursor.getCount() >= parallelSortThreshold;
+            if (DEBUG && parallel) {
+                Log.d(TAG, "Sorting " + cursor.getCount() + " documents in parallel.");
+            }
+            return new SortingCursorWrapper(cursor, mSortedDimension, fileTypesMap, parallel);
         } else {
             return cursor;
         }
     }
 
+    /**
+     * Re-sorts a cursor previously returned by {@link #sortCursor}, or created by a
+     * {@link RunMerger}, by the currently sorted dimension. Only cursors which already hold the
+     * sort keys of that dimension are re-sorted, which is cheap enough for the main thread;
+     * anything else is left to a reload.
+     *
+     * @return true if the cursor was re-sorted, false if it needs to be reloaded instead.
+     */
+    public boolean resortCursor(Cursor cursor) {
+        if (mSortedDimension == null) {
+            return false;
+        }
+
+        if (cursor instanceof SortingCursorWrapper) {
+            return ((SortingCursorWrapper) cursor).resort(mSortedDimension);
+        }
+        if (cursor instanceof MergingCursor) {
+            return ((MergingCursor) cursor).resort(mSortedDimension);
+        }
+        return false;
+    }
+
+    /**
+     * Maps the rows of a cursor previously returned by {@link #sortCursor}, or created by a
+     * {@link RunMerger}, from an order it was sorted in before to the one it is in now. Whatever
+     * was read from the cursor in that order can then be reordered without reading it again.
+     *
+     * @return for each row in the current order, its position when sorted by the given dimension
+     *     and direction, or null if the cursor is in that order or was never sorted by it.
+     */
+    public static @Nullable int[] getMovesFrom(
+            Cursor cursor, int dimensionId, @SortDirection int direction) {
+        if (cursor instanceof SortingCursorWrapper) {
+            return ((SortingCursorWrapper) cursor).getMovesFrom(dimensionId, direction);
+        }
+        if (cursor instanceof MergingCursor) {
+            return ((MergingCursor) cursor).getMovesFrom(dimensionId, direction);
+        }
+        return null;
+    }
+
     public void addQuerySortArgs(Bundle queryArgs) {
         // should only be called when R.bool.feature_content_paging is true
 
@@ -16,17 +16,16 @@
 
 package com.android.documentsui.sorting;
 
-import static com.android.documentsui.base.DocumentInfo.getCursorLong;
-import static com.android.documentsui.base.DocumentInfo.getCursorString;
-
 import android.database.AbstractCursor;
 import android.database.Cursor;
 import android.os.Bundle;
 import android.provider.DocumentsContract.Document;
+import android.util.SparseArray;
+
+import androidx.annotation.Nullable;
 
 import com.android.documentsui.base.Lookup;
-import com.android.documentsui.base.Shared;
-import com.android.documentsui.sorting.SortModel.SortDimensionId;
+import com.android.documentsui.sorting.SortDimension.SortDirection;
 
 /**
  * Cursor wrapper that presents a sorted view of the underlying cursor. Handles
@@ -35,70 +34,100 @@ import com.android.documentsui.sorting.SortModel.SortDimensionId;
 class SortingCursorWrapper extends AbstractCursor {
     private final Cursor mCursor;
 
-    private final int[] mPosition;
+    // Sort keys and sorted positions of every dimension this cursor has been sorted by, so that
+    // it can be re-sorted without querying the provider again.
+    private final SparseArray<SortKeys> mSortKeys = new SparseArray<>();
+    private final SparseArray<int[]> mAscendingPositions = new SparseArray<>();
+    private final SparseArray<int[]> mDescendingPositions = new SparseArray<>();
+
+    private int[] mPosition;
 
     public SortingCursorWrapper(
             Cursor cursor, SortDimension dimension, Lookup<String, String> fileTypeLookup) {
-        mCursor = cursor;
+        this(cursor, dimension, fileTypeLookup, false);
+    }
 
-        final int count = cursor.getCount();
-        mPosition = new int[count];
-        boolean[] isDirs = new boolean[count];
-        String[] stringValues = null;
-        long[] longValues = null;
-        String[] ids = new String[count];
+    /**
+     * @param parallel whether sort keys should be extracted and sorted on all cores. Only worth
+     *     it for large cursors.
+     */
+    public SortingCursorWrapper(
+            Cursor cursor,
+            SortDimension dimension,
+            Lookup<String, String> fileTypeLookup,
+            boolean parallel) {
+        mCursor = cursor;
 
-        final @SortDimensionId int id = dimension.getId();
-        switch (id) {
-            case SortModel.SORT_DIMENSION_ID_TITLE:
-            case SortModel.SORT_DIMENSION_ID_FILE_TYPE:
-                stringValues = new String[count];
-                break;
-            case SortModel.SORT_DIMENSION_ID_DATE:
-            case SortModel.SORT_DIMENSION_ID_SIZE:
-                longValues = new long[count];
-                break;
-        }
+        final SortKeys keys =
+                SortKeys.extract(cursor, dimension.getId(), fileTypeLookup, parallel);
+        mPosition = keys.sort(dimension.getSortDirection(), parallel);
 
-        cursor.moveToPosition(-1);
-        for (int i = 0; i < count; i++) {
-            cursor.moveToNext();
-            mPosition[i] = i;
+        mSortKeys.put(dimension.getId(), keys);
+        getPositionsCache(dimension.getSortDirection()).put(dimension.getId(), mPosition);
+    }
 
-            final String mimeType = getCursorString(mCursor, Document.COLUMN_MIME_TYPE);
-            isDirs[i] = Document.MIME_TYPE_DIR.equals(mimeType);
-            ids[i] = getCursorString(mCursor, Document.COLUMN_DOCUMENT_ID);
+    /**
+     * Re-sorts this cursor by the given dimension, if it has been sorted by that dimension
+     * before. Flipping the direction is a linear reversal, and going back to a direction sorted
+     * before only swaps the cached order. Reading the sort keys of a new dimension takes as long
+     * as a fresh sort, so that is left to the loader, off the main thread.
+     *
+     * @return true if the cursor was re-sorted, false if it has no sort keys for the dimension.
+     */
+    boolean resort(SortDimension dimension) {
+        final int id = dimension.getId();
+        final @SortDirection int direction = dimension.getSortDirection();
 
-            switch(id) {
-                case SortModel.SORT_DIMENSION_ID_TITLE:
-                    final String displayName = getCursorString(
-                            mCursor, Document.COLUMN_DISPLAY_NAME);
-                    stringValues[i] = displayName;
-                    break;
-                case SortModel.SORT_DIMENSION_ID_FILE_TYPE:
-                    stringValues[i] = fileTypeLookup.lookup(mimeType);
-                    break;
-                case SortModel.SORT_DIMENSION_ID_DATE:
-                    longValues[i] = getLastModified(mCursor);
-                    break;
-                case SortModel.SORT_DIMENSION_ID_SIZE:
-                    longValues[i] = getCursorLong(mCursor, Document.COLUMN_SIZE);
-                    break;
-            }
+        final SortKeys keys = mSortKeys.get(id);
+        if (keys == null) {
+            return false;
+        }
 
+        int[] positions = getPositionsCache(direction).get(id);
+        if (positions == null) {
+            final int[] opposite = getPositionsCache(getOppositeDirection(direction)).get(id);
+            positions = (opposite != null)
+                    ? keys.reverse(opposite)
+                    : keys.sort(direction, false);
+            getPositionsCache(direction).put(id, positions);
         }
 
-        switch (id) {
-            case SortModel.SORT_DIMENSION_ID_TITLE:
-            case SortModel.SORT_DIMENSION_ID_FILE_TYPE:
-                binarySort(stringValues, isDirs, mPosition, ids, dimension.getSortDirection());
-                break;
-            case SortModel.SORT_DIMENSION_ID_DATE:
-            case SortModel.SORT_DIMENSION_ID_SIZE:
-                binarySort(longValues, isDirs, mPosition, ids, dimension.getSortDirection());
-                break;
+        mPosition = positions;
+        // Forces the next move to go through onMove with the new order.
+        moveToPosition(-1);
+        return true;
+    }
+
+    /**
+     * @return for each row in the current order, its position when sorted by the given
+     *     dimension and direction, or null if the cursor is in that order or was never sorted
+     *     by it.
+     */
+    @Nullable int[] getMovesFrom(int dimensionId, @SortDirection int direction) {
+        if (direction == SortDimension.SORT_DIRECTION_NONE) {
+            return null;
         }
+        final int[] positions = getPositionsCache(direction).get(dimensionId);
+        return (positions != null && positions != mPosition)
+                ? PositionSorter.getMoves(positions, mPosition)
+                : null;
+    }
+
+    private SparseArray<int[]> getPositionsCache(@SortDirection int direction) {
+        switch (direction) {
+            case SortDimension.SORT_DIRECTION_ASCENDING:
+                return mAscendingPositions;
+            case SortDimension.SORT_DIRECTION_DESCENDING:
+                return mDescendingPositions;
+            default:
+                throw new IllegalArgumentException("Unknown sorting direction: " + direction);
+        }
+    }
 
+    private static @SortDirection int getOppositeDirection(@SortDirection int direction) {
+        return direction == SortDimension.SORT_DIRECTION_ASCENDING
+                ? SortDimension.SORT_DIRECTION_DESCENDING
+                : SortDimension.SORT_DIRECTION_ASCENDING;
     }
 
     @Override
@@ -166,183 +195,4 @@ class SortingCursorWrapper extends AbstractCursor {
     public Bundle getExtras() {
         return mCursor.getExtras();
     }
-
-    /**
-     * @return Timestamp for the given document. Some docs (e.g. active downloads) have a null
-     * timestamp - these will be replaced with MAX_LONG so that such files get sorted to the top
-     * when sorting descending by date.
-     */
-    private static long getLastModified(Cursor cursor) {
-        long l = getCursorLong(cursor, Document.COLUMN_LAST_MODIFIED);
-        return (l == -1) ? Long.MAX_VALUE : l;
-    }
-
-    /**
-     * Borrowed from TimSort.binarySort(), but modified to sort two column
-     * dataset.
-     */
-    private static void binarySort(
-            String[] sortKey,
-            boolean[] isDirs,
-            int[] positions,
-            String[] ids,
-            @SortDimension.SortDirection int direction) {
-        final int count = positions.length;
-        for (int start = 1; start < count; start++) {
-            final int pivotPosition = positions[start];
-            final String pivotValue = sortKey[start];
-            final boolean pivotIsDir = isDirs[start];
-            final String pivotId = ids[start];
-
-            int left = 0;
-            int right = start;
-
-            while (left < right) {
-                int mid = (left + right) >>> 1;
-
-                // Directories always go in front.
-                int compare = 0;
-                final boolean rhsIsDir = isDirs[mid];
-                if (pivotIsDir && !rhsIsDir) {
-                    compare = -1;
-                } else if (!pivotIsDir && rhsIsDir) {
-                    compare = 1;
-                } else {
-                    final String lhs = pivotValue;
-                    final String rhs = sortKey[mid];
-                    switch (direction) {
-                        case SortDimension.SORT_DIRECTION_ASCENDING:
-                            compare = Shared.compareToIgnoreCaseNullable(lhs, rhs);
-                            break;
-                        case SortDimension.SORT_DIRECTION_DESCENDING:
-                            compare = -Shared.compareToIgnoreCaseNullable(lhs, rhs);
-                            break;
-                        default:
-                            throw new IllegalArgumentException(
-                                    "Unknown sorting direction: " + direction);
-                    }
-                }
-
-                // Use document ID as a tie breaker to achieve stable sort result.
-                if (compare == 0) {
-                    compare = pivotId.compareTo(ids[mid]);
-                }
-
-                if (compare < 0) {
-                    right = mid;
-                } else {
-                    left = mid + 1;
-                }
-            }
-
-            int n = start - left;
-            switch (n) {
-                case 2:
-                    positions[left + 2] = positions[left + 1];
-                    sortKey[left + 2] = sortKey[left + 1];
-                    isDirs[left + 2] = isDirs[left + 1];
-                case 1:
-                    positions[left + 1] = positions[left];
-                    sortKey[left + 1] = sortKey[left];
-                    isDirs[left + 1] = isDirs[left];
-                    break;
-                default:
-                    System.arraycopy(positions, left, positions, left + 1, n);
-                    System.arraycopy(sortKey, left, sortKey, left + 1, n);
-                    System.arraycopy(isDirs, left, isDirs, left + 1, n);
-            }
-
-            positions[left] = pivotPosition;
-            sortKey[left] = pivotValue;
-            isDirs[left] = pivotIsDir;
-        }
-    }
-
-    /**
-     * Borrowed from TimSort.binarySort(), but modified to sort two column
-     * dataset.
-     */
-    private static void binarySort(
-            long[] sortKey,
-            boolean[] isDirs,
-            int[] positions,
-            String[] ids,
-            @SortDimension.SortDirection int direction) {
-        final int count = positions.length;
-        for (int start = 1; start < count; start++) {
-            final int pivotPosition = positions[start];
-            final long pivotValue = sortKey[start];
-            final boolean pivotIsDir = isDirs[start];
-            final String pivotId = ids[start];
-
-            int left = 0;
-            int right = start;
-
-            while (left < right) {
-                int mid = ((left + right) >>> 1);
-
-                // Directories always go in front.
-                int compare = 0;
-                final boolean rhsIsDir = isDirs[mid];
-                if (pivotIsDir && !rhsIsDir) {
-                    compare = -1;
-                } else if (!pivotIsDir && rhsIsDir) {
-                    compare = 1;
-                } else {
-                    final long lhs = pivotValue;
-                    final long rhs = sortKey[mid];
-                    switch (direction) {
-                        case SortDimension.SORT_DIRECTION_ASCENDING:
-                            compare = Long.compare(lhs, rhs);
-                            break;
-                        case SortDimension.SORT_DIRECTION_DESCENDING:
-                            compare = -Long.compare(lhs, rhs);
-                            break;
-                        default:
-                            throw new IllegalArgumentException(
-                                    "Unknown sorting direction: " + direction);
-                    }
-                }
-
-                // If numerical comparison yields a tie, use document ID as a tie breaker.  This
-                // will yield stable results even if incoming items are continually shuffling and
-                // have identical numerical sort keys.  One common example of this scenario is seen
-                // when sorting a set of active downloads by mod time.
-                if (compare == 0) {
-                    compare = pivotId.compareTo(ids[mid]);
-                }
-
-                if (compare < 0) {
-                    right = mid;
-                } else {
-                    left = mid + 1;
-                }
-            }
-
-            int n = start - left;
-            switch (n) {
-                case 2:
-                    positions[left + 2] = positions[left + 1];
-                    sortKey[left + 2] = sortKey[left + 1];
-                    isDirs[left + 2] = isDirs[left + 1];
-                    ids[left + 2] = ids[left + 1];
-                case 1:
-                    positions[left + 1] = positions[left];
-                    sortKey[left + 1] = sortKey[left];
-                    isDirs[left + 1] = isDirs[left];
-                    ids[left + 1] = ids[left];
-                    break;
-                default:
-                    System.arraycopy(positions, left, positions, left + 1, n);
-                    System.arraycopy(sortKey, left, sortKey, left + 1, n);
-                    System.arraycopy(isDirs, left, isDirs, left + 1, n);
-                    System.arraycopy(ids, left, ids, left + 1, n);
-            }
-
-            positions[left] = pivotPosition;
-            sortKey[left] = pivotValue;
-            isDirs[left] = pivotIsDir;
-            ids[left] = pivotId;
-        }
-    }
 }
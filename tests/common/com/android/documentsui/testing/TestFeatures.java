@@ -25,17 +25,25 @@ public class TestFeatures implements Features {
     public boolean commandProcessor = true;
     public boolean contentPaging = true;
     public boolean contentRefresh = true;
+    public boolean deferredSync = true;
     public boolean debugSupport = true;
+    public boolean diskThumbnailCache = true;
     public boolean foldersInSearchResults = true;
     public boolean gestureScale = true;
+    public boolean incrementalUpdates = true;
     public boolean inspector = true;
     public boolean jobProgressDialog = false;
     public boolean launchToDocument = true;
     public boolean notificationChannel = true;
     public boolean overwriteConfirmation = true;
+    public boolean parallelCopy = true;
+    public boolean parallelSort = true;
     public boolean remoteActions = true;
+    public boolean smoothedCopyEstimate = true;
     public boolean systemKeyboardNavigation = true;
+    public boolean thumbnailPrefetch = true;
     public boolean virtualFilesSharing = true;
+    public boolean warmStartRoots = true;
     public boolean forceDefaultRoot = false;
 
     @Override
@@ -58,11 +66,21 @@ public class TestFeatures implements Features {
         return contentRefresh;
     }
 
+    @Override
+    public boolean isDeferredSyncEnabled() {
+        return deferredSync;
+    }
+
     @Override
     public boolean isDebugSupportEnabled() {
         return debugSupport;
     }
 
+    @Override
+    public boolean isDiskThumbnailCacheEnabled() {
+        return diskThumbnailCache;
+    }
+
     @Override
     public boolean isFoldersInSearchResultsEnabled() {
         return foldersInSearchResults;
@@ -78,6 +96,11 @@ public class TestFeatures implements Features {
         return gestureScale;
     }
 
+    @Override
+    public boolean isIncrementalUpdatesEnabled() {
+        return incrementalUpdates;
+    }
+
     @Override
     public boolean isInspectorEnabled() {
         return inspector;
@@ -98,21 +121,46 @@ public class TestFeatures implements Features {
         return overwriteConfirmation;
     }
 
+    @Override
+    public boolean isParallelCopyEnabled() {
+        return parallelCopy;
+    }
+
+    @Override
+    public boolean isParallelSortEnabled() {
+        return parallelSort;
+    }
+
     @Override
     public boolean isRemoteActionsEnabled() {
         return remoteActions;
     }
 
+    @Override
+    public boolean isSmoothedCopyEstimateEnabled() {
+        return smoothedCopyEstimate;
+    }
+
     @Override
     public boolean isSystemKeyboardNavigationEnabled() {
         return systemKeyboardNavigation;
     }
 
+    @Override
+    public boolean isThumbnailPrefetchEnabled() {
+        return thumbnailPrefetch;
+    }
+
     @Override
     public boolean isVirtualFilesSharingEnabled() {
         return virtualFilesSharing;
     }
 
+    @Override
+    public boolean isWarmStartRootsEnabled() {
+        return warmStartRoots;
+    }
+
     @Override
     public boolean isDefaultRootInBrowseEnabled() {
         return forceDefaultRoot;
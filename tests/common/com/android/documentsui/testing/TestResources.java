@@ -17,12 +17,14 @@
 package com.android.documentsui.testing;
 
 import androidx.annotation.BoolRes;
+import androidx.annotation.IntegerRes;
 import androidx.annotation.NonNull;
 import androidx.annotation.PluralsRes;
 import androidx.annotation.StringRes;
 import android.content.res.Resources;
 import android.util.SparseArray;
 import android.util.SparseBooleanArray;
+import android.util.SparseIntArray;
 
 import com.android.documentsui.R;
 import com.android.documentsui.files.QuickViewIntentBuilder;
@@ -38,6 +40,7 @@ import javax.annotation.Nullable;
 public abstract class TestResources extends Resources {
 
     public SparseBooleanArray bools;
+    public SparseIntArray ints;
     public SparseArray<String> strings;
     public SparseArray<String> plurals;
 
@@ -49,6 +52,7 @@ public abstract class TestResources extends Resources {
         TestResources res = Mockito.mock(
                 TestResources.class, Mockito.CALLS_REAL_METHODS);
         res.bools = new SparseBooleanArray();
+        res.ints = new SparseIntArray();
         res.strings = new SparseArray<>();
         res.plurals = new SparseArray<>();
 
@@ -80,6 +84,11 @@ public abstract class TestResources extends Resources {
         return bools.get(id);
     }
 
+    @Override
+    public final int getInteger(@IntegerRes int id) throws NotFoundException {
+        return ints.get(id);
+    }
+
     @Override
     public final @Nullable String getString(@StringRes int id) throws NotFoundException {
         return strings.get(id);
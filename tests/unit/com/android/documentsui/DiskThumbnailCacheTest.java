@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.documentsui;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.net.Uri;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.documentsui.testing.Bitmaps;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class DiskThumbnailCacheTest {
+
+    private static final Uri URI_0 = Uri.parse("content://authority/document/0");
+    private static final Uri URI_1 = Uri.parse("content://authority/document/1");
+
+    private static final Point SIZE = new Point(8, 8);
+    private static final long LAST_MODIFIED = 100;
+
+    private static final long MAX_SIZE_BYTES = 1024 * 1024;
+
+    private File mDir;
+    private DiskThumbnailCache mCache;
+
+    @Before
+    public void setUp() {
+        mDir = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "thumbnails_test");
+        mCache = new DiskThumbnailCache(mDir, MAX_SIZE_BYTES, Runnable::run);
+    }
+
+    @After
+    public void tearDown() {
+        mCache.clear();
+        mDir.delete();
+    }
+
+    @Test
+    public void testHit() {
+        mCache.putThumbnail(URI_0, SIZE, Bitmaps.createTestBitmap(8, 8), LAST_MODIFIED);
+
+        final Bitmap thumbnail = mCache.getThumbnail(URI_0, SIZE, LAST_MODIFIED);
+
+        assertNotNull(thumbnail);
+        assertEquals(8, thumbnail.getWidth());
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(0, mCache.getMissCount());
+    }
+
+    @Test
+    public void testMiss_otherUri() {
+        mCache.putThumbnail(URI_0, SIZE, Bitmaps.createTestBitmap(8, 8), LAST_MODIFIED);
+
+        assertNull(mCache.getThumbnail(URI_1, SIZE, LAST_MODIFIED));
+        assertEquals(1, mCache.getMissCount());
+    }
+
+    @Test
+    public void testMiss_otherSize() {
+        mCache.putThumbnail(URI_0, SIZE, Bitmaps.createTestBitmap(8, 8), LAST_MODIFIED);
+
+        assertNull(mCache.getThumbnail(URI_0, new Point(16, 16), LAST_MODIFIED));
+    }
+
+    @Test
+    public void testMiss_modified() {
+        mCache.putThumbnail(URI_0, SIZE, Bitmaps.createTestBitmap(8, 8), LAST_MODIFIED);
+
+        assertNull(mCache.getThumbnail(URI_0, SIZE, LAST_MODIFIED + 1));
+    }
+
+    @Test
+    public void testPersists() {
+        mCache.putThumbnail(URI_0, SIZE, Bitmaps.createTestBitmap(8, 8), LAST_MODIFIED);
+
+        final DiskThumbnailCache reopened =
+                new DiskThumbnailCache(mDir, MAX_SIZE_BYTES, Runnable::run);
+
+        assertNotNull(reopened.getThumbnail(URI_0, SIZE, LAST_MODIFIED));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        mCache.putThumbnail(URI_0, SIZE, Bitmaps.createTestBitmap(8, 8), LAST_MODIFIED);
+        final long thumbnailSize = mCache.getSizeBytes();
+
+        // Room for two thumbnails.
+        mCache = new DiskThumbnailCache(mDir, thumbnailSize * 2, Runnable::run);
+        mCache.putThumbnail(URI_1, SIZE, Bitmaps.createTestBitmap(8, 8), LAST_MODIFIED);
+        assertNotNull(mCache.getThumbnail(URI_0, SIZE, LAST_MODIFIED));
+        mCache.putThumbnail(URI_0, SIZE, Bitmaps.createTestBitmap(8, 8), LAST_MODIFIED + 1);
+
+        assertNotNull(mCache.getThumbnail(URI_0, SIZE, LAST_MODIFIED));
+        assertNull(mCache.getThumbnail(URI_1, SIZE, LAST_MODIFIED));
+        assertEquals(thumbnailSize * 2, mCache.getSizeBytes());
+    }
+}
@@ -65,7 +65,7 @@ public class GlobalSearchLoaderTest {
 
         final Bundle queryArgs = new Bundle();
         queryArgs.putString(DocumentsContract.QUERY_ARG_DISPLAY_NAME, SEARCH_STRING);
-        mLoader = new GlobalSearchLoader(mActivity, mEnv.providers, mEnv.state,
+        mLoader = new GlobalSearchLoader(mActivity, mEnv.providers, mEnv.state, mEnv.features,
                 TestImmediateExecutor.createLookup(), new TestFileTypeLookup(), queryArgs);
 
         final DocumentInfo doc = mEnv.model.createFile(SEARCH_STRING + ".jpg", FILE_FLAG);
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.documentsui;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+import android.database.MatrixCursor;
+import android.provider.DocumentsContract.Document;
+
+import androidx.recyclerview.widget.ListUpdateCallback;
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.documentsui.roots.RootCursorWrapper;
+import com.android.documentsui.sorting.SortDimension;
+import com.android.documentsui.sorting.SortModel;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class ModelSnapshotTest {
+
+    private static final String AUTHORITY = "test_authority";
+
+    private static final String[] COLUMNS = new String[] {
+            RootCursorWrapper.COLUMN_AUTHORITY,
+            Document.COLUMN_DOCUMENT_ID,
+            Document.COLUMN_MIME_TYPE,
+            Document.COLUMN_DISPLAY_NAME,
+            Document.COLUMN_LAST_MODIFIED,
+            Document.COLUMN_SIZE
+    };
+
+    @Test
+    public void testOf_readsIdsAndNames() {
+        final ModelSnapshot snapshot = ModelSnapshot.of(createCursor(
+                new Row("dir", Document.MIME_TYPE_DIR, 1),
+                new Row("doc", "text/plain", 1)));
+
+        assertEquals(2, snapshot.getCount());
+        assertEquals(0, snapshot.positions.get(AUTHORITY + "|dir"));
+        assertEquals(1, snapshot.positions.get(AUTHORITY + "|doc"));
+        assertTrue(snapshot.fileNames.contains("doc"));
+    }
+
+    @Test
+    public void testDiff_identical() {
+        final Row[] rows = new Row[] {
+                new Row("a", "text/plain", 1),
+                new Row("b", "text/plain", 1)
+        };
+
+        final RecordingCallback callback = diff(snapshot(rows), snapshot(rows));
+
+        assertTrue(callback.events.isEmpty());
+    }
+
+    @Test
+    public void testDiff_insertRemoveChange() {
+        final ModelSnapshot previous = snapshot(
+                new Row("a", "text/plain", 1),
+                new Row("b", "text/plain", 1),
+                new Row("c", "text/plain", 1));
+        final ModelSnapshot next = snapshot(
+                new Row("a", "text/plain", 2),
+                new Row("c", "text/plain", 1),
+                new Row("d", "text/plain", 1));
+
+        final RecordingCallback callback = diff(previous, next);
+
+        // Nothing is inserted or removed in front of "a", so its position never shifts.
+        assertTrue(callback.events.contains("changed 0 1 " + Model.Update.CONTENT_CHANGED_MARKER));
+        assertEquals(1, callback.count("removed"));
+        assertEquals(1, callback.count("inserted"));
+        assertEquals(3, callback.events.size());
+    }
+
+    @Test
+    public void testDiff_insertsSectionBreak() {
+        final ModelSnapshot previous = snapshot(
+                new Row("a", "text/plain", 1));
+        final ModelSnapshot next = snapshot(
+                new Row("dir", Document.MIME_TYPE_DIR, 1),
+                new Row("a", "text/plain", 1));
+
+        final RecordingCallback callback = diff(previous, next);
+
+        // The directory and the break after it.
+        assertEquals(1, callback.events.size());
+        assertEquals("inserted 0 2", callback.events.get(0));
+    }
+
+    @Test
+    public void testDiff_differentSortOrder() {
+        final Row row = new Row("a", "text/plain", 1);
+        final ModelSnapshot previous = ModelSnapshot.of(createCursor(row),
+                SortModel.SORT_DIMENSION_ID_TITLE, SortDimension.SORT_DIRECTION_ASCENDING);
+        final ModelSnapshot next = ModelSnapshot.of(createCursor(row),
+                SortModel.SORT_DIMENSION_ID_TITLE, SortDimension.SORT_DIRECTION_DESCENDING);
+
+        assertNull(next.diffFrom(previous));
+        assertNull(ModelSnapshot.of(createCursor(row))
+                .diffFrom(ModelSnapshot.of(createCursor(row))));
+    }
+
+    @Test
+    public void testDiff_tooManyChanges() {
+        final Row[] previousRows = new Row[2000];
+        final Row[] nextRows = new Row[2000];
+        for (int i = 0; i < previousRows.length; i++) {
+            previousRows[i] = new Row("old" + i, "text/plain", 1);
+            nextRows[i] = new Row("new" + i, "text/plain", 1);
+        }
+
+        assertNull(snapshot(nextRows).diffFrom(snapshot(previousRows)));
+    }
+
+    @Test
+    public void testPrefix() {
+        final ModelSnapshot snapshot = snapshot(
+                new Row("dir", Document.MIME_TYPE_DIR, 1),
+                new Row("a", "text/plain", 1),
+                new Row("b", "text/plain", 1));
+
+        final ModelSnapshot prefix = snapshot.prefix(2);
+        assertEquals(2, prefix.getCount());
+        assertEquals(1, prefix.positions.get(AUTHORITY + "|a"));
+        assertFalse(prefix.positions.contains(AUTHORITY + "|b"));
+        assertSame(snapshot, snapshot.prefix(3));
+
+        // Growing the window inserts the new documents after the old ones.
+        final RecordingCallback callback = diff(prefix, snapshot);
+        assertEquals(1, callback.events.size());
+        assertEquals("inserted 3 1", callback.events.get(0));
+    }
+
+    @Test
+    public void testPrefix_dropsSectionBreak() {
+        final ModelSnapshot snapshot = snapshot(
+                new Row("dir", Document.MIME_TYPE_DIR, 1),
+                new Row("a", "text/plain", 1));
+
+        // Only the directory is left, and there is no break after it.
+        final RecordingCallback callback = diff(snapshot, snapshot.prefix(1));
+        assertEquals(1, callback.events.size());
+        assertEquals("removed 1 2", callback.events.get(0));
+    }
+
+    private static RecordingCallback diff(ModelSnapshot previous, ModelSnapshot next) {
+        final ModelSnapshot.Diff diff = next.diffFrom(previous);
+        assertNotNull(diff);
+        assertSame(previous, diff.from);
+
+        final RecordingCallback callback = new RecordingCallback();
+        diff.result.dispatchUpdatesTo(callback);
+        return callback;
+    }
+
+    private static ModelSnapshot snapshot(Row... rows) {
+        return ModelSnapshot.of(createCursor(rows),
+                SortModel.SORT_DIMENSION_ID_TITLE, SortDimension.SORT_DIRECTION_ASCENDING);
+    }
+
+    private static MatrixCursor createCursor(Row... rows) {
+        final MatrixCursor c = new MatrixCursor(COLUMNS);
+        for (Row r : rows) {
+            final MatrixCursor.RowBuilder row = c.newRow();
+            row.add(RootCursorWrapper.COLUMN_AUTHORITY, AUTHORITY);
+            row.add(Document.COLUMN_DOCUMENT_ID, r.id);
+            row.add(Document.COLUMN_MIME_TYPE, r.mimeType);
+            row.add(Document.COLUMN_DISPLAY_NAME, r.id);
+            row.add(Document.COLUMN_LAST_MODIFIED, r.lastModified);
+            row.add(Document.COLUMN_SIZE, 0);
+        }
+        return c;
+    }
+
+    private static final class Row {
+        final String id;
+        final String mimeType;
+        final long lastModified;
+
+        Row(String id, String mimeType, long lastModified) {
+            this.id = id;
+            this.mimeType = mimeType;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private static final class RecordingCallback implements ListUpdateCallback {
+        final List<String> events = new ArrayList<>();
+
+        int count(String type) {
+            int count = 0;
+            for (String event : events) {
+                if (event.startsWith(type)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            events.add("inserted " + position + " " + count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            events.add("removed " + position + " " + count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            events.add("moved " + fromPosition + " " + toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            events.add("changed " + position + " " + count + " " + payload);
+        }
+    }
+}
@@ -17,6 +17,9 @@
 package com.android.documentsui;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
 
 import android.database.Cursor;
@@ -29,8 +32,12 @@ import androidx.test.runner.AndroidJUnit4;
 
 import com.android.documentsui.base.DocumentInfo;
 import com.android.documentsui.roots.RootCursorWrapper;
+import com.android.documentsui.sorting.SortDimension;
+import com.android.documentsui.sorting.SortModel;
+import com.android.documentsui.testing.SortModels;
 import com.android.documentsui.testing.TestEventListener;
 import com.android.documentsui.testing.TestFeatures;
+import com.android.documentsui.testing.TestFileTypeLookup;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -172,6 +179,76 @@ public class ModelTest {
         }
     }
 
+    @Test
+    public void testHasFileWithName() {
+        for (String name : NAMES) {
+            assertTrue(model.hasFileWithName(name));
+        }
+        assertFalse(model.hasFileWithName("qux"));
+    }
+
+    // Tests that re-sorting reorders Model IDs without a new result.
+    @Test
+    public void testResort() {
+        final SortModel sortModel = SortModels.createTestSortModel();
+        sortModel.sortByUser(SortModel.SORT_DIMENSION_ID_TITLE,
+                SortDimension.SORT_DIRECTION_ASCENDING);
+
+        DirectoryResult r = new DirectoryResult();
+        r.cursor = sortModel.sortCursor(cursor, new TestFileTypeLookup());
+        model.update(r);
+        final String[] ascending = model.getModelIds().clone();
+
+        sortModel.sortByUser(SortModel.SORT_DIMENSION_ID_TITLE,
+                SortDimension.SORT_DIRECTION_DESCENDING);
+        assertTrue(model.resort(sortModel));
+
+        final String[] descending = model.getModelIds();
+        assertEquals(ITEM_COUNT, descending.length);
+        for (int i = 0; i < ITEM_COUNT; ++i) {
+            assertEquals(ascending[i], descending[ITEM_COUNT - 1 - i]);
+            Cursor c = model.getItem(descending[i]);
+            assertEquals(i, c.getPosition());
+        }
+    }
+
+    // Tests that re-sorting reorders a loader's snapshot, and leaves the loader's result alone.
+    @Test
+    public void testResort_ReordersSnapshot() {
+        final SortModel sortModel = SortModels.createTestSortModel();
+        sortModel.sortByUser(SortModel.SORT_DIMENSION_ID_TITLE,
+                SortDimension.SORT_DIRECTION_ASCENDING);
+
+        DirectoryResult r = new DirectoryResult();
+        r.cursor = sortModel.sortCursor(cursor, new TestFileTypeLookup());
+        r.snapshot = ModelSnapshot.of(r.cursor, SortModel.SORT_DIMENSION_ID_TITLE,
+                SortDimension.SORT_DIRECTION_ASCENDING);
+        final ModelSnapshot loaded = r.snapshot;
+        model.update(r);
+        final String[] ascending = model.getModelIds().clone();
+
+        sortModel.sortByUser(SortModel.SORT_DIMENSION_ID_TITLE,
+                SortDimension.SORT_DIRECTION_DESCENDING);
+        assertTrue(model.resort(sortModel));
+        assertSame(loaded, r.snapshot);
+        assertDescending(ascending);
+
+        // Loaders deliver the same result again, with the cursor re-sorted in place.
+        model.update(r);
+        assertDescending(ascending);
+    }
+
+    private void assertDescending(String[] ascending) {
+        final String[] descending = model.getModelIds();
+        assertEquals(ITEM_COUNT, descending.length);
+        for (int i = 0; i < ITEM_COUNT; ++i) {
+            assertEquals(ascending[i], descending[ITEM_COUNT - 1 - i]);
+            // The snapshot has to match the order of the cursor.
+            Cursor c = model.getItem(descending[i]);
+            assertEquals(descending[i], ModelId.build(c));
+        }
+    }
+
     @Test
     public void testResetAfterGettingException() {
         DirectoryResult result = new DirectoryResult();
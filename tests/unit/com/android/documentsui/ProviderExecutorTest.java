@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.documentsui;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.os.SystemClock;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class ProviderExecutorTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private ProviderExecutor mExecutor;
+    private CountDownLatch mBlocked;
+    private CountDownLatch mUnblocked;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        mExecutor = new ProviderExecutor("authority", 1);
+
+        // Keep the only thread busy, so that tasks queue up.
+        mBlocked = new CountDownLatch(1);
+        mUnblocked = new CountDownLatch(1);
+        mExecutor.execute(() -> {
+            mBlocked.countDown();
+            try {
+                mUnblocked.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertTrue(mBlocked.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() {
+        mUnblocked.countDown();
+    }
+
+    @Test
+    public void testRunsByPriority() throws InterruptedException {
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch done = new CountDownLatch(4);
+        for (int priority : new int[] {
+                ProviderExecutor.PRIORITY_BACKGROUND,
+                ProviderExecutor.PRIORITY_PREFETCH,
+                ProviderExecutor.PRIORITY_VISIBLE_THUMBNAIL,
+                ProviderExecutor.PRIORITY_FOREGROUND }) {
+            mExecutor.forPriority(priority).execute(() -> {
+                order.add(priority);
+                done.countDown();
+            });
+        }
+
+        mUnblocked.countDown();
+
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(
+                ProviderExecutor.PRIORITY_FOREGROUND,
+                ProviderExecutor.PRIORITY_VISIBLE_THUMBNAIL,
+                ProviderExecutor.PRIORITY_PREFETCH,
+                ProviderExecutor.PRIORITY_BACKGROUND),
+                order);
+    }
+
+    @Test
+    public void testRunsSamePriorityInOrder() throws InterruptedException {
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch done = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            final int task = i;
+            mExecutor.execute(() -> {
+                order.add(task);
+                done.countDown();
+            });
+        }
+
+        mUnblocked.countDown();
+
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(0, 1, 2), order);
+    }
+
+    @Test
+    public void testAgedTaskRunsFirst() {
+        final long now = SystemClock.elapsedRealtime();
+        final Runnable background = () -> {};
+        final Runnable foreground = () -> {};
+        mExecutor.enqueue(background, ProviderExecutor.PRIORITY_BACKGROUND, now - 4000);
+        mExecutor.enqueue(foreground, ProviderExecutor.PRIORITY_FOREGROUND, now);
+
+        assertSame(background, mExecutor.pollLocked(now).command);
+        assertSame(foreground, mExecutor.pollLocked(now).command);
+    }
+
+    @Test
+    public void testRunsOtherAuthorities() throws InterruptedException {
+        final ProviderExecutor other = new ProviderExecutor("other", 1);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        // Runs although the first authority still holds a worker.
+        other.execute(done::countDown);
+
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testRunsOtherAuthorities_WhenPoolIsHeldByHungProviders()
+            throws InterruptedException {
+        ProviderExecutor.configure(2, 1);
+        try {
+            final CountDownLatch hung = new CountDownLatch(2);
+            for (String authority : new String[] { "hung1", "hung2" }) {
+                new ProviderExecutor(authority, 1).execute(() -> {
+                    hung.countDown();
+                    try {
+                        mUnblocked.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+            }
+            assertTrue(hung.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+            final CountDownLatch done = new CountDownLatch(1);
+            new ProviderExecutor("other", 1).execute(done::countDown);
+
+            assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        } finally {
+            ProviderExecutor.configure(4, 2);
+        }
+    }
+
+    @Test
+    public void testCapsSpareWorkers() throws InterruptedException {
+        ProviderExecutor.configure(1, 1);
+        try {
+            // More hung authorities than the pool and its spares have threads for. Workers left
+            // idle by other tests may run some, but not all of them.
+            final int count = 1 + ProviderExecutor.MAX_SPARE_WORKERS + 5;
+            final CountDownLatch started = new CountDownLatch(count);
+            final CountDownLatch done = new CountDownLatch(count);
+            for (int i = 0; i < count; i++) {
+                new ProviderExecutor("hung" + i, 1).execute(() -> {
+                    started.countDown();
+                    try {
+                        mUnblocked.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+            assertFalse(started.await(500, TimeUnit.MILLISECONDS));
+
+            mUnblocked.countDown();
+            assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        } finally {
+            ProviderExecutor.configure(4, 2);
+        }
+    }
+
+    @Test
+    public void testStats() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(2);
+        mExecutor.forPriority(ProviderExecutor.PRIORITY_PREFETCH).execute(done::countDown);
+        mExecutor.forPriority(ProviderExecutor.PRIORITY_PREFETCH).execute(done::countDown);
+
+        ProviderExecutor.Stats stats = mExecutor.getStats();
+        assertEquals(2, stats.getQueueDepth(ProviderExecutor.PRIORITY_PREFETCH));
+        assertEquals(2, stats.getMaxQueueDepth());
+        assertEquals(1, stats.getRunningCount());
+
+        mUnblocked.countDown();
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // Stats are updated after tasks return.
+        final long deadline = SystemClock.elapsedRealtime() + TIMEOUT_SECONDS * 1000;
+        do {
+            stats = mExecutor.getStats();
+        } while (stats.getCompletedCount(ProviderExecutor.PRIORITY_PREFETCH) < 2
+                && SystemClock.elapsedRealtime() < deadline);
+        assertEquals(2, stats.getCompletedCount(ProviderExecutor.PRIORITY_PREFETCH));
+        assertEquals(0, stats.getQueueDepth(ProviderExecutor.PRIORITY_PREFETCH));
+    }
+}
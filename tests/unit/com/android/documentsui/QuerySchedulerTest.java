@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.documentsui;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.os.CancellationSignal;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class QuerySchedulerTest {
+
+    private static final String AUTHORITY = "authority";
+
+    private QueryScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mScheduler = new QueryScheduler();
+    }
+
+    @Test
+    public void testExpectedLatency_unknownAuthority() {
+        assertEquals(QueryScheduler.DEFAULT_LATENCY_MILLIS,
+                mScheduler.getExpectedLatencyMillis(AUTHORITY));
+    }
+
+    @Test
+    public void testExpectedLatency_learnsFromQueries() {
+        mScheduler.onQueryFinished(AUTHORITY, 100);
+        assertEquals(100, mScheduler.getExpectedLatencyMillis(AUTHORITY));
+
+        mScheduler.onQueryFinished(AUTHORITY, 200);
+        final long latency = mScheduler.getExpectedLatencyMillis(AUTHORITY);
+        assertTrue(latency > 100 && latency < 200);
+    }
+
+    @Test
+    public void testPermits_growWhileQueriesAreFast() {
+        final int permits = mScheduler.getPermits();
+        mScheduler.onQueryFinished(AUTHORITY, 100);
+        mScheduler.onQueryFinished(AUTHORITY, 100);
+
+        assertEquals(permits + 1, mScheduler.getPermits());
+    }
+
+    @Test
+    public void testPermits_shrinkWhenQueriesSlowDown() {
+        mScheduler.onQueryFinished(AUTHORITY, 100);
+        mScheduler.onQueryFinished(AUTHORITY, 100);
+        final int permits = mScheduler.getPermits();
+
+        mScheduler.onQueryFinished(AUTHORITY, 1000);
+
+        assertTrue(mScheduler.getPermits() < permits);
+    }
+
+    @Test
+    public void testExecute_queuesAtPermits() {
+        runAll();
+        final AtomicInteger ran = new AtomicInteger();
+
+        mScheduler.execute(new CancellationSignal(), Runnable::run, ran::incrementAndGet);
+        assertEquals(0, ran.get());
+
+        mScheduler.release();
+        assertEquals(1, ran.get());
+    }
+
+    @Test
+    public void testExecute_handsWaitingQueriesToTheirExecutor() {
+        runAll();
+        final List<Runnable> handed = new ArrayList<>();
+
+        mScheduler.execute(new CancellationSignal(), handed::add, () -> {});
+        assertTrue(handed.isEmpty());
+
+        mScheduler.release();
+        assertEquals(1, handed.size());
+    }
+
+    @Test
+    public void testExecute_dropsQueriesCancelledWhileWaiting() {
+        runAll();
+        final CancellationSignal signal = new CancellationSignal();
+        final AtomicInteger ran = new AtomicInteger();
+
+        mScheduler.execute(signal, Runnable::run, ran::incrementAndGet);
+        mScheduler.execute(new CancellationSignal(), Runnable::run, ran::incrementAndGet);
+        signal.cancel();
+        mScheduler.release();
+
+        assertEquals(1, ran.get());
+        assertEquals(1, mScheduler.getSkippedCount());
+    }
+
+    @Test
+    public void testExecute_alreadyCancelled() {
+        final CancellationSignal signal = new CancellationSignal();
+        signal.cancel();
+        final AtomicInteger ran = new AtomicInteger();
+
+        mScheduler.execute(signal, Runnable::run, ran::incrementAndGet);
+
+        assertEquals(0, ran.get());
+        assertEquals(1, mScheduler.getSkippedCount());
+    }
+
+    @Test
+    public void testWastedQueries_notLearnedFrom() {
+        mScheduler.onQueryFinished(AUTHORITY, 100);
+        mScheduler.onQueryWasted(AUTHORITY, 1000);
+
+        assertEquals(100, mScheduler.getExpectedLatencyMillis(AUTHORITY));
+        assertEquals(1, mScheduler.getCompletedCount());
+        assertEquals(1, mScheduler.getWastedCount());
+        assertEquals(1000, mScheduler.getWastedMillis());
+    }
+
+    private void runAll() {
+        final int permits = mScheduler.getPermits();
+        final AtomicInteger ran = new AtomicInteger();
+        for (int i = 0; i < permits; i++) {
+            mScheduler.execute(new CancellationSignal(), Runnable::run, ran::incrementAndGet);
+        }
+        assertEquals(permits, ran.get());
+    }
+}
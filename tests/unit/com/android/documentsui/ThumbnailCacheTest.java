@@ -18,6 +18,7 @@ package com.android.documentsui;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
@@ -36,6 +37,10 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
 @RunWith(AndroidJUnit4.class)
 @SmallTest
 public class ThumbnailCacheTest {
@@ -189,6 +194,42 @@ public class ThumbnailCacheTest {
         assertHitExact(mCache.getThumbnail(URI_1, MID_SIZE));
     }
 
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final int threadCount = 4;
+        final int iterations = 1000;
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        for (int i = 0; i < threadCount; i++) {
+            final Uri uri = Uri.parse("content://authority/document/thread" + i);
+            new Thread(() -> {
+                try {
+                    for (int j = 0; j < iterations; j++) {
+                        mCache.putThumbnail(uri, j % 2 == 0 ? SMALL_SIZE : LARGE_SIZE,
+                                j % 2 == 0 ? SMALL_BITMAP : LARGE_BITMAP, LAST_MODIFIED);
+                        mCache.getThumbnail(uri, MID_SIZE);
+                        mCache.getThumbnail(URI_0, MID_SIZE);
+                        if (j % 10 == 0) {
+                            mCache.removeUri(uri);
+                        }
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertNull(failure.get());
+
+        // The cache still works once everything settles.
+        mCache.putThumbnail(URI_0, MID_SIZE, MIDSIZE_BITMAP, LAST_MODIFIED);
+        assertHitExact(mCache.getThumbnail(URI_0, MID_SIZE));
+    }
+
     private static void assertMiss(Result result) {
         assertEquals(Result.CACHE_MISS, result.getStatus());
         assertFalse(result.isExactHit());
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.documentsui.base;
+
+import static com.android.documentsui.base.DocumentInfo.getCursorInt;
+import static com.android.documentsui.base.DocumentInfo.getCursorLong;
+import static com.android.documentsui.base.DocumentInfo.getCursorString;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Bundle;
+import android.provider.DocumentsContract;
+import android.provider.DocumentsContract.Document;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.documentsui.roots.RootCursorWrapper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class ColumnarDocumentsCursorTest {
+    private static final int ITEM_COUNT = 10;
+    private static final String AUTHORITY = "test_authority";
+    private static final String ROOT_ID = "test_root";
+    private static final String UNUSED_COLUMN = "unused";
+
+    private static final String[] COLUMNS = new String[] {
+            Document.COLUMN_DOCUMENT_ID,
+            Document.COLUMN_FLAGS,
+            Document.COLUMN_DISPLAY_NAME,
+            Document.COLUMN_SIZE,
+            Document.COLUMN_LAST_MODIFIED,
+            Document.COLUMN_MIME_TYPE,
+            UNUSED_COLUMN
+    };
+
+    private MatrixCursor mSource;
+    private Cursor mCursor;
+
+    @Before
+    public void setUp() {
+        mSource = new MatrixCursor(COLUMNS);
+        for (int i = 0; i < ITEM_COUNT; ++i) {
+            MatrixCursor.RowBuilder row = mSource.newRow();
+            row.add(Document.COLUMN_DOCUMENT_ID, Integer.toString(i));
+            row.add(Document.COLUMN_FLAGS, Document.FLAG_SUPPORTS_DELETE);
+            row.add(Document.COLUMN_DISPLAY_NAME, "name" + i);
+            row.add(Document.COLUMN_SIZE, i * 1000L);
+            // Leave last modified time unset for odd rows.
+            if (i % 2 == 0) {
+                row.add(Document.COLUMN_LAST_MODIFIED, i);
+            }
+            row.add(Document.COLUMN_MIME_TYPE, "text/plain");
+            row.add(UNUSED_COLUMN, "unused");
+        }
+
+        mCursor = new ColumnarDocumentsCursor(
+                new RootCursorWrapper(AUTHORITY, ROOT_ID, mSource, -1));
+    }
+
+    @Test
+    public void testCopiesValues() {
+        assertEquals(ITEM_COUNT, mCursor.getCount());
+        for (int i = 0; i < ITEM_COUNT; ++i) {
+            mCursor.moveToPosition(i);
+            assertEquals(AUTHORITY, getCursorString(mCursor, RootCursorWrapper.COLUMN_AUTHORITY));
+            assertEquals(ROOT_ID, getCursorString(mCursor, RootCursorWrapper.COLUMN_ROOT_ID));
+            assertEquals(Integer.toString(i),
+                    getCursorString(mCursor, Document.COLUMN_DOCUMENT_ID));
+            assertEquals("name" + i, getCursorString(mCursor, Document.COLUMN_DISPLAY_NAME));
+            assertEquals("text/plain", getCursorString(mCursor, Document.COLUMN_MIME_TYPE));
+            assertEquals(Document.FLAG_SUPPORTS_DELETE,
+                    getCursorInt(mCursor, Document.COLUMN_FLAGS));
+            assertEquals(i * 1000L, getCursorLong(mCursor, Document.COLUMN_SIZE));
+        }
+    }
+
+    @Test
+    public void testNullNumbers_readAsMissing() {
+        for (int i = 0; i < ITEM_COUNT; ++i) {
+            mCursor.moveToPosition(i);
+            final int index = mCursor.getColumnIndex(Document.COLUMN_LAST_MODIFIED);
+            if (i % 2 == 0) {
+                assertFalse(mCursor.isNull(index));
+                assertEquals(i, getCursorLong(mCursor, Document.COLUMN_LAST_MODIFIED));
+            } else {
+                assertTrue(mCursor.isNull(index));
+                assertNull(mCursor.getString(index));
+                assertEquals(-1, getCursorLong(mCursor, Document.COLUMN_LAST_MODIFIED));
+            }
+        }
+    }
+
+    @Test
+    public void testCopiesAllColumns() {
+        assertEquals(COLUMNS.length + 2, mCursor.getColumnCount());
+        mCursor.moveToPosition(0);
+        assertEquals("unused", getCursorString(mCursor, UNUSED_COLUMN));
+        assertEquals(-1, mCursor.getColumnIndex(Document.COLUMN_SUMMARY));
+    }
+
+    @Test
+    public void testCopiesBlobs() {
+        final MatrixCursor source = new MatrixCursor(
+                new String[] { Document.COLUMN_DOCUMENT_ID, UNUSED_COLUMN });
+        source.addRow(new Object[] { "0", new byte[] { 1, 2 } });
+        source.addRow(new Object[] { "1", "text" });
+        final Cursor cursor = new ColumnarDocumentsCursor(source);
+        final int index = cursor.getColumnIndex(UNUSED_COLUMN);
+
+        cursor.moveToPosition(0);
+        assertEquals(Cursor.FIELD_TYPE_BLOB, cursor.getType(index));
+        assertEquals(2, cursor.getBlob(index).length);
+        try {
+            cursor.getString(index);
+            fail("Blobs must not read as strings.");
+        } catch (IllegalStateException expected) {
+        }
+
+        cursor.moveToPosition(1);
+        assertEquals("text", cursor.getString(index));
+    }
+
+    @Test
+    public void testReturnsSourceExtras() {
+        Bundle extras = new Bundle();
+        extras.putBoolean(DocumentsContract.EXTRA_LOADING, true);
+        mSource.setExtras(extras);
+
+        assertTrue(mCursor.getExtras().getBoolean(DocumentsContract.EXTRA_LOADING, false));
+    }
+
+    @Test
+    public void testClosesSource() {
+        mCursor.close();
+
+        assertTrue(mSource.isClosed());
+    }
+
+    @Test
+    public void testAppend() {
+        final MatrixCursor page = new MatrixCursor(COLUMNS);
+        page.newRow()
+                .add(Document.COLUMN_DOCUMENT_ID, "next")
+                .add(Document.COLUMN_DISPLAY_NAME, "next");
+
+        final ColumnarDocumentsCursor head = (ColumnarDocumentsCursor) mCursor;
+        head.close();
+        final Cursor appended = head.append(new RootCursorWrapper(AUTHORITY, ROOT_ID, page, -1));
+
+        assertEquals(ITEM_COUNT + 1, appended.getCount());
+        appended.moveToPosition(0);
+        assertEquals("0", getCursorString(appended, Document.COLUMN_DOCUMENT_ID));
+        assertEquals(0, getCursorLong(appended, Document.COLUMN_SIZE));
+        appended.moveToPosition(ITEM_COUNT);
+        assertEquals("next", getCursorString(appended, Document.COLUMN_DOCUMENT_ID));
+        assertEquals(AUTHORITY, getCursorString(appended, RootCursorWrapper.COLUMN_AUTHORITY));
+        assertEquals(-1, getCursorLong(appended, Document.COLUMN_SIZE));
+
+        appended.close();
+        assertTrue(page.isClosed());
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.documentsui.base;
+
+import static com.android.documentsui.base.DocumentInfo.getCursorString;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.provider.DocumentsContract.Document;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class LimitingCursorWrapperTest {
+    private static final int ITEM_COUNT = 10;
+
+    private MatrixCursor mSource;
+
+    @Before
+    public void setUp() {
+        mSource = new MatrixCursor(new String[] { Document.COLUMN_DOCUMENT_ID });
+        for (int i = 0; i < ITEM_COUNT; ++i) {
+            mSource.newRow().add(Document.COLUMN_DOCUMENT_ID, Integer.toString(i));
+        }
+    }
+
+    @Test
+    public void testLimitsRows() {
+        final Cursor cursor = new LimitingCursorWrapper(mSource, 4);
+
+        assertEquals(4, cursor.getCount());
+        for (int i = 0; i < 4; ++i) {
+            assertTrue(cursor.moveToPosition(i));
+            assertEquals(Integer.toString(i),
+                    getCursorString(cursor, Document.COLUMN_DOCUMENT_ID));
+        }
+        assertFalse(cursor.moveToPosition(4));
+    }
+
+    @Test
+    public void testLimitAboveCount() {
+        assertEquals(ITEM_COUNT, new LimitingCursorWrapper(mSource, ITEM_COUNT * 2).getCount());
+    }
+
+    @Test
+    public void testLeavesCursorOpen() {
+        final Cursor first = new LimitingCursorWrapper(mSource, 4);
+        final Cursor second = new LimitingCursorWrapper(mSource, 8);
+        first.close();
+
+        assertFalse(mSource.isClosed());
+        assertTrue(second.moveToPosition(6));
+        assertEquals("6", getCursorString(second, Document.COLUMN_DOCUMENT_ID));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.documentsui.base;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class StringIntIndexTest {
+
+    @Test
+    public void testEmpty() {
+        final StringIntIndex index = StringIntIndex.of(new String[0]);
+
+        assertEquals(0, index.size());
+        assertEquals(StringIntIndex.NOT_FOUND, index.get("foo"));
+        assertEquals(StringIntIndex.NOT_FOUND, index.get(null));
+    }
+
+    @Test
+    public void testGet_returnsPositions() {
+        final String[] ids = new String[10000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = "authority|" + i;
+        }
+        final StringIntIndex index = StringIntIndex.of(ids);
+
+        assertEquals(ids.length, index.size());
+        for (int i = 0; i < ids.length; i++) {
+            // Look up equal, but not identical strings.
+            assertEquals(i, index.get(new String(ids[i])));
+        }
+        assertFalse(index.contains("authority|" + ids.length));
+        assertFalse(index.contains(null));
+    }
+
+    @Test
+    public void testGet_duplicatesMapToFirstPosition() {
+        final StringIntIndex index =
+                StringIntIndex.of(new String[] { "a", "b", null, "a", "c", null, "b" });
+
+        assertEquals(4, index.size());
+        assertEquals(0, index.get("a"));
+        assertEquals(1, index.get("b"));
+        assertEquals(2, index.get(null));
+        assertEquals(4, index.get("c"));
+    }
+
+    @Test
+    public void testOf_onlyIndexesCount() {
+        final StringIntIndex index = StringIntIndex.of(new String[] { "a", "b", "c" }, 2);
+
+        assertEquals(2, index.size());
+        assertTrue(index.contains("b"));
+        assertFalse(index.contains("c"));
+    }
+}
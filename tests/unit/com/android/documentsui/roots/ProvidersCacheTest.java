@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.documentsui.roots;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.documentsui.base.RootInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class ProvidersCacheTest {
+
+    private static final String AUTHORITY = "com.example.documents";
+
+    private ProvidersCache mCache;
+
+    @Before
+    public void setUp() {
+        // The cache observes providers on the thread it's created on.
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> mCache =
+                new ProvidersCache(InstrumentationRegistry.getTargetContext()));
+    }
+
+    @Test
+    public void testPublish_ReloadFinishedBeforeUpdate() {
+        final int update = mCache.startLoad(AUTHORITY);
+        final int reload = mCache.startLoad(AUTHORITY);
+
+        assertTrue(mCache.publishIfCurrent(
+                AUTHORITY, reload, Collections.singletonList(createRoot("Newer"))));
+        assertFalse(mCache.publishIfCurrent(
+                AUTHORITY, update, Collections.singletonList(createRoot("Older"))));
+
+        assertEquals("Newer", mCache.getRootOneshot(AUTHORITY, "0").title);
+    }
+
+    @Test
+    public void testPublish_UpdateFinishedBeforeReload() {
+        final int update = mCache.startLoad(AUTHORITY);
+        final int reload = mCache.startLoad(AUTHORITY);
+
+        assertFalse(mCache.publishIfCurrent(
+                AUTHORITY, update, Collections.singletonList(createRoot("Older"))));
+        assertTrue(mCache.publishIfCurrent(
+                AUTHORITY, reload, Collections.singletonList(createRoot("Newer"))));
+
+        assertEquals("Newer", mCache.getRootOneshot(AUTHORITY, "0").title);
+    }
+
+    private static RootInfo createRoot(String title) {
+        final RootInfo root = new RootInfo();
+        root.authority = AUTHORITY;
+        root.rootId = "0";
+        root.title = title;
+        return root;
+    }
+}
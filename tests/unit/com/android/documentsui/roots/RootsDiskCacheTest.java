@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.documentsui.roots;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.documentsui.base.RootInfo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class RootsDiskCacheTest {
+
+    private static final String AUTHORITY = "com.example.documents";
+    private static final RootsDiskCache.PackageVersion VERSION =
+            new RootsDiskCache.PackageVersion(7, 1000);
+
+    private File mFile;
+    private RootsDiskCache mCache;
+
+    @Before
+    public void setUp() {
+        mFile = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "roots_test");
+        mCache = new RootsDiskCache(mFile);
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void testRead_noFile() {
+        assertTrue(mCache.read().isEmpty());
+    }
+
+    @Test
+    public void testWriteAndRead() {
+        final Map<String, RootsDiskCache.Entry> entries = new HashMap<>();
+        entries.put(AUTHORITY, new RootsDiskCache.Entry(
+                VERSION, Arrays.asList(createRoot("0", "Zero"), createRoot("1", "One"))));
+        mCache.write(entries);
+
+        final Map<String, RootsDiskCache.Entry> read = new RootsDiskCache(mFile).read();
+
+        assertEquals(1, read.size());
+        final RootsDiskCache.Entry entry = read.get(AUTHORITY);
+        assertEquals(VERSION, entry.packageVersion);
+        assertEquals(2, entry.roots.size());
+        assertEquals(AUTHORITY, entry.roots.get(0).authority);
+        assertEquals("0", entry.roots.get(0).rootId);
+        assertEquals("Zero", entry.roots.get(0).title);
+        assertEquals("1", entry.roots.get(1).rootId);
+        assertEquals(1024, entry.roots.get(1).availableBytes);
+    }
+
+    @Test
+    public void testRead_damagedFile() throws IOException {
+        try (FileOutputStream out = new FileOutputStream(mFile)) {
+            out.write(new byte[] { 0, 0, 0, 1, 0, 0 });
+        }
+
+        assertTrue(mCache.read().isEmpty());
+        assertFalse(mFile.exists());
+    }
+
+    @Test
+    public void testRead_negativeCount() throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(mFile))) {
+            out.writeInt(1);
+            out.writeInt(-1);
+        }
+
+        assertTrue(mCache.read().isEmpty());
+        assertFalse(mFile.exists());
+    }
+
+    @Test
+    public void testRead_negativeRootCount() throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(mFile))) {
+            out.writeInt(1);
+            out.writeInt(1);
+            out.writeUTF(AUTHORITY);
+            out.writeLong(VERSION.versionCode);
+            out.writeLong(VERSION.lastUpdateTime);
+            out.writeInt(Integer.MIN_VALUE);
+        }
+
+        assertTrue(mCache.read().isEmpty());
+        assertFalse(mFile.exists());
+    }
+
+    @Test
+    public void testRead_truncatedRoot() throws IOException {
+        final Map<String, RootsDiskCache.Entry> entries = new HashMap<>();
+        entries.put(AUTHORITY, new RootsDiskCache.Entry(
+                VERSION, Arrays.asList(createRoot("0", "Zero"))));
+        mCache.write(entries);
+
+        final byte[] bytes = Files.readAllBytes(mFile.toPath());
+        try (FileOutputStream out = new FileOutputStream(mFile)) {
+            out.write(bytes, 0, bytes.length - 3);
+        }
+
+        assertTrue(mCache.read().isEmpty());
+        assertFalse(mFile.exists());
+    }
+
+    @Test
+    public void testPackageVersion_updateTimeMatters() {
+        assertEquals(VERSION, new RootsDiskCache.PackageVersion(7, 1000));
+        assertNotEquals(VERSION, new RootsDiskCache.PackageVersion(7, 2000));
+        assertNotEquals(VERSION, new RootsDiskCache.PackageVersion(8, 1000));
+    }
+
+    private static RootInfo createRoot(String rootId, String title) {
+        final RootInfo root = new RootInfo();
+        root.authority = AUTHORITY;
+        root.rootId = rootId;
+        root.title = title;
+        root.documentId = rootId;
+        root.availableBytes = 1024;
+        return root;
+    }
+}
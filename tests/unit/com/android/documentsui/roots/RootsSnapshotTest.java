@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.documentsui.roots;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.documentsui.base.RootInfo;
+import com.android.documentsui.base.State;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class RootsSnapshotTest {
+
+    private static final String AUTHORITY_A = "com.example.a";
+    private static final String AUTHORITY_B = "com.example.b";
+
+    private RootInfo mImages;
+    private RootInfo mAll;
+    private RootInfo mOther;
+    private RootsSnapshot mSnapshot;
+    private State mState;
+
+    @Before
+    public void setUp() {
+        mImages = createRoot(AUTHORITY_A, "images", "image/*");
+        mAll = createRoot(AUTHORITY_A, "all", "*/*");
+        mOther = createRoot(AUTHORITY_B, "other", "*/*");
+        mSnapshot = RootsSnapshot.EMPTY
+                .replace(AUTHORITY_A, Arrays.asList(mImages, mAll))
+                .replace(AUTHORITY_B, Collections.singletonList(mOther));
+
+        mState = new State();
+        mState.action = State.ACTION_OPEN;
+        mState.showAdvanced = true;
+        mState.acceptMimes = new String[] { "*/*" };
+    }
+
+    @Test
+    public void testGetRoot() {
+        assertSame(mAll, mSnapshot.getRoot(AUTHORITY_A, "all"));
+        assertSame(mOther, mSnapshot.getRoot(AUTHORITY_B, "other"));
+        assertNull(mSnapshot.getRoot(AUTHORITY_B, "all"));
+        assertNull(mSnapshot.getRoot("com.example.missing", "all"));
+    }
+
+    @Test
+    public void testGetRoots_keepsProviderOrder() {
+        assertEquals(Arrays.asList(mImages, mAll),
+                Arrays.asList(mSnapshot.getRoots(AUTHORITY_A).toArray()));
+        assertEquals(3, mSnapshot.size());
+    }
+
+    @Test
+    public void testReplace_leavesOldSnapshot() {
+        final RootsSnapshot next = mSnapshot.replace(AUTHORITY_A, Collections.emptyList());
+
+        assertTrue(next.getRoots(AUTHORITY_A).isEmpty());
+        assertEquals(1, next.size());
+        assertSame(mAll, mSnapshot.getRoot(AUTHORITY_A, "all"));
+        assertEquals(3, mSnapshot.size());
+    }
+
+    @Test
+    public void testRetainAuthorities_keepsRecents() {
+        final RootInfo recents = new RootInfo();
+        final RootsSnapshot next = mSnapshot
+                .replace(null, Collections.singletonList(recents))
+                .retainAuthorities(Collections.singleton(AUTHORITY_B));
+
+        assertSame(recents, next.getRoot(null, null));
+        assertSame(mOther, next.getRoot(AUTHORITY_B, "other"));
+        assertTrue(next.getRoots(AUTHORITY_A).isEmpty());
+    }
+
+    @Test
+    public void testGetMatchingRoots_sameForEqualStates() {
+        final List<RootInfo> matching = mSnapshot.getMatchingRoots(mState);
+
+        final State other = new State();
+        other.action = State.ACTION_OPEN;
+        other.showAdvanced = true;
+        other.acceptMimes = new String[] { "*/*" };
+
+        assertEquals(3, matching.size());
+        assertSame(matching, mSnapshot.getMatchingRoots(other));
+    }
+
+    @Test
+    public void testGetMatchingRoots_byMimeTypes() {
+        mState.acceptMimes = new String[] { "video/*" };
+
+        final List<RootInfo> matching = mSnapshot.getMatchingRoots(mState);
+
+        assertEquals(2, matching.size());
+        assertTrue(matching.contains(mAll));
+        assertTrue(matching.contains(mOther));
+    }
+
+    @Test
+    public void testGetMatchingRoots_byExcludedAuthorities() {
+        mState.excludedAuthorities.add(AUTHORITY_A);
+
+        assertEquals(Collections.singletonList(mOther), mSnapshot.getMatchingRoots(mState));
+    }
+
+    private static RootInfo createRoot(String authority, String rootId, String mimeTypes) {
+        final RootInfo root = new RootInfo();
+        root.authority = authority;
+        root.rootId = rootId;
+        root.mimeTypes = mimeTypes;
+        root.derivedMimeTypes = mimeTypes.split("\n");
+        return root;
+    }
+}
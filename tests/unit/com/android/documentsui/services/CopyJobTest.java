@@ -20,10 +20,14 @@ import static com.android.documentsui.services.FileOperationService.OPERATION_CO
 import static com.google.common.collect.Lists.newArrayList;
 
 import android.net.Uri;
+import android.provider.DocumentsContract;
 import android.provider.DocumentsContract.Document;
 
 import androidx.test.filters.MediumTest;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @MediumTest
 public class CopyJobTest extends AbstractCopyJobTest<CopyJob> {
 
@@ -90,4 +94,46 @@ public class CopyJobTest extends AbstractCopyJobTest<CopyJob> {
     public void testCopyProgressWithByteCount() throws Exception {
         runCopyProgressForByteCountTest();
     }
+
+    public void testCopyManyFilesInParallel() throws Exception {
+        final List<Uri> files = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final Uri file = mDocs.createDocument(mSrcRoot, "text/plain", "test" + i + ".txt");
+            mDocs.writeDocument(file, HAM_BYTES);
+            files.add(file);
+        }
+
+        createJob(files).run();
+        waitForJobFinished();
+
+        mJobListener.assertFinished();
+        mDocs.assertChildCount(mDestRoot, 20);
+        for (int i = 0; i < 20; i++) {
+            mDocs.assertFileContents(mDestRoot.documentId, "test" + i + ".txt", HAM_BYTES);
+        }
+    }
+
+    public void testCopyManyFilesInParallel_OneFails() throws Exception {
+        final List<Uri> files = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final Uri file = mDocs.createDocument(mSrcRoot, "text/plain", "test" + i + ".txt");
+            mDocs.writeDocument(file, HAM_BYTES);
+            files.add(file);
+        }
+        mClient.call("simulateReadErrorsForFile", DocumentsContract.getDocumentId(files.get(3)),
+                null);
+
+        createJob(files).run();
+        waitForJobFinished();
+
+        // Only the failed file is reported, and the others are still copied.
+        mJobListener.assertFailed();
+        mJobListener.assertFilesFailed(newArrayList("test3.txt"));
+        mDocs.assertChildCount(mDestRoot, 9);
+        for (int i = 0; i < 10; i++) {
+            if (i != 3) {
+                mDocs.assertFileContents(mDestRoot.documentId, "test" + i + ".txt", HAM_BYTES);
+            }
+        }
+    }
 }
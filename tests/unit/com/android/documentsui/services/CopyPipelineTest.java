@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.documentsui.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.os.CancellationSignal;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class CopyPipelineTest {
+
+    private static final String SRC = "com.example.src";
+    private static final String DST = "com.example.dst";
+
+    private final CancellationSignal mJobSignal = new CancellationSignal();
+    private final List<Boolean> mFinished = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void testCancel_StopsFilesBeingCopied() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch canceled = new CountDownLatch(1);
+        try (CopyPipeline pipeline = new CopyPipeline(2, mJobSignal)) {
+            final CopyPipeline.Batch batch = pipeline.startBatch(mFinished::add);
+            pipeline.submit(SRC, DST, batch, (signal) -> {
+                signal.setOnCancelListener(canceled::countDown);
+                started.countDown();
+                await(canceled);
+            });
+            batch.close();
+
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            mJobSignal.cancel();
+            pipeline.await();
+        }
+
+        assertEquals(0, canceled.getCount());
+        assertEquals(1, mFinished.size());
+    }
+
+    @Test
+    public void testAwait_AfterCancel_SkipsQueuedFiles() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicInteger copied = new AtomicInteger();
+        try (CopyPipeline pipeline = new CopyPipeline(1, mJobSignal)) {
+            final CopyPipeline.Batch batch = pipeline.startBatch(mFinished::add);
+            pipeline.submit(SRC, DST, batch, (signal) -> {
+                final CountDownLatch canceled = new CountDownLatch(1);
+                signal.setOnCancelListener(canceled::countDown);
+                started.countDown();
+                await(canceled);
+            });
+            pipeline.submit(SRC, DST, batch, (signal) -> copied.incrementAndGet());
+            batch.close();
+
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            mJobSignal.cancel();
+            pipeline.await();
+            // Waiting again returns right away.
+            pipeline.await();
+        }
+
+        assertEquals(0, copied.get());
+        assertEquals(1, mFinished.size());
+    }
+
+    @Test
+    public void testFileFailure_FailsItsBatchOnly() throws Exception {
+        final AtomicInteger copied = new AtomicInteger();
+        final AtomicBoolean otherFailed = new AtomicBoolean(true);
+        try (CopyPipeline pipeline = new CopyPipeline(2, mJobSignal)) {
+            final CopyPipeline.Batch batch = pipeline.startBatch(mFinished::add);
+            pipeline.submit(SRC, DST, batch, (signal) -> {
+                throw new ResourceException("Test failure");
+            });
+            pipeline.submit(SRC, DST, batch, (signal) -> copied.incrementAndGet());
+            batch.close();
+
+            final CopyPipeline.Batch other = pipeline.startBatch(otherFailed::set);
+            pipeline.submit(SRC, DST, other, (signal) -> copied.incrementAndGet());
+            other.close();
+        }
+
+        // Files of a failed batch are still copied, like the rest of the job.
+        assertEquals(2, copied.get());
+        assertEquals(1, mFinished.size());
+        assertTrue(mFinished.get(0));
+        assertFalse(otherFailed.get());
+    }
+
+    @Test
+    public void testFail_DirectoryNotCreated() throws Exception {
+        try (CopyPipeline pipeline = new CopyPipeline(2, mJobSignal)) {
+            final CopyPipeline.Batch batch = pipeline.startBatch(mFinished::add);
+            batch.fail();
+            batch.close();
+        }
+
+        assertEquals(1, mFinished.size());
+        assertTrue(mFinished.get(0));
+    }
+
+    private static void await(CountDownLatch latch) throws ResourceException {
+        try {
+            if (!latch.await(5, TimeUnit.SECONDS)) {
+                throw new ResourceException("Timed out waiting to be canceled.");
+            }
+        } catch (InterruptedException e) {
+            throw new ResourceException("Interrupted.", e);
+        }
+    }
+}
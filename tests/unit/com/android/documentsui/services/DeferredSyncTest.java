@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.documentsui.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.os.ParcelFileDescriptor;
+import android.system.Os;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class DeferredSyncTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger mSynced = new AtomicInteger();
+    private final List<IOException> mFailures = new ArrayList<>();
+    private final List<String> mActions = new ArrayList<>();
+
+    @Test
+    public void testAdd_KeepsFilesOpenUntilBatchIsFull() throws Exception {
+        final DeferredSync sync = new DeferredSync(3);
+        final ParcelFileDescriptor first = openFile();
+        final ParcelFileDescriptor second = openFile();
+
+        sync.add(first, mSynced::incrementAndGet, mFailures::add);
+        sync.add(second, mSynced::incrementAndGet, mFailures::add);
+        assertTrue(first.getFileDescriptor().valid());
+        assertTrue(second.getFileDescriptor().valid());
+
+        sync.add(openFile(), mSynced::incrementAndGet, mFailures::add);
+        assertFalse(first.getFileDescriptor().valid());
+        assertFalse(second.getFileDescriptor().valid());
+        assertEquals(3, mSynced.get());
+        assertTrue(mFailures.isEmpty());
+    }
+
+    @Test
+    public void testFlush_ClosesAllFiles() throws Exception {
+        final DeferredSync sync = new DeferredSync(64);
+        final ParcelFileDescriptor file = openFile();
+
+        sync.add(file, mSynced::incrementAndGet, mFailures::add);
+        sync.flush();
+
+        assertFalse(file.getFileDescriptor().valid());
+        assertTrue(mFailures.isEmpty());
+    }
+
+    @Test
+    public void testPost_WaitsForFilesAddedBefore() throws Exception {
+        final DeferredSync sync = new DeferredSync(64);
+
+        sync.post(sync.getSequence(), () -> mActions.add("first"));
+        assertEquals(1, mActions.size());
+
+        sync.add(openFile(), mSynced::incrementAndGet, mFailures::add);
+        sync.post(0, () -> mActions.add("second"));
+        assertEquals(1, mActions.size());
+
+        sync.flush();
+        assertEquals(2, mActions.size());
+    }
+
+    @Test
+    public void testPost_SkippedAfterFailedSync() throws Exception {
+        final DeferredSync sync = new DeferredSync(64);
+        sync.add(openFile(), mSynced::incrementAndGet, mFailures::add);
+
+        final long since = sync.getSequence();
+        final ParcelFileDescriptor broken = openFile();
+        Os.close(broken.getFileDescriptor());
+        sync.add(broken, mSynced::incrementAndGet, mFailures::add);
+        sync.post(since, () -> mActions.add("skipped"));
+        sync.add(openFile(), mSynced::incrementAndGet, mFailures::add);
+        sync.post(sync.getSequence() - 1, () -> mActions.add("run"));
+
+        sync.flush();
+
+        assertEquals(2, mSynced.get());
+        assertEquals(1, mFailures.size());
+        assertEquals(1, mActions.size());
+        assertEquals("run", mActions.get(0));
+    }
+
+    @Test
+    public void testFlush_FailedFileIsNotReportedSynced() throws Exception {
+        final DeferredSync sync = new DeferredSync(64);
+        final ParcelFileDescriptor broken = openFile();
+        Os.close(broken.getFileDescriptor());
+
+        sync.add(broken, mSynced::incrementAndGet, mFailures::add);
+        assertEquals(0, mSynced.get());
+        sync.flush();
+
+        assertEquals(0, mSynced.get());
+        assertEquals(1, mFailures.size());
+    }
+
+    @Test
+    public void testPost_OnlyWaitsForFilesAddedBefore() throws Exception {
+        final DeferredSync sync = new DeferredSync(64);
+        sync.add(openFile(), mSynced::incrementAndGet, mFailures::add);
+        sync.post(0, () -> mActions.add("run"));
+
+        // A file added after the action failing doesn't skip it.
+        final ParcelFileDescriptor broken = openFile();
+        Os.close(broken.getFileDescriptor());
+        sync.add(broken, mSynced::incrementAndGet, mFailures::add);
+        sync.flush();
+
+        assertEquals(1, mFailures.size());
+        assertEquals(1, mActions.size());
+    }
+
+    @Test
+    public void testAdd_NotBlockedByFailureCallback() throws Exception {
+        final DeferredSync sync = new DeferredSync(64);
+        final CountDownLatch inCallback = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ParcelFileDescriptor broken = openFile();
+        Os.close(broken.getFileDescriptor());
+        sync.add(broken, mSynced::incrementAndGet, (e) -> {
+            inCallback.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+
+        final Thread flusher = new Thread(sync::flush);
+        flusher.start();
+        try {
+            assertTrue(inCallback.await(5, TimeUnit.SECONDS));
+            // Copy threads keep adding files while a failure is handled.
+            sync.add(openFile(), mSynced::incrementAndGet, mFailures::add);
+        } finally {
+            release.countDown();
+            flusher.join();
+        }
+
+        sync.flush();
+        assertEquals(1, mSynced.get());
+    }
+
+    @Test
+    public void testAdd_CapsOpenFiles() throws Exception {
+        final DeferredSync sync = new DeferredSync(DeferredSync.MAX_OPEN_FILES + 1);
+        int added = 0;
+        ParcelFileDescriptor rejected = null;
+        while (rejected == null) {
+            final ParcelFileDescriptor file = openFile();
+            if (sync.add(file, mSynced::incrementAndGet, mFailures::add)) {
+                added++;
+            } else {
+                rejected = file;
+            }
+        }
+        rejected.close();
+        assertTrue(added <= DeferredSync.MAX_OPEN_FILES);
+
+        // Syncing the batch closes its files, which makes room for more.
+        sync.flush();
+        assertEquals(added, mSynced.get());
+        assertTrue(sync.add(openFile(), mSynced::incrementAndGet, mFailures::add));
+        sync.flush();
+    }
+
+    private ParcelFileDescriptor openFile() throws IOException {
+        return ParcelFileDescriptor.open(folder.newFile(),
+                ParcelFileDescriptor.MODE_READ_WRITE);
+    }
+}
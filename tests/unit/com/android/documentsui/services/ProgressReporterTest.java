@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.documentsui.services;
+
+import static org.junit.Assert.assertEquals;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.documentsui.services.Job.ProgressTracker;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class ProgressReporterTest {
+
+    private TestTracker mTracker;
+    private List<Double> mPublished;
+    private long mNow;
+    private long mDataProcessed;
+    private ProgressReporter mReporter;
+
+    @Before
+    public void setUp() {
+        mTracker = new TestTracker();
+        mPublished = new ArrayList<>();
+        mReporter = new ProgressReporter(new Handler(Looper.getMainLooper()), 500, mTracker,
+                () -> mDataProcessed, (progress, remainingTime) -> mPublished.add(progress),
+                () -> mNow);
+    }
+
+    @Test
+    public void testPublish_OnlyWhenChanged() {
+        mTracker.progress = 0.1;
+        mReporter.publish();
+        mReporter.publish();
+        assertEquals(1, mPublished.size());
+
+        mTracker.progress = 0.5;
+        mReporter.publish();
+        assertEquals(2, mPublished.size());
+        assertEquals(0.5, mPublished.get(1), 0);
+    }
+
+    @Test
+    public void testPublish_WhenRemainingTimeChanged() {
+        mTracker.progress = 0.1;
+        mTracker.remainingTime = 60000;
+        mReporter.publish();
+
+        mTracker.remainingTime = 30000;
+        mReporter.publish();
+        assertEquals(2, mPublished.size());
+    }
+
+    @Test
+    public void testHistory_KeepsLatestSamples() {
+        for (int i = 0; i < ProgressReporter.HISTORY_SIZE + 10; i++) {
+            mNow = i * 500;
+            mDataProcessed += 1000;
+            mReporter.publish();
+        }
+
+        final List<ProgressReporter.Sample> history = mReporter.getHistory();
+        assertEquals(ProgressReporter.HISTORY_SIZE, history.size());
+        assertEquals(10 * 500, history.get(0).timeMillis);
+        assertEquals((ProgressReporter.HISTORY_SIZE + 10) * 1000,
+                history.get(history.size() - 1).dataProcessed);
+    }
+
+    @Test
+    public void testThroughput() {
+        assertEquals(-1, mReporter.getThroughput());
+
+        mNow = 0;
+        mReporter.publish();
+        mNow = 2000;
+        mDataProcessed = 4000;
+        mReporter.publish();
+
+        assertEquals(2000, mReporter.getThroughput());
+    }
+
+    @Test
+    public void testThroughput_OverLatestSamples() {
+        // A stall at the start falls out of the history.
+        mReporter.publish();
+        for (int i = 1; i <= ProgressReporter.HISTORY_SIZE; i++) {
+            mNow = 100000 + i * 1000;
+            mDataProcessed = 100 + i * 1000;
+            mReporter.publish();
+        }
+
+        assertEquals(1000, mReporter.getThroughput());
+    }
+
+    @Test
+    public void testEstimator_UsesThroughputOfHistory() {
+        final CopyJob.ByteCountProgressTracker tracker =
+                new CopyJob.ByteCountProgressTracker(100000, () -> mNow);
+        final ProgressReporter reporter = new ProgressReporter(
+                new Handler(Looper.getMainLooper()), 500, tracker, tracker::getDataProcessed,
+                (progress, remainingTime) -> mPublished.add(progress), () -> mNow);
+        tracker.setThroughputSource(reporter::getThroughput);
+        tracker.start();
+
+        reporter.publish();
+        mNow = 1000;
+        tracker.onBytesCopied(10000);
+        reporter.publish();
+        mNow = 2000;
+        tracker.onBytesCopied(10000);
+        reporter.publish();
+
+        // 80 KBytes left at 10 KBytes per second over the history.
+        tracker.updateEstimateRemainingTime();
+        assertEquals(8000, tracker.getRemainingTimeEstimate());
+    }
+
+    private static final class TestTracker implements ProgressTracker {
+        double progress;
+        long remainingTime = -1;
+
+        @Override
+        public double getProgress() {
+            return progress;
+        }
+
+        @Override
+        public long getRemainingTimeEstimate() {
+            return remainingTime;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.documentsui.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.documentsui.services.CopyJob.SmoothedProgressTracker;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class SmoothedProgressTrackerTest {
+
+    private static final long SAMPLE_MILLIS = 500;
+    // Bytes per millisecond.
+    private static final long THROUGHPUT = 2000;
+    private static final long OVERHEAD_MILLIS = 20;
+
+    private long mNow;
+    private long mBytesReported;
+    private long mFilesReported;
+
+    @Test
+    public void testNoEstimateBeforeProgress() {
+        final SmoothedProgressTracker tracker = new SmoothedProgressTracker(1000, 1, () -> mNow);
+        tracker.start();
+        mNow = SAMPLE_MILLIS;
+        tracker.updateEstimateRemainingTime();
+
+        assertEquals(-1, tracker.getRemainingTimeEstimate());
+    }
+
+    @Test
+    public void testSingleLargeFile() {
+        final Trace trace = new Trace(new long[] { 600 * 1000 * 1000L });
+        final SmoothedProgressTracker tracker = trace.createTracker();
+
+        for (mNow = SAMPLE_MILLIS; mNow < trace.mDuration; mNow += SAMPLE_MILLIS) {
+            trace.replay(tracker);
+            assertEstimate(trace.mDuration - mNow, tracker.getRemainingTimeEstimate(), 0.05);
+        }
+    }
+
+    @Test
+    public void testMixedFiles() {
+        // Mostly small files, with a large one every now and then.
+        final Random random = new Random(42);
+        final long[] sizes = new long[2000];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = random.nextInt(10) == 0
+                    ? 5 * 1000 * 1000 + random.nextInt(5 * 1000 * 1000)
+                    : 1000 + random.nextInt(50 * 1000);
+        }
+        final Trace trace = new Trace(sizes);
+        final SmoothedProgressTracker tracker = trace.createTracker();
+
+        for (mNow = SAMPLE_MILLIS; mNow < trace.mDuration; mNow += SAMPLE_MILLIS) {
+            trace.replay(tracker);
+            if (mNow >= 10 * 1000) {
+                assertEstimate(trace.mDuration - mNow, tracker.getRemainingTimeEstimate(), 0.01);
+            }
+        }
+    }
+
+    @Test
+    public void testStalledDestination() {
+        final Trace trace = new Trace(new long[] { 600 * 1000 * 1000L });
+        final SmoothedProgressTracker tracker = trace.createTracker();
+
+        for (mNow = SAMPLE_MILLIS; mNow <= 60 * 1000; mNow += SAMPLE_MILLIS) {
+            trace.replay(tracker);
+        }
+        final long beforeStall = tracker.getRemainingTimeEstimate();
+
+        // Nothing is written while the destination flushes.
+        final long stall = 5 * 1000;
+        for (long end = mNow + stall; mNow < end; mNow += SAMPLE_MILLIS) {
+            tracker.updateEstimateRemainingTime();
+            assertEquals(beforeStall, tracker.getRemainingTimeEstimate());
+        }
+
+        // The stall slows down the estimated throughput, but only by as much as it took.
+        trace.shift(stall);
+        trace.replay(tracker);
+        final long afterStall = tracker.getRemainingTimeEstimate();
+        assertTrue(afterStall > beforeStall - SAMPLE_MILLIS);
+        assertTrue(afterStall < beforeStall * 1.5);
+    }
+
+    private static void assertEstimate(long expected, long actual, double tolerance) {
+        assertTrue("Expected about " + expected + "ms remaining, but was " + actual + "ms",
+                Math.abs(actual - expected) <= Math.max(expected * tolerance, SAMPLE_MILLIS));
+    }
+
+    /**
+     * Copy of files one after another, where each file takes {@link #OVERHEAD_MILLIS} to set up
+     * and its bytes are copied at {@link #THROUGHPUT}.
+     */
+    private final class Trace {
+        final long[] mSizes;
+        final long[] mStarts;
+        final long mBytesRequired;
+        final long mDuration;
+        long mOffset;
+
+        Trace(long[] sizes) {
+            mSizes = sizes;
+            mStarts = new long[sizes.length];
+            long bytes = 0;
+            long time = 0;
+            for (int i = 0; i < sizes.length; i++) {
+                mStarts[i] = time + OVERHEAD_MILLIS;
+                time = mStarts[i] + sizes[i] / THROUGHPUT;
+                bytes += sizes[i];
+            }
+            mBytesRequired = bytes;
+            mDuration = time;
+        }
+
+        SmoothedProgressTracker createTracker() {
+            mNow = 0;
+            mBytesReported = 0;
+            mFilesReported = 0;
+            final SmoothedProgressTracker tracker =
+                    new SmoothedProgressTracker(mBytesRequired, mSizes.length, () -> mNow);
+            tracker.start();
+            return tracker;
+        }
+
+        void shift(long millis) {
+            mOffset += millis;
+        }
+
+        /**
+         * Reports the progress made until now to the tracker, and updates its estimate.
+         */
+        void replay(SmoothedProgressTracker tracker) {
+            final long time = mNow - mOffset;
+            long bytes = 0;
+            long files = 0;
+            for (int i = 0; i < mSizes.length && time > mStarts[i]; i++) {
+                final long copied = Math.min((time - mStarts[i]) * THROUGHPUT, mSizes[i]);
+                bytes += copied;
+                if (copied == mSizes[i]) {
+                    files++;
+                }
+            }
+
+            tracker.onBytesCopied(bytes - mBytesReported);
+            for (; mFilesReported < files; mFilesReported++) {
+                tracker.onFileCompleted();
+            }
+            mBytesReported = bytes;
+            tracker.updateEstimateRemainingTime();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.documentsui.services;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class TransferFileTest {
+
+    private static final int FILE_BYTES = 10000;
+    private static final int CHUNK_BYTES = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<Long> mProgress = new ArrayList<>();
+
+    @Test
+    public void testTransfer_RetriesShortTransfers() throws Exception {
+        final byte[] bytes = createBytes();
+        // Takes fewer bytes than a chunk at a time.
+        final ShortWriteChannel out = new ShortWriteChannel(300);
+
+        try (FileInputStream in = new FileInputStream(createFile(bytes))) {
+            CopyJob.transferFile(in.getChannel(), out, new CancellationSignal(), CHUNK_BYTES,
+                    Long.MAX_VALUE, mProgress::add);
+        }
+
+        assertArrayEquals(bytes, out.mBytes.toByteArray());
+        assertTrue(out.mWrites > FILE_BYTES / CHUNK_BYTES);
+    }
+
+    @Test
+    public void testTransfer_ReportsProgressPerChunk() throws Exception {
+        final byte[] bytes = createBytes();
+        final File dst = folder.newFile();
+
+        try (FileInputStream in = new FileInputStream(createFile(bytes));
+                FileOutputStream out = new FileOutputStream(dst)) {
+            CopyJob.transferFile(in.getChannel(), out.getChannel(), new CancellationSignal(),
+                    CHUNK_BYTES, 0, mProgress::add);
+        }
+
+        assertEquals(FILE_BYTES / CHUNK_BYTES, mProgress.size());
+        for (long progress : mProgress) {
+            assertEquals(CHUNK_BYTES, progress);
+        }
+        assertEquals(FILE_BYTES, dst.length());
+    }
+
+    @Test
+    public void testTransfer_ReportsProgressOnceWhenDone() throws Exception {
+        final byte[] bytes = createBytes();
+
+        try (FileInputStream in = new FileInputStream(createFile(bytes));
+                FileOutputStream out = new FileOutputStream(folder.newFile())) {
+            CopyJob.transferFile(in.getChannel(), out.getChannel(), new CancellationSignal(),
+                    CHUNK_BYTES, Long.MAX_VALUE, mProgress::add);
+        }
+
+        assertEquals(1, mProgress.size());
+        assertEquals(FILE_BYTES, (long) mProgress.get(0));
+    }
+
+    @Test
+    public void testIsRegularFile_FallsBackForPipes() throws Exception {
+        final ParcelFileDescriptor file = ParcelFileDescriptor.open(
+                folder.newFile(), ParcelFileDescriptor.MODE_READ_ONLY);
+        final ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
+        try {
+            assertTrue(CopyJob.isRegularFile(file));
+            // Pipes, like the ones providers stream documents through, are copied with
+            // FileUtils#copy instead.
+            assertFalse(CopyJob.isRegularFile(pipe[0]));
+            assertFalse(CopyJob.isRegularFile(pipe[1]));
+        } finally {
+            file.close();
+            pipe[0].close();
+            pipe[1].close();
+        }
+    }
+
+    private static byte[] createBytes() {
+        final byte[] bytes = new byte[FILE_BYTES];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    private File createFile(byte[] bytes) throws IOException {
+        final File file = folder.newFile();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(bytes);
+        }
+        return file;
+    }
+
+    /**
+     * Channel taking at most a few bytes per write, like a socket with a full buffer.
+     */
+    private static final class ShortWriteChannel implements WritableByteChannel {
+        final ByteArrayOutputStream mBytes = new ByteArrayOutputStream();
+        final int mMaxWrite;
+        int mWrites;
+
+        ShortWriteChannel(int maxWrite) {
+            mMaxWrite = maxWrite;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            final int count = Math.min(src.remaining(), mMaxWrite);
+            final byte[] buffer = new byte[count];
+            src.get(buffer);
+            mBytes.write(buffer, 0, count);
+            mWrites++;
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
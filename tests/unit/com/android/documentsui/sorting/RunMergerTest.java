@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.documentsui.sorting;
+
+import static com.android.documentsui.base.DocumentInfo.getCursorString;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.provider.DocumentsContract.Document;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.documentsui.base.ColumnarDocumentsCursor;
+import com.android.documentsui.testing.SortModels;
+import com.android.documentsui.testing.TestFileTypeLookup;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class RunMergerTest {
+
+    private static final String[] COLUMNS = new String[] {
+            Document.COLUMN_DOCUMENT_ID,
+            Document.COLUMN_DISPLAY_NAME,
+            Document.COLUMN_SIZE,
+            Document.COLUMN_MIME_TYPE
+    };
+
+    private SortModel mSortModel;
+    private RunMerger mMerger;
+
+    @Before
+    public void setUp() {
+        mSortModel = SortModels.createTestSortModel();
+        mSortModel.sortByUser(
+                SortModel.SORT_DIMENSION_ID_TITLE, SortDimension.SORT_DIRECTION_ASCENDING);
+        mMerger = new RunMerger(new TestFileTypeLookup(), SortModel.NO_PARALLEL_SORT);
+    }
+
+    @After
+    public void tearDown() {
+        mMerger.close();
+    }
+
+    @Test
+    public void testMergesRuns() {
+        mMerger.add(createRun("a", "d", "f"), mSortModel);
+        mMerger.add(createRun("e", "b"), mSortModel);
+        mMerger.add(createRun("c"), mSortModel);
+
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e", "f"), getNames(mMerger.createCursor()));
+    }
+
+    @Test
+    public void testMergesRuns_directoriesFirst() {
+        mMerger.add(createRun("b", "c"), mSortModel);
+        mMerger.add(createRun(Document.MIME_TYPE_DIR, "d"), mSortModel);
+
+        assertEquals(Arrays.asList("d", "b", "c"), getNames(mMerger.createCursor()));
+    }
+
+    @Test
+    public void testMergesRuns_descending() {
+        mSortModel.sortByUser(
+                SortModel.SORT_DIMENSION_ID_TITLE, SortDimension.SORT_DIRECTION_DESCENDING);
+
+        mMerger.add(createRun("a", "c"), mSortModel);
+        mMerger.add(createRun("b", "d"), mSortModel);
+
+        assertEquals(Arrays.asList("d", "c", "b", "a"), getNames(mMerger.createCursor()));
+    }
+
+    @Test
+    public void testCreatedCursor_keepsItsRows() {
+        mMerger.add(createRun("b"), mSortModel);
+        final Cursor cursor = mMerger.createCursor();
+
+        mMerger.add(createRun("a"), mSortModel);
+
+        assertEquals(Arrays.asList("b"), getNames(cursor));
+        assertEquals(Arrays.asList("a", "b"), getNames(mMerger.createCursor()));
+    }
+
+    @Test
+    public void testCreatedCursor_readableAfterClose() {
+        mMerger.add(createRun("a", "b"), mSortModel);
+        final Cursor cursor = mMerger.createCursor();
+
+        mMerger.close();
+
+        assertEquals(Arrays.asList("a", "b"), getNames(cursor));
+    }
+
+    @Test
+    public void testSortOrderChanged_sortsEarlierRunsAgain() {
+        mMerger.add(createRun("a", "c"), mSortModel);
+
+        mSortModel.sortByUser(
+                SortModel.SORT_DIMENSION_ID_TITLE, SortDimension.SORT_DIRECTION_DESCENDING);
+        mMerger.add(createRun("b"), mSortModel);
+
+        assertEquals(Arrays.asList("c", "b", "a"), getNames(mMerger.createCursor()));
+    }
+
+    @Test
+    public void testResort() {
+        mMerger.add(createRun("a", "c"), mSortModel);
+        mMerger.add(createRun("b", "d"), mSortModel);
+        final Cursor cursor = mMerger.createCursor();
+
+        mSortModel.sortByUser(
+                SortModel.SORT_DIMENSION_ID_TITLE, SortDimension.SORT_DIRECTION_DESCENDING);
+
+        assertTrue(mSortModel.resortCursor(cursor));
+        assertEquals(Arrays.asList("d", "c", "b", "a"), getNames(cursor));
+    }
+
+    @Test
+    public void testGetMovesFrom() {
+        mMerger.add(createRun("a", "c"), mSortModel);
+        mMerger.add(createRun("b", "d"), mSortModel);
+        final Cursor cursor = mMerger.createCursor();
+        assertNull(SortModel.getMovesFrom(cursor,
+                SortModel.SORT_DIMENSION_ID_TITLE, SortDimension.SORT_DIRECTION_ASCENDING));
+
+        mSortModel.sortByUser(
+                SortModel.SORT_DIMENSION_ID_TITLE, SortDimension.SORT_DIRECTION_DESCENDING);
+        assertTrue(mSortModel.resortCursor(cursor));
+
+        assertArrayEquals(new int[] { 3, 2, 1, 0 }, SortModel.getMovesFrom(cursor,
+                SortModel.SORT_DIMENSION_ID_TITLE, SortDimension.SORT_DIRECTION_ASCENDING));
+    }
+
+    @Test
+    public void testResort_rejectsNewDimensions() {
+        mMerger.add(createRun("a", "c"), mSortModel);
+        final Cursor cursor = mMerger.createCursor();
+
+        mSortModel.sortByUser(
+                SortModel.SORT_DIMENSION_ID_SIZE, SortDimension.SORT_DIRECTION_ASCENDING);
+
+        assertFalse(mSortModel.resortCursor(cursor));
+    }
+
+    @Test
+    public void testColumnsMissingFromRun_readAsNull() {
+        final MatrixCursor withoutSize = new MatrixCursor(new String[] {
+                Document.COLUMN_DOCUMENT_ID,
+                Document.COLUMN_DISPLAY_NAME,
+                Document.COLUMN_MIME_TYPE
+        });
+        withoutSize.addRow(new Object[] { "b", "b", "text/plain" });
+        mMerger.add(new ColumnarDocumentsCursor(withoutSize), mSortModel);
+        mMerger.add(createRun("a"), mSortModel);
+
+        final Cursor cursor = mMerger.createCursor();
+        final int sizeIndex = cursor.getColumnIndex(Document.COLUMN_SIZE);
+        cursor.moveToPosition(0);
+        assertEquals(1, cursor.getLong(sizeIndex));
+        cursor.moveToPosition(1);
+        assertTrue(cursor.isNull(sizeIndex));
+    }
+
+    /**
+     * Creates a run of files with the given names, or a directory for every name that follows
+     * {@link Document#MIME_TYPE_DIR}.
+     */
+    private static ColumnarDocumentsCursor createRun(String... names) {
+        final MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        boolean dir = false;
+        for (String name : names) {
+            if (Document.MIME_TYPE_DIR.equals(name)) {
+                dir = true;
+                continue;
+            }
+            cursor.addRow(new Object[] {
+                    name, name, 1, dir ? Document.MIME_TYPE_DIR : "text/plain" });
+            dir = false;
+        }
+        return new ColumnarDocumentsCursor(cursor);
+    }
+
+    private static List<String> getNames(Cursor cursor) {
+        final List<String> names = new ArrayList<>();
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            names.add(getCursorString(cursor, Document.COLUMN_DISPLAY_NAME));
+        }
+        return names;
+    }
+}
@@ -471,6 +471,176 @@ public class SortingCursorWrapperTest {
         }
     }
 
+    // Tests that documents with identical names are ordered by document ID in both directions.
+    @Test
+    public void testSort_names_tieBrokenByDocumentId() {
+        MatrixCursor c = new MatrixCursor(COLUMNS);
+        for (int i = ITEM_COUNT - 1; i >= 0; --i) {
+            MatrixCursor.RowBuilder row = c.newRow();
+            row.add(RootCursorWrapper.COLUMN_AUTHORITY, AUTHORITY);
+            row.add(Document.COLUMN_DOCUMENT_ID, Integer.toString(i));
+            row.add(Document.COLUMN_DISPLAY_NAME, (i % 2 == 0) ? "Same" : "same");
+            row.add(Document.COLUMN_MIME_TYPE, "text/plain");
+        }
+
+        for (int direction : new int[] {
+                SortDimension.SORT_DIRECTION_ASCENDING, SortDimension.SORT_DIRECTION_DESCENDING }) {
+            sortModel.sortByUser(SortModel.SORT_DIMENSION_ID_TITLE, direction);
+
+            final Cursor cursor = createSortingCursorWrapper(c);
+
+            assertEquals(ITEM_COUNT, cursor.getCount());
+            for (int i = 0; i < ITEM_COUNT; ++i) {
+                cursor.moveToPosition(i);
+                assertEquals(Integer.toString(i),
+                        getCursorString(cursor, Document.COLUMN_DOCUMENT_ID));
+            }
+        }
+    }
+
+    // Tests a directory large enough to exercise merging, with directories and empty names mixed in.
+    @Test
+    public void testSort_names_largeDirectory() {
+        final int count = 1000;
+        final Random rand = new Random(42);
+        MatrixCursor c = new MatrixCursor(COLUMNS);
+        for (int i = 0; i < count; ++i) {
+            MatrixCursor.RowBuilder row = c.newRow();
+            row.add(RootCursorWrapper.COLUMN_AUTHORITY, AUTHORITY);
+            row.add(Document.COLUMN_DOCUMENT_ID, Integer.toString(i));
+            row.add(Document.COLUMN_DISPLAY_NAME,
+                    (i % 50 == 0) ? "" : Integer.toString(rand.nextInt(count)));
+            row.add(Document.COLUMN_MIME_TYPE,
+                    (i % 7 == 0) ? Document.MIME_TYPE_DIR : "text/plain");
+        }
+
+        sortModel.sortByUser(SortModel.SORT_DIMENSION_ID_TITLE,
+                SortDimension.SORT_DIRECTION_ASCENDING);
+
+        final Cursor cursor = createSortingCursorWrapper(c);
+
+        assertEquals(count, cursor.getCount());
+        final BitSet seen = new BitSet(count);
+        boolean previousIsDir = true;
+        String previousName = null;
+        for (int i = 0; i < count; ++i) {
+            cursor.moveToPosition(i);
+            seen.set(Integer.parseInt(getCursorString(cursor, Document.COLUMN_DOCUMENT_ID)));
+
+            final boolean isDir = Document.MIME_TYPE_DIR.equals(
+                    getCursorString(cursor, Document.COLUMN_MIME_TYPE));
+            final String name = getCursorString(cursor, Document.COLUMN_DISPLAY_NAME);
+            if (isDir == previousIsDir && i > 0) {
+                assertTrue(previousName + " is not smaller than " + name,
+                        Shared.compareToIgnoreCaseNullable(previousName, name) <= 0);
+            } else {
+                // Directories are bucketed in front of everything else.
+                assertTrue(previousIsDir);
+            }
+            previousIsDir = isDir;
+            previousName = name;
+        }
+        assertEquals(count, seen.cardinality());
+    }
+
+    // Tests that the parallel sort produces exactly the same order as the sequential one.
+    @Test
+    public void testSort_parallel_matchesSequential() {
+        final int count = 20000;
+        final Random rand = new Random(42);
+        MatrixCursor c = new MatrixCursor(COLUMNS);
+        for (int i = 0; i < count; ++i) {
+            MatrixCursor.RowBuilder row = c.newRow();
+            row.add(RootCursorWrapper.COLUMN_AUTHORITY, AUTHORITY);
+            row.add(Document.COLUMN_DOCUMENT_ID, Integer.toString(i));
+            row.add(Document.COLUMN_DISPLAY_NAME, Integer.toString(rand.nextInt(count)));
+            row.add(Document.COLUMN_SIZE, rand.nextInt(100));
+            row.add(Document.COLUMN_MIME_TYPE,
+                    (i % 7 == 0) ? Document.MIME_TYPE_DIR : "text/plain");
+        }
+
+        for (int id : new int[] {
+                SortModel.SORT_DIMENSION_ID_TITLE, SortModel.SORT_DIMENSION_ID_SIZE }) {
+            sortModel.sortByUser(id, SortDimension.SORT_DIRECTION_DESCENDING);
+            final SortDimension dimension = sortModel.getDimensionById(id);
+
+            final Cursor sequential =
+                    new SortingCursorWrapper(c, dimension, fileTypeLookup, false);
+            final Cursor parallel =
+                    new SortingCursorWrapper(c, dimension, fileTypeLookup, true);
+
+            assertEquals(count, parallel.getCount());
+            for (int i = 0; i < count; ++i) {
+                sequential.moveToPosition(i);
+                final String expected =
+                        getCursorString(sequential, Document.COLUMN_DOCUMENT_ID);
+                parallel.moveToPosition(i);
+                assertEquals(expected, getCursorString(parallel, Document.COLUMN_DOCUMENT_ID));
+            }
+        }
+    }
+
+    // Tests that re-sorting in place gives the same order as sorting from scratch.
+    @Test
+    public void testResort_matchesFreshSort() {
+        populateTypeMap();
+        MatrixCursor c = new MatrixCursor(COLUMNS);
+        for (int i = 0; i < ITEM_COUNT * 10; ++i) {
+            MatrixCursor.RowBuilder row = c.newRow();
+            row.add(RootCursorWrapper.COLUMN_AUTHORITY, AUTHORITY);
+            row.add(Document.COLUMN_DOCUMENT_ID, Integer.toString(i));
+            row.add(Document.COLUMN_DISPLAY_NAME, NAMES[i % ITEM_COUNT]);
+            row.add(Document.COLUMN_SIZE, i % 3);
+            row.add(Document.COLUMN_MIME_TYPE,
+                    (i % 4 == 0) ? Document.MIME_TYPE_DIR : MIMES[i % ITEM_COUNT]);
+        }
+
+        sortModel.sortByUser(SortModel.SORT_DIMENSION_ID_TITLE,
+                SortDimension.SORT_DIRECTION_ASCENDING);
+        final SortingCursorWrapper cursor =
+                (SortingCursorWrapper) createSortingCursorWrapper(c);
+
+        final int[][] sorts = new int[][] {
+                { SortModel.SORT_DIMENSION_ID_TITLE, SortDimension.SORT_DIRECTION_DESCENDING },
+                { SortModel.SORT_DIMENSION_ID_TITLE, SortDimension.SORT_DIRECTION_ASCENDING },
+                { SortModel.SORT_DIMENSION_ID_TITLE, SortDimension.SORT_DIRECTION_DESCENDING },
+        };
+        for (int[] sort : sorts) {
+            sortModel.sortByUser(sort[0], sort[1]);
+            assertTrue(sortModel.resortCursor(cursor));
+
+            final Cursor expected = createSortingCursorWrapper(c);
+            assertEquals(expected.getCount(), cursor.getCount());
+            for (int i = 0; i < expected.getCount(); ++i) {
+                expected.moveToPosition(i);
+                final String expectedId =
+                        getCursorString(expected, Document.COLUMN_DOCUMENT_ID);
+                cursor.moveToPosition(i);
+                assertEquals(expectedId, getCursorString(cursor, Document.COLUMN_DOCUMENT_ID));
+            }
+        }
+    }
+
+    @Test
+    public void testResort_rejectsNewDimensions() {
+        sortModel.sortByUser(SortModel.SORT_DIMENSION_ID_TITLE,
+                SortDimension.SORT_DIRECTION_ASCENDING);
+        final Cursor sorted = createSortingCursorWrapper();
+
+        // Reading the sort keys of a new dimension is left to the loader.
+        sortModel.sortByUser(SortModel.SORT_DIMENSION_ID_SIZE,
+                SortDimension.SORT_DIRECTION_ASCENDING);
+        assertFalse(sortModel.resortCursor(sorted));
+    }
+
+    @Test
+    public void testResort_rejectsOtherCursors() {
+        sortModel.sortByUser(SortModel.SORT_DIMENSION_ID_TITLE,
+                SortDimension.SORT_DIRECTION_ASCENDING);
+
+        assertFalse(sortModel.resortCursor(cursor));
+    }
+
     @Test
     public void testReturnsWrappedExtras() {
         MatrixCursor c = new MatrixCursor(COLUMNS);